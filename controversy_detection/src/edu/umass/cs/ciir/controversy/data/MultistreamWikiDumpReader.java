@@ -0,0 +1,303 @@
+package edu.umass.cs.ciir.controversy.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.io.SequenceInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.BufferedInputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+
+/**
+ * <p>
+ * Reading a "multistream" bz2 wiki dump in parallel. A multistream dump (e.g., enwiki-20150602-pages-articles-multistream.xml.bz2) is a concatenation
+ * of independent bz2 streams of about 100 pages each, so the streams can be decompressed and parsed by different threads. The offsets of the streams
+ * are read from the index published with the dump (e.g., enwiki-20150602-pages-articles-multistream-index.txt.bz2, whose lines are
+ * "offset:pageid:title"), or, without the index, found by scanning the dump for the bz2 stream header followed by the block magic.
+ * </p>
+ * <p>
+ * Each stream is decompressed and parsed as a task of a fork-join pool, by a WikiDumpReader of its own. Callers should implement processDocument(
+ * WikiDumpDocument doc), which is called concurrently by the threads of the pool.
+ * </p>
+ * 
+ * @see WikiDumpReader
+ */
+public abstract class MultistreamWikiDumpReader {
+	
+	// "BZh" followed by the block size ('1'-'9') and the block magic 0x314159265359 of the first block
+	private static final byte[] STREAM_MAGIC = { 'B', 'Z', 'h', 0, 0x31, 0x41, 0x59, 0x26, 0x53, 0x59 };
+	
+	private static final byte[] PAGE_START = "<page>".getBytes( StandardCharsets.US_ASCII );
+	private static final byte[] PAGE_END = "</page>".getBytes( StandardCharsets.US_ASCII );
+	
+	public abstract void processDocument( WikiDumpDocument doc );
+	
+	protected final File dump;
+	protected final long[] offsets; // start of each stream, followed by the length of the dump
+	protected final int max_text_length;
+	protected final AtomicInteger failed = new AtomicInteger();
+	
+	/**
+	 * @param dump
+	 *            The multistream dump.
+	 * @param index
+	 *            The index of the dump, or null to scan the dump for the streams.
+	 * @param max_text_length
+	 *            Maximum length of the text of a page (see WikiDumpReader); 0 for no limit.
+	 * @throws IOException
+	 */
+	public MultistreamWikiDumpReader( File dump, File index, int max_text_length ) throws IOException {
+		this.dump = dump;
+		this.max_text_length = max_text_length;
+		long[] starts = index == null ? scanOffsets( dump ) : readOffsets( index );
+		this.offsets = Arrays.copyOf( starts, starts.length + 1 );
+		this.offsets[starts.length] = dump.length();
+	}
+	
+	/**
+	 * @param dump
+	 * @return The index published with a multistream dump (the "-index.txt.bz2" file next to it), or null if there is none.
+	 */
+	public static File findIndex( File dump ) {
+		String name = dump.getName();
+		if ( !name.endsWith( ".xml.bz2" ) ) {
+			return null;
+		}
+		File index = new File( dump.getParentFile(), name.substring( 0, name.length() - ".xml.bz2".length() ) + "-index.txt.bz2" );
+		return index.isFile() ? index : null;
+	}
+	
+	/**
+	 * @param f
+	 * @return Whether the file looks like a multistream dump (see findIndex() for its index).
+	 */
+	public static boolean isMultistream( File f ) {
+		return f.getName().toLowerCase().endsWith( "multistream.xml.bz2" );
+	}
+	
+	/**
+	 * Read the distinct stream offsets (in increasing order) from the index of a multistream dump.
+	 * 
+	 * @param index
+	 * @return
+	 * @throws IOException
+	 */
+	public static long[] readOffsets( File index ) throws IOException {
+		long[] offsets = new long[1024];
+		int size = 0;
+		InputStream instream = new BZip2CompressorInputStream( new BufferedInputStream( new FileInputStream( index ) ), true );
+		BufferedReader reader = new BufferedReader( new InputStreamReader( instream, StandardCharsets.UTF_8 ) );
+		try {
+			String line = reader.readLine();
+			while ( line != null ) {
+				int colon = line.indexOf( ':' );
+				if ( colon > 0 ) {
+					long offset = Long.parseLong( line.substring( 0, colon ) );
+					// lines of the pages of a stream share its offset
+					if ( size == 0 || offset > offsets[size - 1] ) {
+						if ( size == offsets.length ) {
+							offsets = Arrays.copyOf( offsets, size * 2 );
+						}
+						offsets[size++] = offset;
+					}
+				}
+				line = reader.readLine();
+			}
+		} finally {
+			reader.close();
+		}
+		// the first stream (the siteinfo header) is not in the index
+		if ( size == 0 || offsets[0] > 0 ) {
+			long[] all = new long[size + 1];
+			System.arraycopy( offsets, 0, all, 1, size );
+			return all;
+		}
+		return Arrays.copyOf( offsets, size );
+	}
+	
+	/**
+	 * Find the offsets of the bz2 streams of a dump by scanning it for the stream header. Streams of a multistream dump start at byte boundaries, while
+	 * blocks inside a stream do not, so a 10-byte match inside a stream is practically impossible.
+	 * 
+	 * @param dump
+	 * @return
+	 * @throws IOException
+	 */
+	public static long[] scanOffsets( File dump ) throws IOException {
+		long[] offsets = new long[1024];
+		int size = 0;
+		InputStream instream = new FileInputStream( dump );
+		try {
+			byte[] buffer = new byte[1 << 20];
+			int keep = STREAM_MAGIC.length - 1; // bytes kept from the previous buffer, so matches across buffers are found
+			int len = 0;
+			long pos = 0; // offset of buffer[0] in the dump
+			int n = instream.read( buffer, 0, buffer.length );
+			while ( n > 0 ) {
+				len += n;
+				for ( int ix = 0 ; ix + STREAM_MAGIC.length <= len ; ix++ ) {
+					if ( buffer[ix] == 'B' && matches( buffer, ix ) ) {
+						if ( size == offsets.length ) {
+							offsets = Arrays.copyOf( offsets, size * 2 );
+						}
+						offsets[size++] = pos + ix;
+					}
+				}
+				int tail = Math.min( keep, len );
+				System.arraycopy( buffer, len - tail, buffer, 0, tail );
+				pos += len - tail;
+				len = tail;
+				n = instream.read( buffer, len, buffer.length - len );
+			}
+		} finally {
+			instream.close();
+		}
+		return Arrays.copyOf( offsets, size );
+	}
+	
+	private static boolean matches( byte[] buffer, int pos ) {
+		for ( int ix = 0 ; ix < STREAM_MAGIC.length ; ix++ ) {
+			byte b = buffer[pos + ix];
+			if ( ix == 3 ? b < '1' || b > '9' : b != STREAM_MAGIC[ix] ) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * @return Number of bz2 streams of the dump.
+	 */
+	public int getStreamCount() {
+		return offsets.length - 1;
+	}
+	
+	/**
+	 * @return Number of streams that could not be decompressed or parsed (their errors are printed).
+	 */
+	public int getFailedCount() {
+		return failed.get();
+	}
+	
+	/**
+	 * Decompress and parse all streams of the dump in parallel, and wait until they are processed.
+	 * 
+	 * @param pool
+	 * @throws IOException
+	 */
+	public void read( ForkJoinPool pool ) throws IOException {
+		RandomAccessFile file = new RandomAccessFile( dump, "r" );
+		try {
+			pool.invoke( new StreamsTask( file.getChannel(), 0, getStreamCount() ) );
+		} finally {
+			file.close();
+		}
+	}
+	
+	private class StreamsTask extends RecursiveAction {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final FileChannel channel;
+		private final int bg;
+		private final int ed;
+		
+		private StreamsTask( FileChannel channel, int bg, int ed ) {
+			this.channel = channel;
+			this.bg = bg;
+			this.ed = ed;
+		}
+		
+		protected void compute() {
+			if ( ed - bg > 1 ) {
+				int mid = ( bg + ed ) >>> 1;
+				invokeAll( new StreamsTask( channel, bg, mid ), new StreamsTask( channel, mid, ed ) );
+			} else if ( ed > bg ) {
+				try {
+					readStream( channel, offsets[bg], offsets[bg + 1] );
+				} catch ( Exception e ) {
+					System.err.println( " >> cannot read the stream at " + offsets[bg] + " of " + dump );
+					e.printStackTrace();
+					failed.incrementAndGet();
+				}
+			}
+		}
+		
+	}
+	
+	private void readStream( FileChannel channel, long start, long end ) throws Exception {
+		// positional reads, so the tasks share the channel
+		ByteBuffer compressed = ByteBuffer.allocate( (int) ( end - start ) );
+		while ( compressed.hasRemaining() ) {
+			if ( channel.read( compressed, start + compressed.position() ) < 0 ) {
+				throw new IOException( "Unexpected end of " + dump );
+			}
+		}
+		ByteArrayOutputStream xml = new ByteArrayOutputStream( compressed.capacity() * 5 );
+		InputStream instream = new BZip2CompressorInputStream( new ByteArrayInputStream( compressed.array() ), false );
+		byte[] buffer = new byte[65536];
+		int n = instream.read( buffer );
+		while ( n > 0 ) {
+			xml.write( buffer, 0, n );
+			n = instream.read( buffer );
+		}
+		instream.close();
+		// the first stream also has the header of the dump and the last one its end tag; only the pages are parsed
+		byte[] bytes = xml.toByteArray();
+		int first = indexOf( bytes, PAGE_START, 0 );
+		int last = lastIndexOf( bytes, PAGE_END );
+		if ( first < 0 || last < first ) {
+			return;
+		}
+		InputStream pages = new SequenceInputStream( new SequenceInputStream( new ByteArrayInputStream( "<pages>".getBytes( StandardCharsets.US_ASCII ) ), new ByteArrayInputStream( bytes, first, last + PAGE_END.length - first ) ), new ByteArrayInputStream( "</pages>".getBytes( StandardCharsets.US_ASCII ) ) );
+		WikiDumpReader reader = new WikiDumpReader( pages, max_text_length );
+		try {
+			while ( reader.hasNext() ) {
+				processDocument( reader.next() );
+			}
+		} finally {
+			reader.close();
+		}
+	}
+	
+	private static int indexOf( byte[] bytes, byte[] pattern, int from ) {
+		for ( int ix = from ; ix + pattern.length <= bytes.length ; ix++ ) {
+			if ( startsWith( bytes, pattern, ix ) ) {
+				return ix;
+			}
+		}
+		return -1;
+	}
+	
+	private static int lastIndexOf( byte[] bytes, byte[] pattern ) {
+		for ( int ix = bytes.length - pattern.length ; ix >= 0 ; ix-- ) {
+			if ( startsWith( bytes, pattern, ix ) ) {
+				return ix;
+			}
+		}
+		return -1;
+	}
+	
+	private static boolean startsWith( byte[] bytes, byte[] pattern, int pos ) {
+		for ( int ix = 0 ; ix < pattern.length ; ix++ ) {
+			if ( bytes[pos + ix] != pattern[ix] ) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+}
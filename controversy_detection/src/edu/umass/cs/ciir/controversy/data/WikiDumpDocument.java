@@ -11,10 +11,10 @@ public class WikiDumpDocument {
 	protected String title;
 	protected String id;
 	protected String redirect;
-	protected StringBuilder text;
+	protected String text;
+	protected StringBuilder builder; // only created by appendText()
 	
 	public WikiDumpDocument() {
-		this.text = new StringBuilder();
 	}
 	
 	public String toString() {
@@ -22,7 +22,7 @@ public class WikiDumpDocument {
 		sb.append( "title: " + title + "\n" );
 		sb.append( "id: " + id + "\n" );
 		sb.append( "redirect: " + redirect + "\n" );
-		sb.append( "text: " + text );
+		sb.append( "text: " + getText() );
 		return sb.toString();
 	}
 	
@@ -69,11 +69,22 @@ public class WikiDumpDocument {
 	}
 	
 	public String getText() {
-		return text.toString();
+		if ( builder != null ) {
+			return builder.toString();
+		}
+		return text == null ? "" : text;
+	}
+	
+	public void setText( String text ) {
+		this.text = text;
+		this.builder = null;
 	}
 	
 	public void appendText( String text ) {
-		this.text.append( text );
+		if ( builder == null ) {
+			builder = new StringBuilder( getText() );
+		}
+		builder.append( text );
 	}
 	
 }
@@ -0,0 +1,212 @@
+package edu.umass.cs.ciir.controversy.data;
+
+import java.io.File;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.FileInputStream;
+import java.io.BufferedInputStream;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.zip.GZIPInputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+
+/**
+ * <p>
+ * Reading the pages of a wiki dump xml file one by one using StAX (a pull parser). Only the title, id, redirect and the text of the first revision of
+ * each page are read; other elements (e.g., contributors, comments and further revisions) are skipped without being copied.
+ * </p>
+ * <p>
+ * Text is copied from the parser's buffer into a char buffer reused for all pages, and a page's text is read up to a maximum length (the rest is
+ * skipped), so reading a page allocates little more than its strings, even for giant pages.
+ * </p>
+ * 
+ * @see WikiDumpDocument
+ */
+public class WikiDumpReader implements Iterator<WikiDumpDocument>, Closeable {
+	
+	private static final XMLInputFactory factory = XMLInputFactory.newInstance();
+	
+	static {
+		factory.setProperty( XMLInputFactory.SUPPORT_DTD, false );
+		factory.setProperty( XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false );
+	}
+	
+	protected final InputStream instream;
+	protected final XMLStreamReader reader;
+	protected final int max_text_length;
+	
+	protected char[] buffer;
+	protected WikiDumpDocument next;
+	protected boolean ended;
+	
+	/**
+	 * @param instream
+	 *            The (decompressed) dump xml, which is closed by close().
+	 * @param max_text_length
+	 *            Maximum length of the text of a page; longer texts are cut. 0 for no limit.
+	 * @throws XMLStreamException
+	 */
+	public WikiDumpReader( InputStream instream, int max_text_length ) throws XMLStreamException {
+		this.instream = instream;
+		this.reader = factory.createXMLStreamReader( instream, "UTF-8" );
+		this.max_text_length = max_text_length > 0 ? max_text_length : Integer.MAX_VALUE;
+		this.buffer = new char[8192];
+	}
+	
+	/**
+	 * Open a dump file (.xml, .xml.gz or .xml.bz2).
+	 * 
+	 * @param f
+	 * @param max_text_length
+	 *            Maximum length of the text of a page; longer texts are cut. 0 for no limit.
+	 * @return
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 */
+	public static WikiDumpReader open( File f, int max_text_length ) throws IOException, XMLStreamException {
+		InputStream instream = new BufferedInputStream( new FileInputStream( f ), 1 << 16 );
+		try {
+			if ( f.getName().toLowerCase().endsWith( ".gz" ) ) {
+				instream = new GZIPInputStream( instream );
+			} else if ( f.getName().toLowerCase().endsWith( ".bz2" ) ) {
+				// also reads dumps concatenating several bz2 streams
+				instream = new BZip2CompressorInputStream( instream, true );
+			}
+			return new WikiDumpReader( instream, max_text_length );
+		} catch ( IOException e ) {
+			instream.close();
+			throw e;
+		} catch ( XMLStreamException e ) {
+			instream.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * @throws IllegalStateException
+	 *             If the dump cannot be parsed.
+	 */
+	public boolean hasNext() {
+		if ( next == null && !ended ) {
+			try {
+				next = readPage();
+			} catch ( XMLStreamException e ) {
+				throw new IllegalStateException( "Cannot parse the wiki dump", e );
+			}
+			ended = next == null;
+		}
+		return next != null;
+	}
+	
+	/**
+	 * @throws IllegalStateException
+	 *             If the dump cannot be parsed.
+	 */
+	public WikiDumpDocument next() {
+		if ( !hasNext() ) {
+			throw new NoSuchElementException();
+		}
+		WikiDumpDocument doc = next;
+		next = null;
+		return doc;
+	}
+	
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+	
+	public void close() throws IOException {
+		try {
+			reader.close();
+		} catch ( XMLStreamException e ) {
+			throw new IOException( e );
+		} finally {
+			instream.close();
+		}
+	}
+	
+	private WikiDumpDocument readPage() throws XMLStreamException {
+		while ( reader.hasNext() ) {
+			if ( reader.next() == XMLStreamConstants.START_ELEMENT && reader.getLocalName().equals( "page" ) ) {
+				WikiDumpDocument doc = new WikiDumpDocument();
+				boolean has_text = false;
+				while ( reader.nextTag() == XMLStreamConstants.START_ELEMENT ) {
+					String name = reader.getLocalName();
+					if ( name.equals( "title" ) ) {
+						doc.setTitle( readText( Integer.MAX_VALUE ) );
+					} else if ( name.equals( "id" ) ) {
+						doc.setId( readText( Integer.MAX_VALUE ) );
+					} else if ( name.equals( "redirect" ) ) {
+						doc.setRedirect( reader.getAttributeValue( null, "title" ) );
+						skipElement();
+					} else if ( name.equals( "revision" ) && !has_text ) {
+						has_text = readRevision( doc );
+					} else {
+						skipElement();
+					}
+				}
+				return doc;
+			}
+		}
+		return null;
+	}
+	
+	// reads the text of a revision; other elements of the revision are skipped
+	private boolean readRevision( WikiDumpDocument doc ) throws XMLStreamException {
+		boolean has_text = false;
+		while ( reader.nextTag() == XMLStreamConstants.START_ELEMENT ) {
+			if ( reader.getLocalName().equals( "text" ) && !has_text ) {
+				doc.setText( readText( max_text_length ) );
+				has_text = true;
+			} else {
+				skipElement();
+			}
+		}
+		return has_text;
+	}
+	
+	// reads the text content of the current element (up to a maximum length) and moves to its end tag
+	private String readText( int max_length ) throws XMLStreamException {
+		int len = 0;
+		int depth = 1;
+		while ( depth > 0 ) {
+			int event = reader.next();
+			if ( event == XMLStreamConstants.START_ELEMENT ) {
+				depth++;
+			} else if ( event == XMLStreamConstants.END_ELEMENT ) {
+				depth--;
+			} else if ( depth == 1 && len < max_length && ( event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA || event == XMLStreamConstants.SPACE ) ) {
+				int count = Math.min( reader.getTextLength(), max_length - len );
+				if ( len + count > buffer.length ) {
+					char[] larger = new char[(int) Math.min( Integer.MAX_VALUE - 8, Math.max( (long) buffer.length * 2, len + count ) )];
+					System.arraycopy( buffer, 0, larger, 0, len );
+					buffer = larger;
+				}
+				System.arraycopy( reader.getTextCharacters(), reader.getTextStart(), buffer, len, count );
+				len += count;
+			}
+		}
+		return new String( buffer, 0, len );
+	}
+	
+	// moves to the end tag of the current element
+	private void skipElement() throws XMLStreamException {
+		int depth = 1;
+		while ( depth > 0 ) {
+			int event = reader.next();
+			if ( event == XMLStreamConstants.START_ELEMENT ) {
+				depth++;
+			} else if ( event == XMLStreamConstants.END_ELEMENT ) {
+				depth--;
+			}
+		}
+	}
+	
+}
@@ -0,0 +1,337 @@
+package edu.umass.cs.ciir.controversy.data;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Converting wikitext to plain text in a single pass over its characters (a state machine rather than regular expressions), such that the index only
+ * has the words readers see. It drops:
+ * </p>
+ * <ul>
+ * <li>templates and infoboxes ({{...}}, nested) and tables ({|...|});</li>
+ * <li>references (&lt;ref&gt;...&lt;/ref&gt;), comments and the content of tags such as &lt;math&gt; and &lt;gallery&gt;; other tags are removed but their
+ * content is kept;</li>
+ * <li>file, image and category links and interlanguage links; other links are replaced by their labels ([[target|label]] becomes label);</li>
+ * <li>external links (replaced by their labels) and bare urls;</li>
+ * <li>bold/italic quotes, heading, list and indentation markers, magic words (e.g., __TOC__) and html entities.</li>
+ * </ul>
+ * <p>
+ * Unbalanced markup (e.g., a template cut by the maximum text length) is kept as text. Once a template, link or tag is found unclosed, the same markup
+ * in the rest of the text is kept as text without searching for its end again, so broken pages are still stripped in linear time. The stripper has
+ * no state, so it can be shared by threads.
+ * </p>
+ */
+public class WikiMarkupStripper implements WikiTextFilter {
+	
+	// links to these namespaces are not text
+	private static final Set<String> DROP_NAMESPACES = new HashSet<String>( Arrays.asList( "file", "image", "media", "category" ) );
+	
+	// the content of these tags is not text
+	private static final Set<String> DROP_CONTENT = new HashSet<String>( Arrays.asList( "ref", "math", "gallery", "timeline", "imagemap", "source", "syntaxhighlight", "score", "chem", "graph", "templatedata" ) );
+	
+	private static final byte TEMPLATE = 1;
+	private static final byte TABLE = 2;
+	
+	// the end of the range in which each kind of markup was found unclosed (-1 if none), for one call of filter()
+	private static class Unclosed {
+		
+		int blocks = -1;
+		int links = -1;
+		Map<String, Integer> tags = new HashMap<String, Integer>();
+		
+	}
+	
+	public String filter( String text ) {
+		char[] s = text.toCharArray();
+		StringBuilder out = new StringBuilder( s.length );
+		strip( s, 0, s.length, true, out, new Unclosed() );
+		return out.toString();
+	}
+	
+	private static char at( char[] s, int ix, int ed ) {
+		return ix < ed ? s[ix] : 0;
+	}
+	
+	private static void strip( char[] s, int bg, int ed, boolean line_start, StringBuilder out, Unclosed unclosed ) {
+		boolean heading = false;
+		int ix = bg;
+		while ( ix < ed ) {
+			if ( line_start ) {
+				line_start = false;
+				while ( ix < ed && ( s[ix] == '*' || s[ix] == '#' || s[ix] == ':' || s[ix] == ';' ) ) {
+					ix++;
+				}
+				if ( at( s, ix, ed ) == '=' ) {
+					heading = true;
+					while ( ix < ed && s[ix] == '=' ) {
+						ix++;
+					}
+				}
+				continue;
+			}
+			char c = s[ix];
+			char n = at( s, ix + 1, ed );
+			if ( c == '\n' ) {
+				if ( heading ) {
+					trimHeading( out );
+					heading = false;
+				}
+				out.append( '\n' );
+				line_start = true;
+				ix++;
+			} else if ( c == '{' && ( n == '{' || n == '|' ) ) {
+				int end = unclosed.blocks == ed ? -1 : skipBlock( s, ix, ed );
+				if ( end < 0 ) {
+					unclosed.blocks = ed;
+					out.append( c ).append( n );
+					ix += 2;
+				} else {
+					ix = end;
+				}
+			} else if ( c == '[' && n == '[' ) {
+				if ( unclosed.links == ed ) {
+					out.append( "[[" );
+					ix += 2;
+				} else {
+					ix = link( s, ix, ed, out, unclosed );
+				}
+			} else if ( c == '[' && isUrl( s, ix + 1, ed, true ) ) {
+				ix = externalLink( s, ix, ed, out, unclosed );
+			} else if ( c == '<' ) {
+				ix = tag( s, ix, ed, out, unclosed );
+			} else if ( c == '\'' && n == '\'' ) {
+				while ( ix < ed && s[ix] == '\'' ) {
+					ix++;
+				}
+			} else if ( c == '&' && entity( s, ix, ed ) > 0 ) {
+				out.append( ' ' );
+				ix = entity( s, ix, ed );
+			} else if ( c == '_' && n == '_' && magicWord( s, ix, ed ) > 0 ) {
+				ix = magicWord( s, ix, ed );
+			} else if ( ( c == 'h' || c == 'f' ) && ( ix == bg || !Character.isLetterOrDigit( s[ix - 1] ) ) && isUrl( s, ix, ed, false ) ) {
+				while ( ix < ed && !Character.isWhitespace( s[ix] ) && s[ix] != '|' && s[ix] != ']' && s[ix] != '<' && s[ix] != '{' && s[ix] != '}' ) {
+					ix++;
+				}
+			} else {
+				out.append( c );
+				ix++;
+			}
+		}
+		if ( heading ) {
+			trimHeading( out );
+		}
+	}
+	
+	private static void trimHeading( StringBuilder out ) {
+		int len = out.length();
+		while ( len > 0 && ( out.charAt( len - 1 ) == '=' || out.charAt( len - 1 ) == ' ' || out.charAt( len - 1 ) == '\t' ) ) {
+			len--;
+		}
+		out.setLength( len );
+	}
+	
+	// skips a template or table (and the templates and tables nested in it); returns the position after it, or -1 if it is not closed
+	private static int skipBlock( char[] s, int ix, int ed ) {
+		byte[] stack = new byte[8];
+		int depth = 0;
+		while ( ix < ed ) {
+			char c = s[ix];
+			char n = at( s, ix + 1, ed );
+			if ( c == '{' && ( n == '{' || n == '|' ) ) {
+				if ( depth == stack.length ) {
+					stack = Arrays.copyOf( stack, depth * 2 );
+				}
+				stack[depth++] = n == '{' ? TEMPLATE : TABLE;
+				ix += 2;
+			} else if ( c == '}' && n == '}' && stack[depth - 1] == TEMPLATE ) {
+				depth--;
+				ix += 2;
+			} else if ( c == '|' && n == '}' && stack[depth - 1] == TABLE ) {
+				depth--;
+				ix += 2;
+			} else {
+				ix++;
+			}
+			if ( depth == 0 ) {
+				return ix;
+			}
+		}
+		return -1;
+	}
+	
+	private static int link( char[] s, int ix, int ed, StringBuilder out, Unclosed unclosed ) {
+		// find the end of the link; captions of images may have links
+		int depth = 0;
+		int jx = ix;
+		int pipe = -1;
+		int colon = -1;
+		while ( jx < ed ) {
+			char c = s[jx];
+			char n = at( s, jx + 1, ed );
+			if ( c == '[' && n == '[' ) {
+				depth++;
+				jx += 2;
+			} else if ( c == ']' && n == ']' ) {
+				depth--;
+				jx += 2;
+				if ( depth == 0 ) {
+					break;
+				}
+			} else {
+				if ( depth == 1 && c == '|' && pipe < 0 ) {
+					pipe = jx;
+				} else if ( depth == 1 && c == ':' && pipe < 0 && colon < 0 ) {
+					colon = jx;
+				} else if ( c == '\n' && depth == 1 && n == '\n' ) {
+					// links do not span paragraphs
+					break;
+				}
+				jx++;
+			}
+		}
+		if ( depth != 0 ) {
+			if ( jx >= ed ) {
+				// not closed before the end (rather than a paragraph break), so no later link of the range is closed either
+				unclosed.links = ed;
+			}
+			out.append( "[[" );
+			return ix + 2;
+		}
+		int bg = ix + 2;
+		int ed_target = pipe < 0 ? jx - 2 : pipe;
+		if ( colon > bg ) {
+			String prefix = new String( s, bg, colon - bg ).trim().toLowerCase();
+			if ( DROP_NAMESPACES.contains( prefix ) || ( pipe < 0 && isLanguageCode( prefix ) ) ) {
+				return jx;
+			}
+		}
+		if ( pipe < 0 ) {
+			// [[:Category:X]] links to a category page instead of adding the page to the category
+			strip( s, at( s, bg, ed_target ) == ':' ? bg + 1 : bg, ed_target, false, out, unclosed );
+		} else {
+			strip( s, pipe + 1, jx - 2, false, out, unclosed );
+		}
+		return jx;
+	}
+	
+	private static boolean isLanguageCode( String prefix ) {
+		if ( prefix.length() < 2 || prefix.length() > 12 ) {
+			return false;
+		}
+		for ( int ix = 0 ; ix < prefix.length() ; ix++ ) {
+			char c = prefix.charAt( ix );
+			if ( !( c >= 'a' && c <= 'z' ) && !( c == '-' && ix >= 2 ) ) {
+				return false;
+			}
+		}
+		return prefix.indexOf( '-' ) >= 0 || prefix.length() <= 3;
+	}
+	
+	private static boolean isUrl( char[] s, int ix, int ed, boolean bracketed ) {
+		return startsWith( s, ix, ed, "http://" ) || startsWith( s, ix, ed, "https://" ) || startsWith( s, ix, ed, "ftp://" ) || ( bracketed && ( startsWith( s, ix, ed, "//" ) || startsWith( s, ix, ed, "mailto:" ) ) );
+	}
+	
+	private static boolean startsWith( char[] s, int ix, int ed, String prefix ) {
+		if ( ix + prefix.length() > ed ) {
+			return false;
+		}
+		for ( int jx = 0 ; jx < prefix.length() ; jx++ ) {
+			if ( Character.toLowerCase( s[ix + jx] ) != prefix.charAt( jx ) ) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	// [url label] becomes label
+	private static int externalLink( char[] s, int ix, int ed, StringBuilder out, Unclosed unclosed ) {
+		int jx = ix + 1;
+		int space = -1;
+		while ( jx < ed && s[jx] != ']' && s[jx] != '\n' ) {
+			if ( space < 0 && s[jx] == ' ' ) {
+				space = jx;
+			}
+			jx++;
+		}
+		if ( at( s, jx, ed ) != ']' ) {
+			out.append( '[' );
+			return ix + 1;
+		}
+		if ( space > 0 ) {
+			strip( s, space + 1, jx, false, out, unclosed );
+		}
+		return jx + 1;
+	}
+	
+	private static int tag( char[] s, int ix, int ed, StringBuilder out, Unclosed unclosed ) {
+		if ( startsWith( s, ix, ed, "<!--" ) ) {
+			int end = indexOf( s, ix + 4, ed, "-->" );
+			return end < 0 ? ed : end + 3;
+		}
+		int jx = ix + 1;
+		boolean closing = at( s, jx, ed ) == '/';
+		if ( closing ) {
+			jx++;
+		}
+		int name_bg = jx;
+		while ( jx < ed && Character.isLetterOrDigit( s[jx] ) ) {
+			jx++;
+		}
+		if ( jx == name_bg || !Character.isLetter( s[name_bg] ) ) {
+			out.append( '<' );
+			return ix + 1;
+		}
+		int gt = jx;
+		while ( gt < ed && s[gt] != '>' && s[gt] != '<' && s[gt] != '\n' ) {
+			gt++;
+		}
+		if ( at( s, gt, ed ) != '>' ) {
+			out.append( '<' );
+			return ix + 1;
+		}
+		out.append( ' ' );
+		String name = new String( s, name_bg, jx - name_bg ).toLowerCase();
+		if ( !closing && s[gt - 1] != '/' && DROP_CONTENT.contains( name ) && !Integer.valueOf( ed ).equals( unclosed.tags.get( name ) ) ) {
+			int end = indexOf( s, gt + 1, ed, "</" + name );
+			if ( end >= 0 ) {
+				int end_gt = indexOf( s, end, ed, ">" );
+				return end_gt < 0 ? ed : end_gt + 1;
+			}
+			unclosed.tags.put( name, ed );
+		}
+		return gt + 1;
+	}
+	
+	// case-insensitive search of a lower case string
+	private static int indexOf( char[] s, int ix, int ed, String str ) {
+		for ( ; ix + str.length() <= ed ; ix++ ) {
+			if ( startsWith( s, ix, ed, str ) ) {
+				return ix;
+			}
+		}
+		return -1;
+	}
+	
+	// an html entity such as &nbsp; or &#160;; returns the position after it, or -1
+	private static int entity( char[] s, int ix, int ed ) {
+		int jx = ix + 1;
+		while ( jx < ed && jx - ix <= 10 && ( Character.isLetterOrDigit( s[jx] ) || ( s[jx] == '#' && jx == ix + 1 ) ) ) {
+			jx++;
+		}
+		return jx > ix + 1 && at( s, jx, ed ) == ';' ? jx + 1 : -1;
+	}
+	
+	// a magic word such as __TOC__; returns the position after it, or -1
+	private static int magicWord( char[] s, int ix, int ed ) {
+		int jx = ix + 2;
+		while ( jx < ed && s[jx] >= 'A' && s[jx] <= 'Z' ) {
+			jx++;
+		}
+		return jx > ix + 2 && at( s, jx, ed ) == '_' && at( s, jx + 1, ed ) == '_' ? jx + 2 : -1;
+	}
+	
+}
@@ -0,0 +1,18 @@
+package edu.umass.cs.ciir.controversy.data;
+
+/**
+ * A stage transforming the wikitext of a page (see WikiDumpDocument.getText()) before it is indexed, e.g., stripping the markup. Implementations must be
+ * thread-safe, because pages are indexed by several threads.
+ * 
+ * @see WikiMarkupStripper
+ */
+public interface WikiTextFilter {
+	
+	/**
+	 * @param text
+	 *            The wikitext of a page.
+	 * @return The text to be indexed.
+	 */
+	public String filter( String text );
+	
+}
@@ -16,6 +16,8 @@ import org.apache.lucene.store.FSDirectory;
 import utils.IOUtils;
 import utils.ir.IRSettings;
 import utils.ir.analysis.TextAnalyzer;
+import edu.umass.cs.ciir.controversy.knn.db.MappedControversyDatabase;
+import edu.umass.cs.ciir.controversy.knn.db.MemoryControversyDatabase;
 
 public class BuildIndexControversyScore {
 	
@@ -25,10 +27,12 @@ public class BuildIndexControversyScore {
 			args = new String[] {
 					"C:/Users/Jiepu/Downloads/allAnnotations-redirectsFixed.txt",
 					"D:/controversy_score_index",
+					"D:/controversy_score.bin",
 			};
 			
 			String pathsrc = args[0];
 			String pathout = args[1];
+			String pathbin = args.length > 2 ? args[2] : null; // optional: also write the table for MappedControversyDatabase
 			
 			Analyzer analyzer = TextAnalyzer.get( "alpha", "lc", "kstem", "indri stop", "no oov" );
 			
@@ -41,7 +45,7 @@ public class BuildIndexControversyScore {
 			while ( line != null ) {
 				String[] splits = line.split( "\t" );
 				if ( splits.length == 2 ) {
-					String entry = splits[0].toLowerCase().replaceAll( "\\s+", " " );
+					String entry = MemoryControversyDatabase.normalizeEntry( splits[0] );
 					float score = Float.parseFloat( splits[1] );
 					if ( score < 0 ) {
 						score = 0;
@@ -59,6 +63,12 @@ public class BuildIndexControversyScore {
 			
 			index_writer.close();
 			
+			if ( pathbin != null ) {
+				MemoryControversyDatabase table = MemoryControversyDatabase.loadScoreFile( pathsrc );
+				MappedControversyDatabase.write( table, new File( pathbin ) );
+				System.out.println( " >> write " + table.size() + " entries to " + pathbin );
+			}
+			
 		} catch ( Exception e ) {
 			e.printStackTrace();
 		}
@@ -2,59 +2,171 @@ package edu.umass.cs.ciir.controversy.index;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.FileInputStream;
-import java.util.zip.GZIPInputStream;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
-import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
 
-import org.xml.sax.SAXException;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.FloatDocValuesField;
 import org.apache.lucene.document.Field.Store;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.TieredMergePolicy;
+import org.apache.lucene.index.ConcurrentMergeScheduler;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
-import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
 
 import utils.ir.IRSettings;
 import utils.ir.analysis.TextAnalyzer;
 import utils.ir.lucene.TextField;
-import edu.umass.cs.ciir.controversy.data.WikiDumpParser;
+import utils.thread.DaemonThreadFactory;
+import edu.umass.cs.ciir.controversy.data.WikiDumpReader;
+import edu.umass.cs.ciir.controversy.data.WikiTextFilter;
+import edu.umass.cs.ciir.controversy.data.WikiMarkupStripper;
+import edu.umass.cs.ciir.controversy.data.MultistreamWikiDumpReader;
 import edu.umass.cs.ciir.controversy.data.WikiDumpDocument;
+import edu.umass.cs.ciir.controversy.knn.db.MemoryControversyDatabase;
 
 /**
+ * <p>
  * This is the main class that builds index for the wikidump collection. It skipps entries including ":" in their titles.
+ * </p>
+ * <p>
+ * The index is built by a pipeline: the dump files are decompressed and parsed by one thread, which hands the parsed pages through a bounded queue to
+ * several indexing threads sharing the IndexWriter (IndexWriter is thread-safe, and each thread analyzes its documents into its own in-memory segment).
+ * Progress is reported periodically rather than per page.
+ * </p>
+ * <p>
+ * The indexing threads pass the wikitext of each page through a WikiTextFilter before indexing it; by default, the markup (templates, references,
+ * tables, urls, etc.) is stripped by WikiMarkupStripper, which keeps the vocabulary, the postings and the collection statistics to the words of the
+ * articles.
+ * </p>
+ * <p>
+ * A multistream bz2 dump (see MultistreamWikiDumpReader) is instead decompressed and parsed by a pool of parsing threads, one bz2 stream per task, so
+ * decompression is not limited to one core. The index of the dump is used if it is next to the dump; otherwise the dump is scanned for its streams.
+ * </p>
+ * <p>
+ * Usage: BuildIndexWikiDump dump_path index_path [score_path] [option=value ...], where the options are
+ * </p>
+ * <ul>
+ * <li>threads: number of indexing threads (default: the number of processors);</li>
+ * <li>parse_threads: number of threads decompressing and parsing a multistream dump (default: the number of processors);</li>
+ * <li>queue: capacity of the queue of parsed pages (default 1000);</li>
+ * <li>max_text_length: maximum length of the indexed text of a page, 0 for no limit (default 1048576);</li>
+ * <li>wikitext: "strip" to strip the markup of pages or "raw" to index the wikitext as it is (default strip);</li>
+ * <li>ram_mb: RAM buffer size of the IndexWriter in MB, shared by the indexing threads (default 512);</li>
+ * <li>merge_factor: segments per tier and segments merged at once of the TieredMergePolicy (default 10);</li>
+ * <li>max_segment_mb: maximum size of a merged segment in MB (default 5120);</li>
+ * <li>merge_threads: number of concurrent merge threads (default 2);</li>
+ * <li>progress_seconds: interval of progress reports (default 30).</li>
+ * </ul>
  * 
  * @author Jiepu Jiang
  * @version May 23, 2015
- * @see WikiDumpParser
+ * @see WikiDumpReader
  * @see WikiDumpDocument
  */
 public class BuildIndexWikiDump {
 	
+	/**
+	 * Name of the float DocValues field storing the controversy score of each entry.
+	 */
+	public static final String FIELD_SCORE = "score";
+	
+	/**
+	 * Default maximum length of the indexed text of a page (longer pages are cut; the longest articles of the English Wikipedia are about this long).
+	 */
+	public static final int DEFAULT_MAX_TEXT_LENGTH = 1 << 20;
+	
+	// tells an indexing thread to stop
+	private static final WikiDumpDocument END = new WikiDumpDocument();
+	
 	public static void main( String[] args ) {
 		try {
 			
-			args = new String[] {
-					"D:/wikidump",
-					"D:/wikidump_index"
-			};
+			List<String> paths = new ArrayList<String>();
+			int threads = Runtime.getRuntime().availableProcessors();
+			int parse_threads = Runtime.getRuntime().availableProcessors();
+			int queue = 1000;
+			int max_text_length = DEFAULT_MAX_TEXT_LENGTH;
+			boolean strip = true;
+			double ram_mb = 512;
+			int merge_factor = 10;
+			double max_segment_mb = 5120;
+			int merge_threads = 2;
+			int progress_seconds = 30;
+			for ( String arg : args ) {
+				int eq = arg.indexOf( '=' );
+				String key = eq < 0 ? null : arg.substring( 0, eq );
+				String value = eq < 0 ? null : arg.substring( eq + 1 );
+				if ( key == null ) {
+					paths.add( arg );
+				} else if ( key.equals( "threads" ) ) {
+					threads = Integer.parseInt( value );
+				} else if ( key.equals( "parse_threads" ) ) {
+					parse_threads = Integer.parseInt( value );
+				} else if ( key.equals( "queue" ) ) {
+					queue = Integer.parseInt( value );
+				} else if ( key.equals( "max_text_length" ) ) {
+					max_text_length = Integer.parseInt( value );
+				} else if ( key.equals( "wikitext" ) && ( value.equals( "strip" ) || value.equals( "raw" ) ) ) {
+					strip = value.equals( "strip" );
+				} else if ( key.equals( "ram_mb" ) ) {
+					ram_mb = Double.parseDouble( value );
+				} else if ( key.equals( "merge_factor" ) ) {
+					merge_factor = Integer.parseInt( value );
+				} else if ( key.equals( "max_segment_mb" ) ) {
+					max_segment_mb = Double.parseDouble( value );
+				} else if ( key.equals( "merge_threads" ) ) {
+					merge_threads = Integer.parseInt( value );
+				} else if ( key.equals( "progress_seconds" ) ) {
+					progress_seconds = Integer.parseInt( value );
+				} else {
+					throw new IllegalArgumentException( "Unknown option " + arg );
+				}
+			}
+			
+			if ( paths.size() < 2 ) {
+				System.err.println( "Usage: BuildIndexWikiDump dump_path index_path [score_path] [option=value ...]" );
+				System.err.println( "Options: threads, parse_threads, queue, max_text_length, wikitext (strip|raw), ram_mb, merge_factor, max_segment_mb, merge_threads, progress_seconds" );
+				return;
+			}
 			
-			String pathsrc = args[0];
-			String pathout = args[1];
+			String pathsrc = paths.get( 0 );
+			String pathout = paths.get( 1 );
+			
+			// optional: the controversy score table (the tab-separated score file or the score index);
+			// if provided, each entry's score is written into a float DocValues column for DocValuesControversyDatabase
+			MemoryControversyDatabase scores = null;
+			if ( paths.size() > 2 ) {
+				scores = MemoryControversyDatabase.load( paths.get( 2 ), "title", "score" );
+			}
 			
 			Analyzer analyzer = TextAnalyzer.get( "alpha", "lc", "kstem", "indri stop", "no oov" );
 			
 			Directory index_dir = FSDirectory.open( new File( pathout ) );
-			IndexWriterConfig index_config = new IndexWriterConfig( IRSettings.LUCENE_VERSION, analyzer );
+			IndexWriterConfig index_config = createConfig( analyzer, threads, ram_mb, merge_factor, max_segment_mb, merge_threads );
 			IndexWriter index_writer = new IndexWriter( index_dir, index_config );
 			
-			process( new File( pathsrc ), index_writer );
+			BuildIndexWikiDump builder = new BuildIndexWikiDump( index_writer, scores, threads, parse_threads, queue );
+			builder.setMaxTextLength( max_text_length );
+			builder.setTextFilter( strip ? new WikiMarkupStripper() : null );
+			builder.start( progress_seconds );
+			try {
+				builder.parse( new File( pathsrc ) );
+			} finally {
+				builder.finish();
+			}
 			
 			index_writer.close();
 			
@@ -63,53 +175,243 @@ public class BuildIndexWikiDump {
 		}
 	}
 	
-	private static void process( File f, IndexWriter index_writer ) throws SAXException, IOException, ParserConfigurationException {
+	/**
+	 * @param analyzer
+	 * @param threads
+	 *            Number of threads adding documents.
+	 * @param ram_mb
+	 *            RAM buffer size in MB, shared by all indexing threads; a segment is flushed when the buffer is full (not after a number of documents).
+	 * @param merge_factor
+	 *            Segments per tier and segments merged at once of the TieredMergePolicy; larger values merge less often but leave more segments.
+	 * @param max_segment_mb
+	 *            Maximum size of a merged segment in MB.
+	 * @param merge_threads
+	 *            Number of concurrent merge threads.
+	 * @return
+	 */
+	public static IndexWriterConfig createConfig( Analyzer analyzer, int threads, double ram_mb, int merge_factor, double max_segment_mb, int merge_threads ) {
+		IndexWriterConfig config = new IndexWriterConfig( IRSettings.LUCENE_VERSION, analyzer );
+		config.setRAMBufferSizeMB( ram_mb );
+		config.setMaxBufferedDocs( IndexWriterConfig.DISABLE_AUTO_FLUSH );
+		// each indexing thread needs its own thread state to analyze documents concurrently
+		config.setMaxThreadStates( Math.max( threads, IndexWriterConfig.DEFAULT_MAX_THREAD_STATES ) );
+		TieredMergePolicy merge_policy = new TieredMergePolicy();
+		merge_policy.setSegmentsPerTier( merge_factor );
+		merge_policy.setMaxMergeAtOnce( merge_factor );
+		merge_policy.setMaxMergedSegmentMB( max_segment_mb );
+		config.setMergePolicy( merge_policy );
+		ConcurrentMergeScheduler merge_scheduler = new ConcurrentMergeScheduler();
+		merge_scheduler.setMaxMergesAndThreads( merge_threads + 2, merge_threads );
+		config.setMergeScheduler( merge_scheduler );
+		return config;
+	}
+	
+	protected final IndexWriter index_writer;
+	protected final MemoryControversyDatabase scores;
+	protected final BlockingQueue<WikiDumpDocument> queue;
+	protected final Thread[] indexers;
+	protected final int parse_threads;
+	protected int max_text_length = DEFAULT_MAX_TEXT_LENGTH;
+	protected WikiTextFilter text_filter = new WikiMarkupStripper();
+	protected ForkJoinPool parsers;
+	protected ScheduledExecutorService reporter;
+	
+	protected final AtomicLong parsed = new AtomicLong();
+	protected final AtomicLong skipped = new AtomicLong();
+	protected final AtomicLong indexed = new AtomicLong();
+	protected final AtomicLong failed = new AtomicLong();
+	protected long started;
+	
+	/**
+	 * @param index_writer
+	 * @param scores
+	 *            The controversy score table, or null to not write the score column.
+	 * @param threads
+	 *            Number of indexing threads.
+	 * @param parse_threads
+	 *            Number of threads decompressing and parsing a multistream dump.
+	 * @param queue_size
+	 *            Capacity of the queue of parsed pages waiting to be indexed.
+	 */
+	public BuildIndexWikiDump( IndexWriter index_writer, MemoryControversyDatabase scores, int threads, int parse_threads, int queue_size ) {
+		this.index_writer = index_writer;
+		this.scores = scores;
+		this.queue = new ArrayBlockingQueue<WikiDumpDocument>( queue_size );
+		this.indexers = new Thread[threads];
+		this.parse_threads = parse_threads;
+	}
+	
+	/**
+	 * @param max_text_length
+	 *            Maximum length of the indexed text of a page; 0 for no limit.
+	 */
+	public void setMaxTextLength( int max_text_length ) {
+		this.max_text_length = max_text_length;
+	}
+	
+	/**
+	 * @param text_filter
+	 *            The filter applied to the wikitext of pages before indexing, or null to index the wikitext as it is.
+	 */
+	public void setTextFilter( WikiTextFilter text_filter ) {
+		this.text_filter = text_filter;
+	}
+	
+	/**
+	 * Start the indexing threads, the pool of parsing threads and the progress reports.
+	 * 
+	 * @param progress_seconds
+	 *            Interval of progress reports in seconds.
+	 */
+	public void start( long progress_seconds ) {
+		started = System.nanoTime();
+		for ( int ix = 0 ; ix < indexers.length ; ix++ ) {
+			indexers[ix] = new Thread( new Runnable() {
+				public void run() {
+					index();
+				}
+			}, "wiki-indexer-" + ( ix + 1 ) );
+			indexers[ix].start();
+		}
+		parsers = new ForkJoinPool( parse_threads );
+		reporter = new ScheduledThreadPoolExecutor( 1, new DaemonThreadFactory( "wiki-progress" ) );
+		reporter.scheduleAtFixedRate( new Runnable() {
+			public void run() {
+				report();
+			}
+		}, progress_seconds, progress_seconds, TimeUnit.SECONDS );
+	}
+	
+	/**
+	 * Parse a dump file (.xml, .xml.gz, .xml.bz2 or a multistream .xml.bz2) or all dump files in a directory, and queue the pages for indexing. It
+	 * blocks while the queue is full, so parsing never runs ahead of indexing by more than the queue capacity.
+	 * 
+	 * @param f
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 */
+	public void parse( File f ) throws IOException, XMLStreamException {
 		if ( f.isFile() ) {
 			
-			InputStream instream = new FileInputStream( f );
-			if ( f.getName().toLowerCase().endsWith( ".gz" ) ) {
-				instream = new GZIPInputStream( instream );
-			} else if ( f.getName().toLowerCase().endsWith( ".bz2" ) ) {
-				instream = new BZip2CompressorInputStream( instream );
+			if ( f.getName().toLowerCase().endsWith( "-index.txt.bz2" ) ) {
+				// the index of a multistream dump
+				return;
 			}
 			
-			SAXParserFactory factory = SAXParserFactory.newInstance();
-			SAXParser saxParser = factory.newSAXParser();
+			if ( MultistreamWikiDumpReader.isMultistream( f ) ) {
+				parseMultistream( f );
+				return;
+			}
 			
-			saxParser.parse( instream, new WikiDumpParser() {
-				
-				private int count = 0;
-				
-				@Override
-				public void processDocument( WikiDumpDocument doc ) {
-					count++;
-					if ( doc.isMainEntry() && !doc.hasRedirect() ) {
-						// build index for this page
-						try {
-							Document d = new Document();
-							d.add( new StringField( "entry", doc.getTitle().replaceAll( "\\s+", " " ).trim(), Store.YES ) );
-							d.add( new StringField( "title", doc.getTitle().toLowerCase().replaceAll( "\\s+", " " ), Store.YES ) );
-							d.add( new StringField( "id", doc.getId().toLowerCase().replaceAll( "\\s+", " " ), Store.YES ) );
-							d.add( new TextField( "text", doc.getText(), false, false, false ) );
-							index_writer.addDocument( d );
-							System.out.println( " >> " + f.getName() + ", " + count + ", add entry " + doc.getTitle() );
-						} catch ( Exception e ) {
-							e.printStackTrace();
-						}
-					} else {
-						System.out.println( " >> " + f.getName() + ", " + count + ", skip entry " + doc.getTitle() + ( doc.hasRedirect() ? " --> " + doc.getRedirect() : "" ) );
-					}
+			WikiDumpReader reader = WikiDumpReader.open( f, max_text_length );
+			try {
+				while ( reader.hasNext() ) {
+					add( reader.next() );
 				}
-				
-			} );
-			
-			instream.close();
+			} finally {
+				reader.close();
+			}
 			
 		} else {
 			for ( File file : f.listFiles() ) {
-				process( file, index_writer );
+				parse( file );
+			}
+		}
+	}
+	
+	private void parseMultistream( File f ) throws IOException {
+		File index = MultistreamWikiDumpReader.findIndex( f );
+		MultistreamWikiDumpReader reader = new MultistreamWikiDumpReader( f, index, max_text_length ) {
+			@Override
+			public void processDocument( WikiDumpDocument doc ) {
+				add( doc );
+			}
+		};
+		System.out.println( " >> " + f.getName() + ": " + reader.getStreamCount() + " streams" + ( index == null ? " (scanned)" : "" ) );
+		reader.read( parsers );
+		if ( reader.getFailedCount() > 0 ) {
+			System.err.println( " >> " + f.getName() + ": " + reader.getFailedCount() + " streams failed" );
+		}
+	}
+	
+	/**
+	 * Queue a parsed page for indexing (pages other than main entries and redirects are skipped). It can be called by several parsing threads.
+	 * 
+	 * @param doc
+	 */
+	public void add( WikiDumpDocument doc ) {
+		parsed.incrementAndGet();
+		if ( !doc.isMainEntry() || doc.hasRedirect() ) {
+			skipped.incrementAndGet();
+			return;
+		}
+		try {
+			queue.put( doc );
+		} catch ( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException( "Interrupted while queuing " + doc.getTitle(), e );
+		}
+	}
+	
+	/**
+	 * Wait until all queued pages are indexed, stop the indexing threads and the progress reports, and report the final progress. The IndexWriter is
+	 * not closed.
+	 * 
+	 * @throws InterruptedException
+	 */
+	public void finish() throws InterruptedException {
+		for ( int ix = 0 ; ix < indexers.length ; ix++ ) {
+			queue.put( END );
+		}
+		for ( Thread indexer : indexers ) {
+			indexer.join();
+		}
+		parsers.shutdown();
+		reporter.shutdownNow();
+		report();
+	}
+	
+	private void index() {
+		while ( true ) {
+			WikiDumpDocument doc = null;
+			try {
+				doc = queue.take();
+			} catch ( InterruptedException e ) {
+				// only finish() stops an indexing thread
+				continue;
+			}
+			if ( doc == END ) {
+				break;
 			}
+			try {
+				index_writer.addDocument( createDocument( doc ) );
+				indexed.incrementAndGet();
+			} catch ( Exception e ) {
+				System.err.println( " >> cannot index entry " + doc.getTitle() );
+				e.printStackTrace();
+				failed.incrementAndGet();
+			}
+		}
+	}
+	
+	protected Document createDocument( WikiDumpDocument doc ) {
+		Document d = new Document();
+		d.add( new StringField( "entry", doc.getTitle().replaceAll( "\\s+", " " ).trim(), Store.YES ) );
+		String title = MemoryControversyDatabase.normalizeEntry( doc.getTitle() );
+		d.add( new StringField( "title", title, Store.YES ) );
+		d.add( new StringField( "id", doc.getId().toLowerCase().replaceAll( "\\s+", " " ), Store.YES ) );
+		String text = text_filter == null ? doc.getText() : text_filter.filter( doc.getText() );
+		d.add( new TextField( "text", text, false, false, false ) );
+		if ( scores != null ) {
+			d.add( new FloatDocValuesField( FIELD_SCORE, scores.getScore( title ) ) );
 		}
+		return d;
+	}
+	
+	private void report() {
+		double seconds = ( System.nanoTime() - started ) / 1e9;
+		long count = parsed.get();
+		System.out.println( String.format( " >> %.0fs: %d pages parsed (%.0f/s), %d indexed, %d skipped, %d failed, %d queued", seconds, count, count / Math.max( seconds, 1e-3 ), indexed.get(), skipped.get(), failed.get(), queue.size() ) );
 	}
 	
 }
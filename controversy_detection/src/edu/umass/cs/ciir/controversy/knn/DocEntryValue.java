@@ -0,0 +1,20 @@
+package edu.umass.cs.ciir.controversy.knn;
+
+/**
+ * DocEntryValue is an EntryValue that also remembers the Lucene docid of the Wikipedia entry in the wiki index. The entry string can be null if the
+ * searcher did not load it (e.g., when no debugging information is requested).
+ */
+public class DocEntryValue extends EntryValue {
+	
+	protected int docid;
+	
+	public DocEntryValue( String entry, double score, int docid ) {
+		super( entry, score );
+		this.docid = docid;
+	}
+	
+	public int getDocid() {
+		return docid;
+	}
+	
+}
@@ -0,0 +1,114 @@
+package edu.umass.cs.ciir.controversy.knn;
+
+import java.io.IOException;
+
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.MultiDocValues;
+import org.apache.lucene.index.NumericDocValues;
+
+import edu.umass.cs.ciir.controversy.knn.aggregation.Generative;
+import edu.umass.cs.ciir.controversy.knn.aggregation.GenerativeCollector;
+import edu.umass.cs.ciir.controversy.knn.db.ControversyDatabase;
+import edu.umass.cs.ciir.controversy.knn.db.DocValuesControversyDatabase;
+import edu.umass.cs.ciir.controversy.knn.sim.LuceneQLSearcher;
+import edu.umass.cs.ciir.controversy.knn.sim.QueryConstructor;
+import utils.metrics.Metrics;
+import utils.metrics.LatencyHistogram;
+import utils.ir.lucene.similarity.QLDirichletSmoothing;
+
+/**
+ * <p>
+ * FusedKNNScorer computes the same score as a KNNScorer with a LuceneQLSearcher and the Generative aggregation, but in a single pass: the Generative
+ * aggregate is computed inside the top-K collector of the Lucene search (see GenerativeCollector) from an array of controversy scores indexed by docid.
+ * Without debug, a call does not create any EntryValue, list or info map.
+ * </p>
+ * <p>
+ * The docid-to-score array is resolved once when the scorer is created: from the score column of the wiki index if the database is a
+ * DocValuesControversyDatabase, or otherwise by looking up every entry key of the wiki index in the database. With debug, the scorer falls back to the
+ * staged KNNScorer pipeline, which reports all processing details.
+ * </p>
+ */
+public class FusedKNNScorer extends KNNScorer {
+	
+	// the fused search and aggregation (the other stages are recorded as in KNNScorer)
+	protected static final LatencyHistogram time_search_aggregate = Metrics.histogram( "knn_fused_search_aggregate_seconds" );
+	
+	protected LuceneQLSearcher searcher;
+	protected float[] cscores;
+	
+	public FusedKNNScorer( QueryConstructor qc, LuceneQLSearcher searcher, ControversyDatabase database ) throws IOException {
+		super( qc, searcher, database, new Generative() );
+		this.searcher = searcher;
+		if ( database instanceof DocValuesControversyDatabase ) {
+			this.cscores = loadScores( searcher.getIndexReader(), ( (DocValuesControversyDatabase) database ).getField() );
+		} else {
+			this.cscores = resolveScores( searcher.getIndexReader(), searcher.getFieldKey(), database );
+		}
+	}
+	
+	private static float[] loadScores( IndexReader index, String field_score ) throws IOException {
+		float[] cscores = new float[index.maxDoc()];
+		NumericDocValues values = MultiDocValues.getNumericValues( index, field_score );
+		for ( int docid = 0 ; docid < cscores.length ; docid++ ) {
+			cscores[docid] = Float.intBitsToFloat( (int) values.get( docid ) );
+		}
+		return cscores;
+	}
+	
+	private static float[] resolveScores( IndexReader index, String field_key, ControversyDatabase database ) throws IOException {
+		float[] cscores = new float[index.maxDoc()];
+		Terms terms = MultiFields.getTerms( index, field_key );
+		if ( terms != null ) {
+			// walk the term dictionary of the key field rather than loading every stored document
+			Bits live = MultiFields.getLiveDocs( index );
+			TermsEnum iterator = terms.iterator( null );
+			DocsEnum docs = null;
+			BytesRef term = null;
+			while ( ( term = iterator.next() ) != null ) {
+				EntryValue cscore = database.getControversyScore( new EntryValue( term.utf8ToString(), 0 ) );
+				float score = cscore == null ? 0 : (float) cscore.getScore();
+				docs = iterator.docs( live, docs, DocsEnum.FLAG_NONE );
+				int docid = docs.nextDoc();
+				while ( docid != DocIdSetIterator.NO_MORE_DOCS ) {
+					cscores[docid] = score;
+					docid = docs.nextDoc();
+				}
+			}
+		}
+		return cscores;
+	}
+	
+	public ObjectInfo<Double> getScore( String text, int topwords, int topentries, boolean debug ) {
+		if ( debug ) {
+			return super.getScore( text, topwords, topentries, true );
+		}
+		double score = 0;
+		long start = System.nanoTime();
+		Object[] qinfo = (Object[]) qc.constructQuery( text, topwords, null );
+		long timestamp = record( time_construct_query, start );
+		if ( qinfo != null && qinfo[0] != null ) {
+			try {
+				GenerativeCollector collector = new GenerativeCollector( topentries, cscores );
+				searcher.getIndexSearcher().search( (Query) qinfo[0], collector );
+				if ( collector.size() > 0 ) {
+					double norm = QLDirichletSmoothing.scoreNormalizer( searcher.getIndexReader(), (String) qinfo[1], (String[]) qinfo[2], (double[]) qinfo[3] );
+					score = collector.getAggregationScore( norm );
+				}
+			} catch ( IOException e ) {
+				e.printStackTrace();
+			}
+			record( time_search_aggregate, timestamp );
+		}
+		time_score.recordSince( start );
+		return new ObjectInfo<Double>().setObject( score );
+	}
+	
+}
@@ -1,8 +1,11 @@
 package edu.umass.cs.ciir.controversy.knn;
 
 import java.io.IOException;
+import java.util.Map;
 import java.util.List;
 
+import utils.metrics.Metrics;
+import utils.metrics.LatencyHistogram;
 import edu.umass.cs.ciir.controversy.knn.aggregation.KNNAggregation;
 import edu.umass.cs.ciir.controversy.knn.db.ControversyDatabase;
 import edu.umass.cs.ciir.controversy.knn.sim.IndexSearcher;
@@ -10,6 +13,13 @@ import edu.umass.cs.ciir.controversy.knn.sim.QueryConstructor;
 
 public class KNNScorer {
 	
+	// latencies of the stages of all scored texts (see Metrics)
+	protected static final LatencyHistogram time_construct_query = Metrics.histogram( "knn_construct_query_seconds" );
+	protected static final LatencyHistogram time_search = Metrics.histogram( "knn_search_wiki_entries_seconds" );
+	protected static final LatencyHistogram time_retrieve_scores = Metrics.histogram( "knn_retrieve_entry_controversy_scores_seconds" );
+	protected static final LatencyHistogram time_aggregate = Metrics.histogram( "knn_aggregate_scores_seconds" );
+	protected static final LatencyHistogram time_score = Metrics.histogram( "knn_score_seconds" );
+	
 	protected QueryConstructor qc;
 	protected IndexSearcher index;
 	protected ControversyDatabase database;
@@ -23,14 +33,46 @@ public class KNNScorer {
 	}
 	
 	public ObjectInfo<Double> getScore( String text, int topwords, int topentries ) {
+		return getScore( text, topwords, topentries, true );
+	}
+	
+	/**
+	 * @param text
+	 * @param topwords
+	 * @param topentries
+	 * @param debug
+	 *            Whether to collect processing details (top words, top entries and their titles, time, etc.) into the returned info map. Without them, the
+	 *            searcher and the database can skip loading entry strings and titles.
+	 * @return
+	 */
+	public ObjectInfo<Double> getScore( String text, int topwords, int topentries, boolean debug ) {
 		ObjectInfo<Double> score = new ObjectInfo<Double>();
-		Object query = qc.constructQuery( text, topwords, score.info );
-		List<EntryValue> entries = index.search( query, topentries, score.info );
-		List<EntryValue> scores = database.getControversyScores( entries, score.info );
-		score.setObject( aggregation.getAggregationScore( entries, scores, score.info ) );
+		Map<String, Object> info = debug ? score.getInfo() : null;
+		long start = System.nanoTime();
+		long timestamp = start;
+		Object query = qc.constructQuery( text, topwords, info );
+		timestamp = record( time_construct_query, timestamp );
+		List<EntryValue> entries = index.search( query, topentries, info );
+		timestamp = record( time_search, timestamp );
+		List<EntryValue> scores = database.getControversyScores( entries, info );
+		timestamp = record( time_retrieve_scores, timestamp );
+		score.setObject( aggregation.getAggregationScore( entries, scores, info ) );
+		record( time_aggregate, timestamp );
+		time_score.recordSince( start );
 		return score;
 	}
 	
+	/**
+	 * Record the time since a System.nanoTime() timestamp.
+	 * 
+	 * @return The current System.nanoTime().
+	 */
+	protected static long record( LatencyHistogram histogram, long timestamp ) {
+		long now = System.nanoTime();
+		histogram.record( now - timestamp );
+		return now;
+	}
+	
 	public void close() throws IOException {
 		index.close();
 		database.close();
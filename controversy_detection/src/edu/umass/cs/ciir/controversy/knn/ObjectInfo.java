@@ -4,7 +4,8 @@ import java.util.Map;
 import java.util.TreeMap;
 
 /**
- * This is a class storing an object and its related information (stored as a map).
+ * This is a class storing an object and its related information (stored as a map). The map is only created when some information is set or the whole map
+ * is requested, so an object without any information costs nothing more than the object itself.
  * 
  * @author Jiepu Jiang
  * @version May 25, 2015
@@ -17,7 +18,6 @@ public class ObjectInfo<T> {
 	protected Map<String, Object> info;
 	
 	public ObjectInfo() {
-		this.info = new TreeMap<>();
 	}
 	
 	public ObjectInfo<T> setObject( T object ) {
@@ -30,15 +30,18 @@ public class ObjectInfo<T> {
 	}
 	
 	public ObjectInfo<T> setInfo( String key, Object value ) {
-		this.info.put( key, value );
+		getInfo().put( key, value );
 		return this;
 	}
 	
 	public Object getInfo( String key ) {
-		return this.info.get( key );
+		return this.info == null ? null : this.info.get( key );
 	}
 	
 	public Map<String, Object> getInfo() {
+		if ( this.info == null ) {
+			this.info = new TreeMap<>();
+		}
 		return this.info;
 	}
 	
@@ -33,7 +33,9 @@ public class Generative implements KNNAggregation {
 			sum = sum + sim * c;
 			norm = norm + sim;
 		}
-		info.put( "time_aggregate_scores", ( System.currentTimeMillis() - timestamp ) / 1000.0 );
+		if ( info != null ) {
+			info.put( "time_aggregate_scores", ( System.currentTimeMillis() - timestamp ) / 1000.0 );
+		}
 		return norm == 0 ? 0 : ( sum / norm );
 	}
 	
@@ -0,0 +1,158 @@
+package edu.umass.cs.ciir.controversy.knn.aggregation;
+
+import java.io.IOException;
+
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.index.AtomicReaderContext;
+
+/**
+ * <p>
+ * GenerativeCollector keeps the top K documents of a Lucene search in a primitive heap and computes the Generative aggregation score over them, i.e.,
+ * SUM_i exp(QL_i)*C_i / SUM_i exp(QL_i), where QL_i is the standard QL score of the i-th entry (Lucene score + normalizer) and C_i is its controversy
+ * score read from an array indexed by docid.
+ * </p>
+ * <p>
+ * It selects the same top K documents as Lucene's TopScoreDocCollector (ties are broken by smaller docids) and aggregates them in the same rank order as
+ * Generative does, but it does not create any ScoreDoc, EntryValue or list. A collector instance is used by one search only.
+ * </p>
+ * 
+ * @see Generative
+ */
+public class GenerativeCollector extends Collector {
+	
+	protected final float[] cscores;
+	
+	// a min-heap of the top documents: heap[0] is the one to be replaced first
+	protected final int[] docs;
+	protected final float[] scores;
+	protected int size;
+	
+	protected Scorer scorer;
+	protected int docbase;
+	
+	/**
+	 * @param topentries
+	 *            Number of top documents to aggregate.
+	 * @param cscores
+	 *            Controversy scores indexed by (top-level) docids.
+	 */
+	public GenerativeCollector( int topentries, float[] cscores ) {
+		this.cscores = cscores;
+		this.docs = new int[Math.max( topentries, 0 )];
+		this.scores = new float[docs.length];
+		this.size = 0;
+	}
+	
+	public void setScorer( Scorer scorer ) throws IOException {
+		this.scorer = scorer;
+	}
+	
+	public void setNextReader( AtomicReaderContext context ) throws IOException {
+		this.docbase = context.docBase;
+	}
+	
+	public boolean acceptsDocsOutOfOrder() {
+		return true;
+	}
+	
+	public void collect( int doc ) throws IOException {
+		if ( docs.length == 0 ) {
+			return;
+		}
+		float score = scorer.score();
+		doc += docbase;
+		if ( size < docs.length ) {
+			docs[size] = doc;
+			scores[size] = score;
+			upHeap( size );
+			size++;
+		} else if ( lessThan( docs[0], scores[0], doc, score ) ) {
+			docs[0] = doc;
+			scores[0] = score;
+			downHeap( 0, size );
+		}
+	}
+	
+	/**
+	 * Whether document 1 ranks lower than document 2.
+	 */
+	private static boolean lessThan( int doc1, float score1, int doc2, float score2 ) {
+		return score1 == score2 ? doc1 > doc2 : score1 < score2;
+	}
+	
+	private void upHeap( int ix ) {
+		int doc = docs[ix];
+		float score = scores[ix];
+		while ( ix > 0 ) {
+			int parent = ( ix - 1 ) >>> 1;
+			if ( !lessThan( doc, score, docs[parent], scores[parent] ) ) {
+				break;
+			}
+			docs[ix] = docs[parent];
+			scores[ix] = scores[parent];
+			ix = parent;
+		}
+		docs[ix] = doc;
+		scores[ix] = score;
+	}
+	
+	private void downHeap( int ix, int size ) {
+		int doc = docs[ix];
+		float score = scores[ix];
+		while ( true ) {
+			int child = 2 * ix + 1;
+			if ( child >= size ) {
+				break;
+			}
+			if ( child + 1 < size && lessThan( docs[child + 1], scores[child + 1], docs[child], scores[child] ) ) {
+				child++;
+			}
+			if ( !lessThan( docs[child], scores[child], doc, score ) ) {
+				break;
+			}
+			docs[ix] = docs[child];
+			scores[ix] = scores[child];
+			ix = child;
+		}
+		docs[ix] = doc;
+		scores[ix] = score;
+	}
+	
+	/**
+	 * @return Number of collected documents (at most K).
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Compute the aggregation score. This empties the heap, so it can only be called once (after the search).
+	 * 
+	 * @param norm
+	 *            The QL score normalizer (see QLDirichletSmoothing.scoreNormalizer).
+	 * @return
+	 */
+	public double getAggregationScore( double norm ) {
+		// pop the heap into rank order: the lowest ranked document goes to the end
+		for ( int end = size - 1 ; end > 0 ; end-- ) {
+			int doc = docs[0];
+			float score = scores[0];
+			docs[0] = docs[end];
+			scores[0] = scores[end];
+			downHeap( 0, end );
+			docs[end] = doc;
+			scores[end] = score;
+		}
+		double sum = 0;
+		double total = 0;
+		for ( int ix = 0 ; ix < size ; ix++ ) {
+			double sim = Math.exp( scores[ix] + norm );
+			sum = sum + sim * cscores[docs[ix]];
+			total = total + sim;
+		}
+		size = 0;
+		return total == 0 ? 0 : ( sum / total );
+	}
+	
+}
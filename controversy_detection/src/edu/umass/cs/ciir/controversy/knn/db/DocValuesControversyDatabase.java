@@ -0,0 +1,94 @@
+package edu.umass.cs.ciir.controversy.knn.db;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.List;
+import java.util.ArrayList;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiDocValues;
+import org.apache.lucene.index.NumericDocValues;
+
+import edu.umass.cs.ciir.controversy.knn.EntryValue;
+import edu.umass.cs.ciir.controversy.knn.DocEntryValue;
+
+/**
+ * <p>
+ * DocValuesControversyDatabase reads controversy scores from a per-document float DocValues column of the wiki index (written by BuildIndexWikiDump). It
+ * joins on Lucene docids, so it only works with entries returned by LuceneQLDocValuesSearcher on the same index reader, and a lookup does not touch any
+ * string or stored field.
+ * </p>
+ * <p>
+ * The column already holds the resolved score of each Wikipedia entry: entries that are not in the score table have the unjudged (mean) score.
+ * </p>
+ * 
+ * @see edu.umass.cs.ciir.controversy.knn.sim.LuceneQLDocValuesSearcher
+ */
+public class DocValuesControversyDatabase extends ControversyDatabase {
+	
+	protected IndexReader index;
+	protected String field_score;
+	
+	/**
+	 * @param index
+	 *            The wiki index reader; it is owned (and closed) by the searcher.
+	 * @param field_score
+	 * @throws IOException
+	 */
+	public DocValuesControversyDatabase( IndexReader index, String field_score ) throws IOException {
+		this.index = index;
+		this.field_score = field_score;
+		if ( MultiDocValues.getNumericValues( index, field_score ) == null ) {
+			throw new IOException( "The wiki index does not have a numeric DocValues field: " + field_score );
+		}
+	}
+	
+	public EntryValue getControversyScore( EntryValue entry ) {
+		try {
+			return getControversyScore( entry, MultiDocValues.getNumericValues( index, field_score ) );
+		} catch ( IOException e ) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+	
+	private EntryValue getControversyScore( EntryValue entry, NumericDocValues values ) {
+		if ( !( entry instanceof DocEntryValue ) ) {
+			throw new IllegalArgumentException( "DocValuesControversyDatabase needs entries with docids (see LuceneQLDocValuesSearcher)." );
+		}
+		int docid = ( (DocEntryValue) entry ).getDocid();
+		return new EntryValue( entry.getEntry(), Float.intBitsToFloat( (int) values.get( docid ) ) );
+	}
+	
+	/**
+	 * Same as the default implementation except that the DocValues column is only obtained once for all entries.
+	 */
+	public List<EntryValue> getControversyScores( List<EntryValue> entries, Map<String, Object> info ) {
+		long timestamp = System.currentTimeMillis();
+		List<EntryValue> scores = new ArrayList<EntryValue>();
+		NumericDocValues values = null;
+		try {
+			// DocValues instances are cached per thread by the index reader, so get them for every call rather than sharing one
+			values = MultiDocValues.getNumericValues( index, field_score );
+		} catch ( IOException e ) {
+			e.printStackTrace();
+		}
+		for ( EntryValue entry : entries ) {
+			scores.add( values == null ? null : getControversyScore( entry, values ) );
+		}
+		if ( info != null ) {
+			info.put( "top_wikientries_controversy", scores );
+			info.put( "time_retrieve_entry_controversy_scores", ( System.currentTimeMillis() - timestamp ) / 1000.0 );
+		}
+		return scores;
+	}
+	
+	public String getField() {
+		return field_score;
+	}
+	
+	public void close() throws IOException {
+		// the index reader is closed by the searcher
+	}
+	
+}
@@ -0,0 +1,229 @@
+package edu.umass.cs.ciir.controversy.knn.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import edu.umass.cs.ciir.controversy.knn.EntryValue;
+
+/**
+ * <p>
+ * MappedControversyDatabase reads the entry-to-score table from a compact binary file mapped into memory with FileChannel.map. The table does not take any
+ * heap space, opening it is almost free, and JVMs on the same machine share one copy of the file in the OS page cache.
+ * </p>
+ * <p>
+ * The file (big-endian) has a 32-byte header, a sorted key block and a float column:
+ * </p>
+ * 
+ * <pre>
+ * int   magic            0x43545653 ("CTVS")
+ * int   version          1
+ * int   count            number of entries
+ * float unjudged         score for entries not in the table
+ * long  keybytes         length of the key block
+ * long  reserved
+ * int[count+1]           offsets of the keys in the key block
+ * byte[keybytes]         UTF-8 keys, sorted by unsigned byte order; padded to 4 bytes
+ * float[count]           scores
+ * </pre>
+ * <p>
+ * Use write() (or BuildIndexControversyScore) to create the file.
+ * </p>
+ */
+public class MappedControversyDatabase extends ControversyDatabase {
+	
+	public static final int MAGIC = 0x43545653;
+	public static final int VERSION = 1;
+	
+	private static final int HEADER_LENGTH = 32;
+	
+	protected ByteBuffer buffer;
+	protected int count;
+	protected float unjudged;
+	protected int pos_offsets;
+	protected int pos_keys;
+	protected int pos_scores;
+	
+	public MappedControversyDatabase( String path ) throws IOException {
+		RandomAccessFile file = new RandomAccessFile( path, "r" );
+		try {
+			FileChannel channel = file.getChannel();
+			if ( channel.size() > Integer.MAX_VALUE ) {
+				throw new IOException( "The controversy score file is too large to be mapped: " + path );
+			}
+			this.buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+		} finally {
+			// the mapping stays valid after the channel is closed
+			file.close();
+		}
+		if ( buffer.capacity() < HEADER_LENGTH || buffer.getInt( 0 ) != MAGIC ) {
+			throw new IOException( "Not a controversy score file: " + path );
+		}
+		if ( buffer.getInt( 4 ) != VERSION ) {
+			throw new IOException( "Unsupported controversy score file version " + buffer.getInt( 4 ) + ": " + path );
+		}
+		this.count = buffer.getInt( 8 );
+		this.unjudged = buffer.getFloat( 12 );
+		long keybytes = buffer.getLong( 16 );
+		this.pos_offsets = HEADER_LENGTH;
+		this.pos_keys = pos_offsets + 4 * ( count + 1 );
+		this.pos_scores = (int) ( pos_keys + padding( keybytes ) );
+		if ( pos_scores + 4L * count != buffer.capacity() ) {
+			throw new IOException( "Corrupted controversy score file: " + path );
+		}
+	}
+	
+	private static long padding( long length ) {
+		return ( length + 3 ) & ~3L;
+	}
+	
+	public EntryValue getControversyScore( EntryValue entry ) {
+		return new EntryValue( entry.getEntry(), getScore( entry.getEntry() ) );
+	}
+	
+	/**
+	 * @param entry
+	 * @return Controversy score of the entry, or the unjudged score if the entry is not in the table.
+	 */
+	public float getScore( String entry ) {
+		int ix = find( entry.getBytes( StandardCharsets.UTF_8 ) );
+		return ix >= 0 ? buffer.getFloat( pos_scores + 4 * ix ) : unjudged;
+	}
+	
+	private int find( byte[] key ) {
+		int lo = 0;
+		int hi = count - 1;
+		while ( lo <= hi ) {
+			int mid = ( lo + hi ) >>> 1;
+			int cmp = compare( mid, key );
+			if ( cmp < 0 ) {
+				lo = mid + 1;
+			} else if ( cmp > 0 ) {
+				hi = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+	
+	private int compare( int index, byte[] key ) {
+		// only absolute gets are used, so the buffer can be shared by threads
+		int bg = pos_keys + buffer.getInt( pos_offsets + 4 * index );
+		int len = pos_keys + buffer.getInt( pos_offsets + 4 * index + 4 ) - bg;
+		int lim = Math.min( len, key.length );
+		for ( int ix = 0 ; ix < lim ; ix++ ) {
+			int b1 = buffer.get( bg + ix ) & 0xff;
+			int b2 = key[ix] & 0xff;
+			if ( b1 != b2 ) {
+				return b1 - b2;
+			}
+		}
+		return len - key.length;
+	}
+	
+	public int size() {
+		return count;
+	}
+	
+	public float getUnjudgedScore() {
+		return unjudged;
+	}
+	
+	public void close() throws IOException {
+		// a mapped buffer cannot be unmapped explicitly; it is released once it is garbage collected
+		buffer = null;
+	}
+	
+	/**
+	 * Write a controversy score table into the binary file format read by MappedControversyDatabase. The table is written into a temporary file in the
+	 * same directory, which is then renamed over the file atomically: a file mapped by a running web service is never truncated (reading a truncated
+	 * mapping crashes the JVM), and a reader sees either the old or the complete new file.
+	 * 
+	 * @param table
+	 * @param file
+	 * @throws IOException
+	 */
+	public static void write( MemoryControversyDatabase table, File file ) throws IOException {
+		
+		int count = table.size();
+		final byte[][] keys = new byte[count][];
+		Integer[] order = new Integer[count];
+		long keybytes = 0;
+		for ( int ix = 0 ; ix < count ; ix++ ) {
+			keys[ix] = table.getEntry( ix ).getBytes( StandardCharsets.UTF_8 );
+			order[ix] = ix;
+			keybytes += keys[ix].length;
+		}
+		if ( HEADER_LENGTH + 4L * ( count + 1 ) + padding( keybytes ) + 4L * count > Integer.MAX_VALUE ) {
+			throw new IOException( "Too many entries for a controversy score file: " + count );
+		}
+		
+		// the table is sorted by String.compareTo(), which is not always the same as sorting UTF-8 bytes
+		Arrays.sort( order, new Comparator<Integer>() {
+			public int compare( Integer i1, Integer i2 ) {
+				byte[] k1 = keys[i1];
+				byte[] k2 = keys[i2];
+				int lim = Math.min( k1.length, k2.length );
+				for ( int ix = 0 ; ix < lim ; ix++ ) {
+					int b1 = k1[ix] & 0xff;
+					int b2 = k2[ix] & 0xff;
+					if ( b1 != b2 ) {
+						return b1 - b2;
+					}
+				}
+				return k1.length - k2.length;
+			}
+		} );
+		
+		File dir = file.getAbsoluteFile().getParentFile();
+		File tmp = File.createTempFile( file.getName() + ".", ".tmp", dir );
+		boolean written = false;
+		OutputStream outstream = new BufferedOutputStream( new FileOutputStream( tmp ), 1 << 16 );
+		DataOutputStream out = new DataOutputStream( outstream );
+		try {
+			out.writeInt( MAGIC );
+			out.writeInt( VERSION );
+			out.writeInt( count );
+			out.writeFloat( table.getUnjudgedScore() );
+			out.writeLong( keybytes );
+			out.writeLong( 0 );
+			int offset = 0;
+			out.writeInt( offset );
+			for ( int ix = 0 ; ix < count ; ix++ ) {
+				offset += keys[order[ix]].length;
+				out.writeInt( offset );
+			}
+			for ( int ix = 0 ; ix < count ; ix++ ) {
+				out.write( keys[order[ix]] );
+			}
+			for ( long ix = keybytes ; ix < padding( keybytes ) ; ix++ ) {
+				out.writeByte( 0 );
+			}
+			for ( int ix = 0 ; ix < count ; ix++ ) {
+				out.writeFloat( table.getScore( order[ix] ) );
+			}
+			out.close();
+			Files.move( tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE );
+			written = true;
+		} finally {
+			if ( !written ) {
+				out.close();
+				tmp.delete();
+			}
+		}
+		
+	}
+	
+}
@@ -0,0 +1,196 @@
+package edu.umass.cs.ciir.controversy.knn.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.BufferedReader;
+import java.util.Set;
+import java.util.List;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.ArrayList;
+
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.DirectoryReader;
+
+import utils.IOUtils;
+import utils.type.SortedStringPool;
+import edu.umass.cs.ciir.controversy.knn.EntryValue;
+
+/**
+ * <p>
+ * MemoryControversyDatabase keeps the whole entry-to-score table in memory: the entries in a sorted string pool and their scores in a float array. The
+ * score of unjudged entries (the mean score of all entries) is computed while loading, so a lookup does not access any index or file.
+ * </p>
+ * <p>
+ * The table can be loaded either from the Lucene controversy score index (the same one read by LuceneControversyDatabase) or from the tab-separated score
+ * file used by BuildIndexControversyScore to build that index.
+ * </p>
+ */
+public class MemoryControversyDatabase extends ControversyDatabase {
+	
+	protected SortedStringPool entries;
+	protected float[] scores;
+	protected float unjudged;
+	
+	/**
+	 * @param entries
+	 *            Entries (may have duplicates; the first occurrence wins).
+	 * @param scores
+	 *            Scores of the entries.
+	 * @param total
+	 *            Sum of the scores used for the unjudged mean score.
+	 * @param count
+	 *            Number of scores used for the unjudged mean score.
+	 */
+	protected MemoryControversyDatabase( List<String> entries, List<Float> scores, double total, int count ) {
+		String[] keys = entries.toArray( new String[entries.size()] );
+		int[] positions = SortedStringPool.sortUnique( keys );
+		this.entries = new SortedStringPool( positions.length == keys.length ? keys : Arrays.copyOf( keys, positions.length ) );
+		this.scores = new float[positions.length];
+		for ( int ix = 0 ; ix < positions.length ; ix++ ) {
+			this.scores[ix] = scores.get( positions[ix] );
+		}
+		this.unjudged = count > 0 ? (float) ( total / count ) : 0;
+	}
+	
+	/**
+	 * Load from either a Lucene controversy score index (if path is a directory) or a tab-separated score file (if path is a file).
+	 * 
+	 * @param path
+	 * @param field_key
+	 *            Only used for a Lucene index.
+	 * @param field_score
+	 *            Only used for a Lucene index.
+	 * @return
+	 * @throws IOException
+	 */
+	public static MemoryControversyDatabase load( String path, String field_key, String field_score ) throws IOException {
+		if ( new File( path ).isDirectory() ) {
+			return loadLuceneIndex( path, field_key, field_score );
+		}
+		return loadScoreFile( path );
+	}
+	
+	/**
+	 * Load all entries and scores from a Lucene controversy score index.
+	 * 
+	 * @param path
+	 * @param field_key
+	 * @param field_score
+	 * @return
+	 * @throws IOException
+	 */
+	public static MemoryControversyDatabase loadLuceneIndex( String path, String field_key, String field_score ) throws IOException {
+		Directory dir = FSDirectory.open( new File( path ) );
+		IndexReader index = DirectoryReader.open( dir );
+		try {
+			Set<String> fields = new HashSet<String>();
+			fields.add( field_key );
+			fields.add( field_score );
+			Bits live = MultiFields.getLiveDocs( index );
+			List<String> entries = new ArrayList<String>( index.numDocs() );
+			List<Float> scores = new ArrayList<Float>( index.numDocs() );
+			float total = 0;
+			for ( int docid = 0 ; docid < index.maxDoc() ; docid++ ) {
+				Document doc = index.document( docid, fields );
+				float score = doc.getField( field_score ).numericValue().floatValue();
+				// the same as LuceneControversyDatabase: the mean counts all stored documents, lookups only see live ones
+				total += score;
+				if ( ( live == null || live.get( docid ) ) && doc.get( field_key ) != null ) {
+					entries.add( doc.get( field_key ) );
+					scores.add( score );
+				}
+			}
+			return new MemoryControversyDatabase( entries, scores, total, index.maxDoc() );
+		} finally {
+			index.close();
+			dir.close();
+		}
+	}
+	
+	/**
+	 * Load all entries and scores from a tab-separated file (entry \t score per line). Entries are normalized and negative scores are set to zero in the same
+	 * way as BuildIndexControversyScore does.
+	 * 
+	 * @param path
+	 * @return
+	 * @throws IOException
+	 */
+	public static MemoryControversyDatabase loadScoreFile( String path ) throws IOException {
+		List<String> entries = new ArrayList<String>();
+		List<Float> scores = new ArrayList<Float>();
+		double total = 0;
+		BufferedReader reader = IOUtils.getBufferedReader( path );
+		try {
+			String line = reader.readLine();
+			while ( line != null ) {
+				String[] splits = line.split( "\t" );
+				if ( splits.length == 2 ) {
+					float score = Float.parseFloat( splits[1] );
+					if ( score < 0 ) {
+						score = 0;
+					}
+					entries.add( normalizeEntry( splits[0] ) );
+					scores.add( score );
+					total += score;
+				}
+				line = reader.readLine();
+			}
+		} finally {
+			reader.close();
+		}
+		return new MemoryControversyDatabase( entries, scores, total, entries.size() );
+	}
+	
+	/**
+	 * Normalize a Wikipedia entry into the key stored in the controversy score index: lowercased and whitespaces collapsed.
+	 * 
+	 * @param entry
+	 * @return
+	 */
+	public static String normalizeEntry( String entry ) {
+		return entry.toLowerCase().replaceAll( "\\s+", " " );
+	}
+	
+	public EntryValue getControversyScore( EntryValue entry ) {
+		return new EntryValue( entry.getEntry(), getScore( entry.getEntry() ) );
+	}
+	
+	/**
+	 * @param entry
+	 * @return Controversy score of the entry, or the unjudged score if the entry is not in the table.
+	 */
+	public float getScore( String entry ) {
+		int ix = entries.find( entry );
+		return ix >= 0 ? scores[ix] : unjudged;
+	}
+	
+	/**
+	 * @return Number of distinct entries in the table.
+	 */
+	public int size() {
+		return scores.length;
+	}
+	
+	public String getEntry( int index ) {
+		return entries.get( index );
+	}
+	
+	public float getScore( int index ) {
+		return scores[index];
+	}
+	
+	public float getUnjudgedScore() {
+		return unjudged;
+	}
+	
+	public void close() throws IOException {
+		// nothing to release
+	}
+	
+}
@@ -0,0 +1,70 @@
+package edu.umass.cs.ciir.controversy.knn.sim;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.List;
+import java.util.ArrayList;
+
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.ScoreDoc;
+
+import edu.umass.cs.ciir.controversy.knn.EntryValue;
+import edu.umass.cs.ciir.controversy.knn.DocEntryValue;
+import utils.ir.lucene.similarity.QLDirichletSmoothing;
+
+/**
+ * <p>
+ * LuceneQLDocValuesSearcher returns the top entries as DocEntryValue (carrying Lucene docids), such that DocValuesControversyDatabase can read their
+ * controversy scores directly from the score column of the wiki index.
+ * </p>
+ * <p>
+ * Entry keys and titles are only loaded (from the WikiEntryDictionary, if set, or the stored fields) when the info map is provided, i.e., when debugging
+ * information is requested. Otherwise, a search does not look up any entry and the returned entries have null entry strings.
+ * </p>
+ * 
+ * @see edu.umass.cs.ciir.controversy.knn.db.DocValuesControversyDatabase
+ */
+public class LuceneQLDocValuesSearcher extends LuceneQLSearcher {
+	
+	public LuceneQLDocValuesSearcher( String path, double mu, String field_key, String field_title, String field_text ) throws IOException {
+		super( path, mu, field_key, field_title, field_text );
+	}
+	
+	public List<EntryValue> search( Object query, int topentries, Map<String, Object> info ) {
+		long timestamp = System.currentTimeMillis();
+		Object[] qinfo = (Object[]) query;
+		TopDocs hits = null;
+		try {
+			hits = this.searcher.search( (Query) qinfo[0], topentries );
+		} catch ( IOException e ) {
+			e.printStackTrace();
+		}
+		List<EntryValue> entries = new ArrayList<EntryValue>();
+		List<EntryValue> entries_title = info == null ? null : new ArrayList<EntryValue>();
+		if ( hits != null && hits.scoreDocs != null ) {
+			try {
+				double norm = QLDirichletSmoothing.scoreNormalizer( index, (String) qinfo[1], (String[]) qinfo[2], (double[]) qinfo[3] );
+				for ( ScoreDoc doc : hits.scoreDocs ) {
+					if ( info == null ) {
+						entries.add( new DocEntryValue( null, doc.score + norm, doc.doc ) ); // transform into standard QL scores
+					} else {
+						String[] keytitle = getKeyTitle( doc.doc );
+						entries.add( new DocEntryValue( keytitle[0], doc.score + norm, doc.doc ) );
+						entries_title.add( new EntryValue( keytitle[1], doc.score + norm ) );
+					}
+				}
+			} catch ( IOException e ) {
+				e.printStackTrace();
+			}
+		}
+		if ( info != null ) {
+			info.put( "top_wikientries", topentries );
+			info.put( "top_wikientries_QL", entries );
+			info.put( "top_wikientries_QL_title", entries_title );
+			info.put( "time_search_wiki_entries", ( System.currentTimeMillis() - timestamp ) / 1000.0 );
+		}
+		return entries;
+	}
+	
+}
@@ -18,6 +18,7 @@ import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.DirectoryReader;
 
 import edu.umass.cs.ciir.controversy.knn.EntryValue;
+import utils.ir.lucene.CorpusStatistics;
 import utils.ir.lucene.similarity.QLDirichletSmoothing;
 
 public class LuceneQLSearcher implements IndexSearcher {
@@ -31,6 +32,7 @@ public class LuceneQLSearcher implements IndexSearcher {
 	protected String field_text;
 	
 	protected Set<String> fields;
+	protected WikiEntryDictionary dictionary;
 	
 	public LuceneQLSearcher( String path, double mu, String field_key, String field_title, String field_text ) throws IOException {
 		this.dir = FSDirectory.open( new File( path ) );
@@ -43,6 +45,35 @@ public class LuceneQLSearcher implements IndexSearcher {
 		this.fields = new HashSet<String>();
 		this.fields.add( field_key );
 		this.fields.add( field_title );
+		// load the collection model now rather than in the first search
+		CorpusStatistics.get( this.index, field_text );
+	}
+	
+	/**
+	 * Read the keys and titles of the top entries from a dictionary instead of the stored documents.
+	 * 
+	 * @param dictionary
+	 *            A dictionary built from the index of this searcher, or null to read the stored documents.
+	 */
+	public void setDictionary( WikiEntryDictionary dictionary ) {
+		this.dictionary = dictionary;
+	}
+	
+	public WikiEntryDictionary getDictionary() {
+		return dictionary;
+	}
+	
+	/**
+	 * @param docid
+	 * @return The key and the title of the entry.
+	 * @throws IOException
+	 */
+	protected String[] getKeyTitle( int docid ) throws IOException {
+		if ( dictionary != null ) {
+			return new String[] { dictionary.getKey( docid ), dictionary.getTitle( docid ) };
+		}
+		Document d = index.document( docid, fields );
+		return new String[] { d.get( field_key ), d.get( field_title ) };
 	}
 	
 	public List<EntryValue> search( Object query, int topentries, Map<String, Object> info ) {
@@ -60,9 +91,9 @@ public class LuceneQLSearcher implements IndexSearcher {
 			try {
 				double norm = QLDirichletSmoothing.scoreNormalizer( index, (String) qinfo[1], (String[]) qinfo[2], (double[]) qinfo[3] );
 				for ( ScoreDoc doc : hits.scoreDocs ) {
-					Document d = index.document( doc.doc, fields );
-					String entry = d.get( field_key );
-					String title = d.get( field_title );
+					String[] keytitle = getKeyTitle( doc.doc );
+					String entry = keytitle[0];
+					String title = keytitle[1];
 					entries.add( new EntryValue( entry, doc.score + norm ) ); // transform into standard QL scores
 					entries_title.add( new EntryValue( title, doc.score + norm ) );
 				}
@@ -79,6 +110,18 @@ public class LuceneQLSearcher implements IndexSearcher {
 		return entries;
 	}
 	
+	public IndexReader getIndexReader() {
+		return index;
+	}
+	
+	public org.apache.lucene.search.IndexSearcher getIndexSearcher() {
+		return searcher;
+	}
+	
+	public String getFieldKey() {
+		return field_key;
+	}
+	
 	public void close() throws IOException {
 		this.index.close();
 		this.dir.close();
@@ -2,19 +2,12 @@ package edu.umass.cs.ciir.controversy.knn.sim;
 
 import java.io.IOException;
 import java.util.Map;
-import java.util.List;
-import java.util.Iterator;
-import java.util.ArrayList;
 
 import org.apache.lucene.search.Query;
 import org.apache.lucene.analysis.Analyzer;
 
-import utils.ArrayUtils;
 import utils.ir.lucene.LuceneUtils;
-import utils.ir.lm.unigram.UnigramModel;
-import utils.ir.lm.unigram.TreeMapSample;
-import utils.ir.lm.unigram.EstimatedModel;
-import utils.ir.lm.unigram.SortedUnigramModel;
+import utils.ir.analysis.TermCounter;
 
 import edu.umass.cs.ciir.controversy.knn.EntryValue;
 
@@ -23,6 +16,13 @@ public class LuceneTopWordsQuery implements QueryConstructor {
 	protected Analyzer analyzer;
 	protected String field_text;
 	
+	// term counters are reused by each thread, so building a query does not allocate per token
+	private static final ThreadLocal<TermCounter> counters = new ThreadLocal<TermCounter>() {
+		protected TermCounter initialValue() {
+			return new TermCounter();
+		}
+	};
+	
 	public LuceneTopWordsQuery( Analyzer analyzer, String field_text ) {
 		this.analyzer = analyzer;
 		this.field_text = field_text;
@@ -39,29 +39,20 @@ public class LuceneTopWordsQuery implements QueryConstructor {
 			
 			// actually the IOException would never happen
 			// so you don't need to handle it
-			TreeMapSample sample = new TreeMapSample();
-			sample.update( text, analyzer );
-			sample.setLength();
-			
-			UnigramModel qm = EstimatedModel.MLE( sample );
-			qm = new SortedUnigramModel( qm );
+			TermCounter counter = counters.get();
+			counter.reset();
+			counter.update( text, analyzer );
 			
-			List<String> terms = new ArrayList<String>();
-			List<Double> weights = new ArrayList<Double>();
-			
-			Iterator<String> iterator = qm.iterator();
-			while ( iterator.hasNext() ) {
-				String term = iterator.next();
-				double weight = qm.probability( term );
-				terms.add( term );
-				weights.add( weight );
-				if ( terms.size() >= topwords ) {
-					break;
-				}
+			// the same as taking the top words of the MLE model of the text (at least one word, as before)
+			int[] top = counter.top( Math.max( topwords, 1 ) );
+			String[] array_terms = new String[top.length];
+			double[] array_weights = new double[top.length];
+			double length = counter.length();
+			for ( int ix = 0 ; ix < top.length ; ix++ ) {
+				array_terms[ix] = counter.getTerm( top[ix] );
+				array_weights[ix] = counter.getCount( top[ix] ) / length;
 			}
 			
-			String[] array_terms = ArrayUtils.toStringArray( terms );
-			double[] array_weights = ArrayUtils.toDoubleArray( weights );
 			Query query = LuceneUtils.getQuery( field_text, array_terms, array_weights );
 			
 			q = new Object[] { query, field_text, array_terms, array_weights };
@@ -0,0 +1,184 @@
+package edu.umass.cs.ciir.controversy.knn.sim;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.DocsEnum;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.search.DocIdSetIterator;
+
+/**
+ * <p>
+ * WikiEntryDictionary maps the entries of the wiki index between their keys (normalized titles, used by the controversy score tables), their original
+ * titles (used to display entries and to link to Wikipedia) and Lucene docids. It is built once from the term dictionaries of the key and title fields
+ * (both are indexed as single terms), so neither building it nor looking it up reads any stored document.
+ * </p>
+ * <p>
+ * Keys and titles are kept in memory as sorted UTF-8 byte pools (like MappedControversyDatabase's key block) plus a few int arrays: the UTF-8 bytes of the keys and
+ * titles and about 24 bytes per entry. Lookups are read-only and thread-safe. The dictionary describes one IndexReader and must be rebuilt if
+ * the index is reopened.
+ * </p>
+ */
+public class WikiEntryDictionary {
+	
+	/**
+	 * The distinct terms of a field sorted by unsigned bytes (the term dictionary order), and the term of each doc.
+	 */
+	protected static class Column {
+		
+		protected byte[] pool = new byte[1 << 16];
+		protected int[] offsets = new int[1 << 10]; // offsets[ord] to offsets[ord+1] is term ord
+		protected int[] ord_doc = new int[1 << 10]; // a doc having term ord
+		protected int[] doc_ord; // ord of the term of each doc, or -1
+		protected int count;
+		
+		protected Column( IndexReader index, String field ) throws IOException {
+			doc_ord = new int[index.maxDoc()];
+			Arrays.fill( doc_ord, -1 );
+			Terms terms = MultiFields.getTerms( index, field );
+			if ( terms == null ) {
+				return;
+			}
+			Bits live = MultiFields.getLiveDocs( index );
+			TermsEnum iterator = terms.iterator( null );
+			DocsEnum docs = null;
+			BytesRef term = null;
+			while ( ( term = iterator.next() ) != null ) {
+				docs = iterator.docs( live, docs, DocsEnum.FLAG_NONE );
+				int doc = docs.nextDoc();
+				if ( doc == DocIdSetIterator.NO_MORE_DOCS ) {
+					// all docs of the term are deleted
+					continue;
+				}
+				add( term, doc );
+				for ( ; doc != DocIdSetIterator.NO_MORE_DOCS ; doc = docs.nextDoc() ) {
+					doc_ord[doc] = count - 1;
+				}
+			}
+			pool = Arrays.copyOf( pool, offsets[count] );
+			offsets = Arrays.copyOf( offsets, count + 1 );
+			ord_doc = Arrays.copyOf( ord_doc, count );
+		}
+		
+		private void add( BytesRef term, int doc ) throws IOException {
+			if ( count + 1 >= offsets.length ) {
+				offsets = Arrays.copyOf( offsets, offsets.length * 2 );
+				ord_doc = Arrays.copyOf( ord_doc, ord_doc.length * 2 );
+			}
+			int offset = offsets[count];
+			if ( (long) offset + term.length > Integer.MAX_VALUE - 8 ) {
+				throw new IOException( "Too many terms for a wiki entry dictionary" );
+			}
+			if ( offset + term.length > pool.length ) {
+				pool = Arrays.copyOf( pool, (int) Math.min( Integer.MAX_VALUE - 8, Math.max( 2L * pool.length, offset + term.length ) ) );
+			}
+			System.arraycopy( term.bytes, term.offset, pool, offset, term.length );
+			ord_doc[count] = doc;
+			offsets[++count] = offset + term.length;
+		}
+		
+		protected String get( int ord ) {
+			return new String( pool, offsets[ord], offsets[ord + 1] - offsets[ord], StandardCharsets.UTF_8 );
+		}
+		
+		protected int find( byte[] key ) {
+			int lo = 0;
+			int hi = count - 1;
+			while ( lo <= hi ) {
+				int mid = ( lo + hi ) >>> 1;
+				int cmp = compare( mid, key );
+				if ( cmp < 0 ) {
+					lo = mid + 1;
+				} else if ( cmp > 0 ) {
+					hi = mid - 1;
+				} else {
+					return mid;
+				}
+			}
+			return -1;
+		}
+		
+		private int compare( int ord, byte[] key ) {
+			int bg = offsets[ord];
+			int len = offsets[ord + 1] - bg;
+			int lim = Math.min( len, key.length );
+			for ( int ix = 0 ; ix < lim ; ix++ ) {
+				int b1 = pool[bg + ix] & 0xff;
+				int b2 = key[ix] & 0xff;
+				if ( b1 != b2 ) {
+					return b1 - b2;
+				}
+			}
+			return len - key.length;
+		}
+		
+	}
+	
+	protected final Column keys;
+	protected final Column titles;
+	
+	/**
+	 * @param index
+	 * @param field_key
+	 *            The field of entry keys (normalized titles).
+	 * @param field_title
+	 *            The field of original titles.
+	 * @throws IOException
+	 */
+	public WikiEntryDictionary( IndexReader index, String field_key, String field_title ) throws IOException {
+		long timestamp = System.currentTimeMillis();
+		this.keys = new Column( index, field_key );
+		this.titles = new Column( index, field_title );
+		System.out.println( " >> wiki entry dictionary: " + keys.count + " entries loaded in " + ( System.currentTimeMillis() - timestamp ) / 1000.0 + " seconds" );
+	}
+	
+	/**
+	 * @return Number of distinct entry keys.
+	 */
+	public int size() {
+		return keys.count;
+	}
+	
+	/**
+	 * @param key
+	 * @return Lucene docid of the entry, or -1 if the key is not in the index.
+	 */
+	public int getDocid( String key ) {
+		int ord = keys.find( key.getBytes( StandardCharsets.UTF_8 ) );
+		return ord < 0 ? -1 : keys.ord_doc[ord];
+	}
+	
+	/**
+	 * @param key
+	 * @return Original title of the entry, or null if the key is not in the index.
+	 */
+	public String getTitle( String key ) {
+		int docid = getDocid( key );
+		return docid < 0 ? null : getTitle( docid );
+	}
+	
+	/**
+	 * @param docid
+	 * @return Key of the entry, or null if the doc has no key (or is deleted).
+	 */
+	public String getKey( int docid ) {
+		int ord = keys.doc_ord[docid];
+		return ord < 0 ? null : keys.get( ord );
+	}
+	
+	/**
+	 * @param docid
+	 * @return Original title of the entry, or null if the doc has no title (or is deleted).
+	 */
+	public String getTitle( int docid ) {
+		int ord = titles.doc_ord[docid];
+		return ord < 0 ? null : titles.get( ord );
+	}
+	
+}
@@ -0,0 +1,58 @@
+package edu.umass.cs.ciir.controversy.test;
+
+import org.junit.Test;
+import org.junit.Assert;
+
+import edu.umass.cs.ciir.controversy.data.WikiMarkupStripper;
+
+public class TestWikiMarkupStripper {
+	
+	private static String strip( String text ) {
+		return new WikiMarkupStripper().filter( text ).replaceAll( "\\s+", " " ).trim();
+	}
+	
+	@Test
+	public void testTemplates() {
+		Assert.assertEquals( "a b", strip( "a {{Infobox country|name=X|capital={{nowrap|[[Paris]]}}|y}} b" ) );
+		Assert.assertEquals( "x y", strip( "x\n{| class=wikitable\n| cell {{flag|FR}}\n|}\ny" ) );
+	}
+	
+	@Test
+	public void testLinks() {
+		Assert.assertEquals( "the capital and France", strip( "[[Paris|the capital]] and [[France]]" ) );
+		Assert.assertEquals( "text", strip( "[[File:a.jpg|thumb|a caption with [[Paris]]]] text [[Category:Countries]] [[de:Frankreich]]" ) );
+		Assert.assertEquals( "Site here", strip( "[http://example.com Site] http://example.org here" ) );
+	}
+	
+	@Test
+	public void testTags() {
+		Assert.assertEquals( "fact more end", strip( "fact<ref name=a>cite {{cite web|url=x}}</ref> more<ref name=b /> end" ) );
+		Assert.assertEquals( "ab", strip( "a<!-- hidden {{x}} -->b" ) );
+		Assert.assertEquals( "small text", strip( "<small>small</small> text" ) );
+	}
+	
+	@Test
+	public void testFormatting() {
+		Assert.assertEquals( "History bold italic a b", strip( "== History ==\n'''bold''' ''italic''\n* a&nbsp;b __NOTOC__" ) );
+	}
+	
+	@Test
+	public void testUnclosed() {
+		Assert.assertEquals( "text {{cite | broken", strip( "text {{cite | broken" ) );
+		Assert.assertEquals( "see [[broken link", strip( "see [[broken link" ) );
+		Assert.assertEquals( "fact never closed", strip( "fact<ref>never closed" ) );
+		// once a template is found unclosed, the later ones are kept as text
+		Assert.assertEquals( "{{a {{b}} c", strip( "{{a {{b}} c" ) );
+	}
+	
+	@Test( timeout = 5000 )
+	public void testUnclosedLinearTime() {
+		StringBuilder text = new StringBuilder();
+		for ( int ix = 0 ; ix < 50000 ; ix++ ) {
+			text.append( "{{x [[y <ref>z " );
+		}
+		String stripped = new WikiMarkupStripper().filter( text.toString() );
+		Assert.assertTrue( stripped.startsWith( "{{x [[y  z" ) );
+	}
+	
+}
@@ -1,5 +1,10 @@
 package test.utils;
 
+import java.util.Random;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.nio.charset.StandardCharsets;
+
 import junit.framework.Assert;
 
 import org.junit.Test;
@@ -39,4 +44,40 @@ public class TestByteUtils {
 		// tested in testToBytesLongByteArrayInt
 	}
 	
+	@Test
+	public void testDeflateInflate() throws Exception {
+		StringBuilder sb = new StringBuilder();
+		for ( int ix = 0 ; ix < 2000 ; ix++ ) {
+			sb.append( "Controversy detection \u00e9\u4e2d line " ).append( ix % 17 ).append( '\n' );
+		}
+		byte[] bytes = sb.toString().getBytes( StandardCharsets.UTF_8 );
+		byte[] compressed = ByteUtils.deflate( bytes );
+		Assert.assertTrue( compressed.length < bytes.length / 10 );
+		Assert.assertTrue( Arrays.equals( bytes, ByteUtils.inflate( compressed, bytes.length ) ) );
+	}
+	
+	@Test
+	public void testDeflateInflateIncompressible() throws Exception {
+		byte[] bytes = new byte[100000];
+		new Random( 7 ).nextBytes( bytes );
+		byte[] compressed = ByteUtils.deflate( bytes );
+		Assert.assertTrue( Arrays.equals( bytes, ByteUtils.inflate( compressed, bytes.length ) ) );
+		Assert.assertEquals( 0, ByteUtils.inflate( ByteUtils.deflate( new byte[0] ), 0 ).length );
+	}
+	
+	@Test
+	public void testInflateWrongLength() {
+		byte[] compressed = ByteUtils.deflate( "abcabcabc".getBytes( StandardCharsets.UTF_8 ) );
+		try {
+			ByteUtils.inflate( compressed, 8 );
+			Assert.fail();
+		} catch ( DataFormatException e ) {
+		}
+		try {
+			ByteUtils.inflate( compressed, 10 );
+			Assert.fail();
+		} catch ( DataFormatException e ) {
+		}
+	}
+	
 }
@@ -0,0 +1,101 @@
+package test.utils;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.io.StringWriter;
+
+import org.junit.Test;
+import org.junit.Assert;
+
+import utils.metrics.Metrics;
+import utils.metrics.LatencyHistogram;
+
+public class TestLatencyHistogram {
+	
+	@Test
+	public void testEmpty() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		Assert.assertEquals( 0, histogram.getCount() );
+		Assert.assertEquals( 0, histogram.getQuantile( 0.99 ) );
+	}
+	
+	@Test
+	public void testSmallValuesAreExact() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for ( int value = 0 ; value < 32 ; value++ ) {
+			histogram.record( value );
+		}
+		Assert.assertEquals( 32, histogram.getCount() );
+		Assert.assertEquals( 31 * 32 / 2, histogram.getSum() );
+		Assert.assertEquals( 31, histogram.getMax() );
+		Assert.assertEquals( 15, histogram.getQuantile( 0.5 ) );
+		Assert.assertEquals( 31, histogram.getQuantile( 1 ) );
+	}
+	
+	@Test
+	public void testClamp() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record( -5 );
+		histogram.record( Long.MAX_VALUE );
+		Assert.assertEquals( 0, histogram.getQuantile( 0.5 ) );
+		Assert.assertEquals( LatencyHistogram.MAX_VALUE, histogram.getMax() );
+		Assert.assertEquals( LatencyHistogram.MAX_VALUE, histogram.getQuantile( 1 ) );
+	}
+	
+	@Test
+	public void testQuantilesWithinRelativeError() {
+		Random random = new Random( 0 );
+		for ( int round = 0 ; round < 10 ; round++ ) {
+			LatencyHistogram histogram = new LatencyHistogram();
+			long[] values = new long[10000];
+			for ( int ix = 0 ; ix < values.length ; ix++ ) {
+				// log-uniform latencies from 1 microsecond to 10 seconds
+				values[ix] = (long) Math.pow( 10, 3 + random.nextDouble() * 7 );
+				histogram.record( values[ix] );
+			}
+			Arrays.sort( values );
+			for ( double quantile : new double[] { 0.01, 0.5, 0.9, 0.99, 0.999, 1 } ) {
+				long exact = values[(int) Math.ceil( quantile * values.length ) - 1];
+				long approx = histogram.getQuantile( quantile );
+				Assert.assertTrue( approx >= exact );
+				Assert.assertTrue( approx <= exact + exact / 16 );
+			}
+		}
+	}
+	
+	@Test
+	public void testConcurrentRecords() throws Exception {
+		final LatencyHistogram histogram = new LatencyHistogram();
+		Thread[] threads = new Thread[4];
+		for ( int ix = 0 ; ix < threads.length ; ix++ ) {
+			threads[ix] = new Thread() {
+				public void run() {
+					for ( int value = 1 ; value <= 100000 ; value++ ) {
+						histogram.record( value );
+					}
+				}
+			};
+			threads[ix].start();
+		}
+		for ( Thread thread : threads ) {
+			thread.join();
+		}
+		Assert.assertEquals( 400000, histogram.getCount() );
+		Assert.assertEquals( 4L * 100000 * 100001 / 2, histogram.getSum() );
+		Assert.assertEquals( 100000, histogram.getMax() );
+	}
+	
+	@Test
+	public void testPrometheusFormat() throws Exception {
+		Metrics.histogram( "test_stage_seconds" ).record( 2000000 );
+		Metrics.counter( "test_failures_total" ).incrementAndGet();
+		StringWriter writer = new StringWriter();
+		Metrics.write( writer );
+		String text = writer.toString();
+		Assert.assertTrue( text.contains( "# TYPE test_stage_seconds summary\n" ) );
+		Assert.assertTrue( text.contains( "test_stage_seconds{quantile=\"0.99\"} 0.002\n" ) );
+		Assert.assertTrue( text.contains( "test_stage_seconds_count 1\n" ) );
+		Assert.assertTrue( text.contains( "# TYPE test_failures_total counter\ntest_failures_total 1\n" ) );
+	}
+	
+}
@@ -0,0 +1,59 @@
+package test.utils;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.HashMap;
+
+import org.junit.Test;
+import org.junit.Assert;
+
+import utils.StringUtils;
+import utils.type.LongDoubleHashMap;
+
+public class TestLongDoubleHashMap {
+	
+	@Test
+	public void testPutGet() {
+		LongDoubleHashMap map = new LongDoubleHashMap();
+		Assert.assertTrue( Double.isNaN( map.put( 1, 0.5 ) ) );
+		Assert.assertEquals( 0.5, map.put( 1, 0.25 ), 0 );
+		Assert.assertEquals( 0.25, map.get( 1, -1 ), 0 );
+		Assert.assertEquals( -1, map.get( 2, -1 ), 0 );
+		Assert.assertEquals( 1, map.size() );
+	}
+	
+	@Test
+	public void testZeroKey() {
+		LongDoubleHashMap map = new LongDoubleHashMap();
+		Assert.assertFalse( map.containsKey( 0 ) );
+		map.put( 0, 3.0 );
+		Assert.assertTrue( map.containsKey( 0 ) );
+		Assert.assertEquals( 3.0, map.get( 0, -1 ), 0 );
+		Assert.assertEquals( 1, map.size() );
+	}
+	
+	@Test
+	public void testRehash() {
+		Random random = new Random( 0 );
+		Map<Long, Double> expected = new HashMap<Long, Double>();
+		LongDoubleHashMap map = new LongDoubleHashMap( 4 );
+		for ( int ix = 0 ; ix < 100000 ; ix++ ) {
+			long key = random.nextLong();
+			double value = random.nextDouble();
+			expected.put( key, value );
+			map.put( key, value );
+		}
+		Assert.assertEquals( expected.size(), map.size() );
+		for ( Long key : expected.keySet() ) {
+			Assert.assertTrue( map.containsKey( key ) );
+			Assert.assertEquals( expected.get( key ), map.get( key, -1 ), 0 );
+		}
+	}
+	
+	@Test
+	public void testHash64() {
+		Assert.assertEquals( StringUtils.hash64( "controversy" ), StringUtils.hash64( "a controversy".toCharArray(), 2, 11 ) );
+		Assert.assertNotEquals( StringUtils.hash64( "ab" ), StringUtils.hash64( "ba" ) );
+	}
+	
+}
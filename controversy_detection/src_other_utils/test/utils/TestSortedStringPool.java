@@ -0,0 +1,37 @@
+package test.utils;
+
+import org.junit.Test;
+import org.junit.Assert;
+
+import utils.type.SortedStringPool;
+
+public class TestSortedStringPool {
+	
+	@Test
+	public void testFind() {
+		SortedStringPool pool = new SortedStringPool( new String[] { "", "abortion", "gun control", "gun politics", "été" } );
+		Assert.assertEquals( 5, pool.size() );
+		Assert.assertEquals( 0, pool.find( "" ) );
+		Assert.assertEquals( 1, pool.find( "abortion" ) );
+		Assert.assertEquals( 2, pool.find( "gun control" ) );
+		Assert.assertEquals( 3, pool.find( new StringBuilder( "gun politics" ) ) );
+		Assert.assertEquals( 4, pool.find( "été" ) );
+		Assert.assertEquals( -1, pool.find( "gun" ) );
+		Assert.assertEquals( -1, pool.find( "zzz" ) );
+		Assert.assertEquals( "gun control", pool.get( 2 ) );
+	}
+	
+	@Test
+	public void testSortUnique() {
+		String[] strs = new String[] { "b", "a", "c", "a", "b" };
+		int[] positions = SortedStringPool.sortUnique( strs );
+		Assert.assertArrayEquals( new int[] { 1, 0, 2 }, positions );
+		Assert.assertArrayEquals( new String[] { "a", "b", "c", null, null }, strs );
+	}
+	
+	@Test( expected = IllegalArgumentException.class )
+	public void testUnsorted() {
+		new SortedStringPool( new String[] { "b", "a" } );
+	}
+	
+}
@@ -225,4 +225,10 @@ public class TestStringUtils {
 		Assert.assertEquals(expected, actual);
 	}
 	
+	@Test
+	public void testSha1() {
+		Assert.assertEquals( "a9993e364706816aba3e25717850c26c9cd0d89d", StringUtils.sha1( "abc" ) );
+		Assert.assertEquals( "da39a3ee5e6b4b0d3255bfef95601890afd80709", StringUtils.sha1( "" ) );
+	}
+	
 }
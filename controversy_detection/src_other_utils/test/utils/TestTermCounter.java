@@ -0,0 +1,70 @@
+package test.utils;
+
+import java.util.Random;
+import java.util.Iterator;
+
+import org.junit.Test;
+import org.junit.Assert;
+import org.apache.lucene.analysis.Analyzer;
+
+import utils.ir.analysis.TermCounter;
+import utils.ir.analysis.TextAnalyzer;
+import utils.ir.lm.unigram.UnigramModel;
+import utils.ir.lm.unigram.TreeMapSample;
+import utils.ir.lm.unigram.EstimatedModel;
+import utils.ir.lm.unigram.SortedUnigramModel;
+
+public class TestTermCounter {
+	
+	@Test
+	public void testCount() {
+		TermCounter counter = new TermCounter();
+		for ( String term : "b a c a b a".split( " " ) ) {
+			counter.update( term.toCharArray(), 0, term.length() );
+		}
+		Assert.assertEquals( 3, counter.size() );
+		Assert.assertEquals( 6, counter.length() );
+		int[] top = counter.top( 10 );
+		Assert.assertEquals( 3, top.length );
+		Assert.assertEquals( "a", counter.getTerm( top[0] ) );
+		Assert.assertEquals( 3, counter.getCount( top[0] ) );
+		Assert.assertEquals( "b", counter.getTerm( top[1] ) );
+		Assert.assertEquals( "c", counter.getTerm( top[2] ) );
+		counter.reset();
+		Assert.assertEquals( 0, counter.size() );
+		Assert.assertEquals( 0, counter.top( 10 ).length );
+	}
+	
+	@Test
+	public void testSameAsSortedModel() throws Exception {
+		Analyzer analyzer = TextAnalyzer.get( "alpha", "lc", "kstem", "indri stop", "no oov" );
+		Random random = new Random( 0 );
+		TermCounter counter = new TermCounter();
+		for ( int round = 0 ; round < 20 ; round++ ) {
+			StringBuilder text = new StringBuilder();
+			int vocabulary = 10 + random.nextInt( 5000 );
+			for ( int ix = 0 ; ix < 20000 ; ix++ ) {
+				int word = (int) Math.abs( random.nextGaussian() * vocabulary / 3 );
+				text.append( "w" + Integer.toString( word, 26 ).replaceAll( "\\d", "x" ) ).append( ' ' );
+			}
+			
+			TreeMapSample sample = new TreeMapSample();
+			sample.update( text.toString(), analyzer );
+			sample.setLength();
+			UnigramModel model = new SortedUnigramModel( EstimatedModel.MLE( sample ) );
+			
+			counter.reset();
+			counter.update( text.toString(), analyzer );
+			int[] top = counter.top( 35 );
+			
+			Iterator<String> terms = model.iterator();
+			for ( int ix = 0 ; ix < top.length ; ix++ ) {
+				String term = terms.next();
+				Assert.assertEquals( term, counter.getTerm( top[ix] ) );
+				Assert.assertEquals( model.probability( term ), counter.getCount( top[ix] ) / (double) counter.length(), 0 );
+			}
+			Assert.assertEquals( Math.min( 35, sample.getStats().size() ), top.length );
+		}
+	}
+	
+}
@@ -1,8 +1,12 @@
 package utils;
 
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.DataFormatException;
+
 /**
  * Operations related to byte. The implementations are from DataOutputStream.
- * Currently it contains only transformation between bytes and long integers.
+ * It contains transformation between bytes and long integers, and compression of bytes arrays.
  * 
  * @author Jiepu Jiang
  * @version Feb 27, 2013
@@ -81,4 +85,71 @@ public class ByteUtils {
                ((bytes[pos+7] & 255) <<  0));
 	}
 	
+	/**
+	 * Compress a bytes array with raw deflate (no zlib or gzip header) at the fastest level, which
+	 * trades some compression ratio for speed.
+	 * 
+	 * @param bytes 	A bytes array
+	 * @return 			The compressed bytes
+	 */
+	public static byte[] deflate( byte[] bytes ) {
+		Deflater deflater = new Deflater( Deflater.BEST_SPEED, true );
+		try {
+			deflater.setInput( bytes );
+			deflater.finish();
+			byte[] buffer = new byte[Math.max( 64, bytes.length / 2 )];
+			int len = 0;
+			while ( !deflater.finished() ) {
+				if ( len == buffer.length ) {
+					byte[] larger = new byte[buffer.length * 2];
+					System.arraycopy( buffer, 0, larger, 0, len );
+					buffer = larger;
+				}
+				len += deflater.deflate( buffer, len, buffer.length - len );
+			}
+			byte[] compressed = new byte[len];
+			System.arraycopy( buffer, 0, compressed, 0, len );
+			return compressed;
+		} finally {
+			deflater.end();
+		}
+	}
+	
+	/**
+	 * Decompress a bytes array compressed by deflate().
+	 * 
+	 * @param compressed 	The compressed bytes
+	 * @param length 		Length of the original bytes array
+	 * @return 				The original bytes
+	 * @throws DataFormatException If the compressed bytes are corrupted or do not have the given length.
+	 */
+	public static byte[] inflate( byte[] compressed, int length ) throws DataFormatException {
+		// raw inflate needs an extra dummy byte at the end of the input
+		byte[] input = new byte[compressed.length + 1];
+		System.arraycopy( compressed, 0, input, 0, compressed.length );
+		Inflater inflater = new Inflater( true );
+		try {
+			inflater.setInput( input );
+			byte[] bytes = new byte[length];
+			int len = 0;
+			while ( !inflater.finished() ) {
+				// once the array is full, any more output means the original bytes are longer
+				int n = len < length ? inflater.inflate( bytes, len, length - len ) : inflater.inflate( new byte[1] );
+				if ( len == length && n > 0 ) {
+					throw new DataFormatException( "Expected " + length + " bytes but got more" );
+				}
+				if ( n == 0 && ( inflater.needsInput() || inflater.needsDictionary() ) ) {
+					break;
+				}
+				len += n;
+			}
+			if ( len < length || !inflater.finished() ) {
+				throw new DataFormatException( "Expected " + length + " bytes but got " + len );
+			}
+			return bytes;
+		} finally {
+			inflater.end();
+		}
+	}
+	
 }
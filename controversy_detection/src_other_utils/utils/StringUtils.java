@@ -2,6 +2,9 @@ package utils;
 
 import java.util.*;
 import java.util.regex.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 import org.apache.commons.lang3.*;
 import org.apache.commons.lang3.math.*;
@@ -1024,4 +1027,60 @@ public class StringUtils {
 		return input.toUpperCase();
 	}
 	
+	/**
+	 * A 64-bit hash code (FNV-1a over UTF-16 chars) of the input. Unlike String.hashCode(), collisions are rare enough to use the hash code as a key for
+	 * millions of distinct strings, e.g., the vocabulary of an index.
+	 * 
+	 * @param input
+	 * @return
+	 */
+	public static long hash64( CharSequence input ) {
+		long hash = 0xcbf29ce484222325L;
+		for ( int ix = 0 ; ix < input.length() ; ix++ ) {
+			char ch = input.charAt( ix );
+			hash = ( hash ^ ( ch & 0xff ) ) * 0x100000001b3L;
+			hash = ( hash ^ ( ch >>> 8 ) ) * 0x100000001b3L;
+		}
+		return hash;
+	}
+	
+	/**
+	 * SHA-1 digest of the UTF-8 bytes of the input, as 40 lowercase hex chars (the same as MySQL's SHA1() function).
+	 * 
+	 * @param input
+	 * @return
+	 */
+	public static String sha1( String input ) {
+		try {
+			byte[] digest = MessageDigest.getInstance( "SHA-1" ).digest( input.getBytes( StandardCharsets.UTF_8 ) );
+			char[] hex = new char[digest.length * 2];
+			for ( int ix = 0 ; ix < digest.length ; ix++ ) {
+				hex[2 * ix] = Character.forDigit( ( digest[ix] >>> 4 ) & 0xf, 16 );
+				hex[2 * ix + 1] = Character.forDigit( digest[ix] & 0xf, 16 );
+			}
+			return new String( hex );
+		} catch ( NoSuchAlgorithmException e ) {
+			// every Java platform supports SHA-1
+			throw new IllegalStateException( e );
+		}
+	}
+	
+	/**
+	 * The same as hash64(CharSequence) but for a slice of a char buffer (e.g., a token buffer), such that no String needs to be created.
+	 * 
+	 * @param buffer
+	 * @param offset
+	 * @param length
+	 * @return
+	 */
+	public static long hash64( char[] buffer, int offset, int length ) {
+		long hash = 0xcbf29ce484222325L;
+		for ( int ix = offset ; ix < offset + length ; ix++ ) {
+			char ch = buffer[ix];
+			hash = ( hash ^ ( ch & 0xff ) ) * 0x100000001b3L;
+			hash = ( hash ^ ( ch >>> 8 ) ) * 0x100000001b3L;
+		}
+		return hash;
+	}
+	
 }
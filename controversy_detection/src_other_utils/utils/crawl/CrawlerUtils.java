@@ -304,7 +304,6 @@ public class CrawlerUtils {
 			Header[] headers = response.getHeaders( "Content-Encoding" );
 			for ( int i = 0 ; i < headers.length ; i++ ) {
 				String val = headers[i].getValue().trim();
-				System.out.println( val );
 				if ( val.equalsIgnoreCase( "gzip" ) ) {
 					return PageCompression.GZIP;
 				} else if ( val.equalsIgnoreCase( "deflate" ) ) {
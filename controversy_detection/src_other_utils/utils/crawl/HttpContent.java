@@ -0,0 +1,151 @@
+package utils.crawl;
+
+import java.util.Date;
+import java.nio.charset.Charset;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.utils.DateUtils;
+
+import utils.StringUtils;
+
+/**
+ * <p>
+ * HttpContent is the response to an http get request: the status code, the (decompressed) content bytes, and the response headers needed for caching and
+ * revalidating the content (ETag, Last-Modified, Cache-Control and Expires).
+ * </p>
+ * 
+ * @see utils.crawl.PooledFetcher#getContent(HttpRequestHeaderInfo, String, String, String)
+ */
+public class HttpContent {
+	
+	protected int status;
+	protected byte[] content;
+	protected String etag;
+	protected String last_modified;
+	protected String cache_control;
+	protected String expires;
+	protected String charset;
+	protected boolean truncated;
+	
+	public HttpContent( HttpResponse response, byte[] content ) {
+		this( response, content, CrawlerUtils.detectCharset( response ), false );
+	}
+	
+	/**
+	 * @param response
+	 * @param content
+	 * @param charset
+	 *            Charset of the content (from the http header or the page itself), or null if unknown.
+	 * @param truncated
+	 *            Whether the content was cut at a maximum length.
+	 */
+	public HttpContent( HttpResponse response, byte[] content, String charset, boolean truncated ) {
+		this.status = response.getStatusLine().getStatusCode();
+		this.content = content;
+		this.etag = header( response, "ETag" );
+		this.last_modified = header( response, "Last-Modified" );
+		this.cache_control = header( response, "Cache-Control" );
+		this.expires = header( response, "Expires" );
+		this.charset = charset;
+		this.truncated = truncated;
+	}
+	
+	private static String header( HttpResponse response, String name ) {
+		Header header = response.getFirstHeader( name );
+		return header == null ? null : header.getValue();
+	}
+	
+	public int getStatus() {
+		return status;
+	}
+	
+	/**
+	 * @return Whether the server answered a conditional request with 304 Not Modified.
+	 */
+	public boolean isNotModified() {
+		return status == 304;
+	}
+	
+	/**
+	 * @return The content bytes, or null if the response has no content (e.g., 304).
+	 */
+	public byte[] getContent() {
+		return content;
+	}
+	
+	public String getETag() {
+		return etag;
+	}
+	
+	public String getLastModified() {
+		return last_modified;
+	}
+	
+	/**
+	 * @return The charset of the content, or null if unknown.
+	 */
+	public String getCharset() {
+		return charset;
+	}
+	
+	/**
+	 * @return Whether the content was cut at a maximum length.
+	 */
+	public boolean isTruncated() {
+		return truncated;
+	}
+	
+	/**
+	 * Decode the content using its charset (or the default charset if the charset is unknown or unsupported).
+	 * 
+	 * @param default_charset
+	 * @return
+	 */
+	public String getContentString( String default_charset ) {
+		if ( content == null ) {
+			return null;
+		}
+		Charset cs = null;
+		try {
+			cs = charset != null && Charset.isSupported( charset ) ? Charset.forName( charset ) : Charset.forName( default_charset );
+		} catch ( IllegalArgumentException e ) {
+			cs = Charset.forName( default_charset );
+		}
+		return new String( content, cs );
+	}
+	
+	/**
+	 * @return Whether the server does not allow the content to be stored (Cache-Control: no-store or private).
+	 */
+	public boolean isNoStore() {
+		return cache_control != null && ( cache_control.toLowerCase().contains( "no-store" ) || cache_control.toLowerCase().contains( "private" ) );
+	}
+	
+	/**
+	 * Get the freshness lifetime of the content specified by the server, i.e., Cache-Control max-age or Expires.
+	 * 
+	 * @param now
+	 *            Current time in milliseconds.
+	 * @return Freshness lifetime in milliseconds (0 if the content must be revalidated), or -1 if the server did not specify one.
+	 */
+	public long getFreshness( long now ) {
+		if ( cache_control != null ) {
+			String control = cache_control.toLowerCase();
+			if ( control.contains( "no-cache" ) ) {
+				return 0;
+			}
+			String maxage = StringUtils.extractFirst( control, "max-age\\s*=\\s*(\\d+)", 1 );
+			if ( maxage != null ) {
+				return maxage.length() > 9 ? Integer.MAX_VALUE * 1000L : Long.parseLong( maxage ) * 1000;
+			}
+		}
+		if ( expires != null ) {
+			Date date = DateUtils.parseDate( expires );
+			// an invalid date (e.g., "0") means already expired
+			return date == null ? 0 : Math.max( 0, date.getTime() - now );
+		}
+		return -1;
+	}
+	
+}
@@ -0,0 +1,429 @@
+package utils.crawl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.concurrent.Future;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+import java.util.regex.Pattern;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+
+import utils.StringUtils;
+import utils.thread.DaemonThreadFactory;
+
+/**
+ * <p>
+ * PooledFetcher is a thread-safe http fetcher meant to be shared by all threads of a service. Unlike CrawlerUtils, which opens a new connection for each
+ * request, it keeps alive and reuses connections from a pool, and it bounds the resources a request can take:
+ * </p>
+ * <ul>
+ * <li>at most max_per_host concurrent requests (and pooled connections) per host, such that a slow host cannot take all connections and threads: the
+ * other requests to the host wait in the host's queue without a thread, and each finishing request hands its slot to the next one;</li>
+ * <li>connect and read (socket) timeouts, and an overall deadline for downloading a response;</li>
+ * <li>at most max_bytes (decompressed) content bytes; a longer response is truncated while it is streamed and its connection is aborted instead of being
+ * read to the end.</li>
+ * </ul>
+ * <p>
+ * Requests run on a bounded pool of daemon threads. fetch() returns a Future immediately, and calls back (if a callback is given) on the fetching thread
+ * when the request completes, so a caller does not need to hold a thread waiting for the response; cancelling the future aborts the http request. Content is
+ * decoded (gzip/deflate) as specified by detectCompressionMethod(). The charset comes from the Content-Type header (detectCharset()) or, if the header does
+ * not specify one, from a &lt;meta&gt; charset declaration looked for while the first few KB of the content are streamed.
+ * </p>
+ * 
+ * @see utils.crawl.CrawlerUtils
+ */
+public class PooledFetcher implements Closeable {
+	
+	// a <meta charset> declaration is looked for in the first SNIFF_LENGTH bytes of the content
+	private static final int SNIFF_LENGTH = 4096;
+	private static final Pattern SNIFF_PATTERN = Pattern.compile( "(?i)<meta[^>]+charset\\s*=\\s*[\"']?\\s*([\\w\\-:.]+)" );
+	
+	protected final CloseableHttpClient client;
+	protected final PoolingHttpClientConnectionManager manager;
+	protected final ThreadPoolExecutor executor;
+	protected final Map<String, Host> hosts; // guarded by itself
+	protected final int max_per_host;
+	protected final int max_waiting;
+	protected final long max_bytes;
+	protected final long timeout;
+	
+	/**
+	 * Called once when a request started by fetch() completes, on the thread that ran the request (or on the thread cancelling it). Callbacks should not
+	 * block, because they hold a fetching thread.
+	 */
+	public interface Callback {
+		
+		public void completed( HttpContent content );
+		
+		public void failed( Exception e );
+		
+	}
+	
+	/**
+	 * The requests of a host (guarded by hosts): the number of requests holding a slot (queued for or running on a thread) and the requests waiting
+	 * for a slot. A host is evicted when it becomes idle.
+	 */
+	protected static class Host {
+		
+		protected final String key;
+		protected int running;
+		protected final ArrayDeque<FetchTask> waiting = new ArrayDeque<FetchTask>();
+		
+		protected Host( String key ) {
+			this.key = key;
+		}
+		
+	}
+	
+	/**
+	 * A fetch task that aborts its http request when it is cancelled, and hands its host's slot on and calls back when it is done.
+	 */
+	protected class FetchTask extends FutureTask<HttpContent> {
+		
+		protected final HttpGet get;
+		protected final Host host;
+		protected final Callback callback;
+		protected boolean slot; // guarded by hosts
+		
+		protected FetchTask( HttpGet get, Host host, Callable<HttpContent> callable, Callback callback ) {
+			super( callable );
+			this.get = get;
+			this.host = host;
+			this.callback = callback;
+		}
+		
+		public boolean cancel( boolean interrupt ) {
+			get.abort();
+			return super.cancel( interrupt );
+		}
+		
+		protected void fail( Exception e ) {
+			setException( e );
+		}
+		
+		protected void done() {
+			release( this );
+			if ( callback == null ) {
+				return;
+			}
+			HttpContent content = null;
+			try {
+				content = get();
+			} catch ( CancellationException e ) {
+				callback.failed( new IOException( "Cancelled fetching " + get.getURI() ) );
+				return;
+			} catch ( ExecutionException e ) {
+				callback.failed( e.getCause() instanceof Exception ? (Exception) e.getCause() : new IOException( "Failed fetching " + get.getURI(), e.getCause() ) );
+				return;
+			} catch ( InterruptedException e ) {
+				// the task is done, so get() does not wait
+				Thread.currentThread().interrupt();
+				callback.failed( e );
+				return;
+			}
+			callback.completed( content );
+		}
+		
+	}
+	
+	/**
+	 * @param max_total
+	 *            Maximum number of pooled connections.
+	 * @param max_per_host
+	 *            Maximum number of concurrent requests (and pooled connections) per host.
+	 * @param connect_timeout
+	 *            Timeout (in milliseconds) for connecting to a host.
+	 * @param read_timeout
+	 *            Timeout (in milliseconds) for waiting for data from a host.
+	 * @param max_bytes
+	 *            Maximum number of content bytes to download; longer contents are truncated.
+	 * @param timeout
+	 *            Overall deadline (in milliseconds) of a request, including connecting and downloading the content.
+	 * @param threads
+	 *            Number of threads running requests.
+	 */
+	public PooledFetcher( int max_total, int max_per_host, int connect_timeout, int read_timeout, long max_bytes, long timeout, int threads ) {
+		this.max_per_host = max_per_host;
+		this.max_waiting = threads * 16;
+		this.max_bytes = max_bytes;
+		this.timeout = timeout;
+		this.hosts = new HashMap<String, Host>();
+		this.manager = new PoolingHttpClientConnectionManager();
+		manager.setMaxTotal( max_total );
+		manager.setDefaultMaxPerRoute( max_per_host );
+		RequestConfig config = RequestConfig.custom().setConnectTimeout( connect_timeout ).setSocketTimeout( read_timeout ).setConnectionRequestTimeout( connect_timeout ).build();
+		// contents are decoded by the fetcher itself, such that the limit applies to the decoded bytes
+		this.client = HttpClients.custom().setConnectionManager( manager ).setDefaultRequestConfig( config ).disableContentCompression().build();
+		this.executor = new ThreadPoolExecutor( threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>( threads * 16 ), new DaemonThreadFactory( "fetcher" ) );
+		executor.allowCoreThreadTimeOut( true );
+	}
+	
+	/**
+	 * Start a (conditional) http get request in the background; see CrawlerUtils.getContent() for the parameters.
+	 * 
+	 * @param header
+	 * @param url
+	 * @param etag
+	 * @param last_modified
+	 * @return A future of the response; cancelling it aborts the request.
+	 * @throws URISyntaxException
+	 * @throws java.util.concurrent.RejectedExecutionException
+	 *             If too many requests are waiting (for the threads or for the host).
+	 */
+	public Future<HttpContent> fetch( HttpRequestHeaderInfo header, String url, String etag, String last_modified ) throws URISyntaxException {
+		return fetch( header, url, etag, last_modified, null );
+	}
+	
+	/**
+	 * Start a (conditional) http get request in the background and call back when it completes. A request that waited (for a thread or for its host)
+	 * until its deadline fails without being sent.
+	 * 
+	 * @param header
+	 * @param url
+	 * @param etag
+	 * @param last_modified
+	 * @param callback
+	 *            Called when the request completes, fails or is cancelled; null for none.
+	 * @return A future of the response; cancelling it aborts the request.
+	 * @throws URISyntaxException
+	 * @throws java.util.concurrent.RejectedExecutionException
+	 *             If too many requests are waiting for the threads or for the host (the callback is not called).
+	 */
+	public Future<HttpContent> fetch( HttpRequestHeaderInfo header, String url, String etag, String last_modified, Callback callback ) throws URISyntaxException {
+		final URI uri = new URI( url );
+		final HttpGet get = header.create( uri );
+		if ( etag != null ) {
+			get.addHeader( "If-None-Match", etag );
+		}
+		if ( last_modified != null ) {
+			get.addHeader( "If-Modified-Since", last_modified );
+		}
+		final long deadline = System.currentTimeMillis() + timeout;
+		String key = uri.getHost() == null ? "" : uri.getHost().toLowerCase();
+		FetchTask task = null;
+		synchronized ( hosts ) {
+			Host host = hosts.get( key );
+			if ( host == null ) {
+				host = new Host( key );
+				hosts.put( key, host );
+			}
+			task = new FetchTask( get, host, new Callable<HttpContent>() {
+				public HttpContent call() throws Exception {
+					if ( System.currentTimeMillis() >= deadline ) {
+						throw new IOException( "Timed out waiting to fetch " + uri );
+					}
+					return execute( get, deadline );
+				}
+			}, callback );
+			if ( host.running >= max_per_host ) {
+				if ( host.waiting.size() >= max_waiting ) {
+					throw new RejectedExecutionException( "Too many requests waiting for " + uri.getHost() );
+				}
+				// started by a request of the host finishing (see release())
+				host.waiting.add( task );
+				return task;
+			}
+			host.running++;
+			task.slot = true;
+		}
+		try {
+			executor.execute( task );
+		} catch ( RejectedExecutionException e ) {
+			synchronized ( hosts ) {
+				task.slot = false;
+				task.host.running--;
+				evictIdle( task.host );
+			}
+			throw e;
+		}
+		return task;
+	}
+	
+	/**
+	 * Send a (conditional) http get request and wait for the response until the deadline of the request.
+	 * 
+	 * @param header
+	 * @param url
+	 * @param etag
+	 * @param last_modified
+	 * @return The response content and headers.
+	 * @throws IOException
+	 *             If the request failed or timed out.
+	 * @throws URISyntaxException
+	 * @throws InterruptedException
+	 */
+	public HttpContent getContent( HttpRequestHeaderInfo header, String url, String etag, String last_modified ) throws IOException, URISyntaxException, InterruptedException {
+		Future<HttpContent> future = fetch( header, url, etag, last_modified );
+		try {
+			return future.get( timeout, TimeUnit.MILLISECONDS );
+		} catch ( TimeoutException e ) {
+			future.cancel( true );
+			throw new IOException( "Timed out fetching " + url );
+		} catch ( InterruptedException e ) {
+			future.cancel( true );
+			throw e;
+		} catch ( ExecutionException e ) {
+			if ( e.getCause() instanceof IOException ) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException( "Failed fetching " + url, e.getCause() );
+		}
+	}
+	
+	/**
+	 * Called once a task is done (or cancelled): its host's slot is handed to the next waiting request of the host, which is started on a thread, or a
+	 * cancelled waiting task leaves the queue.
+	 */
+	private void release( FetchTask task ) {
+		FetchTask next = null;
+		synchronized ( hosts ) {
+			if ( !task.slot ) {
+				task.host.waiting.remove( task );
+				evictIdle( task.host );
+				return;
+			}
+			task.slot = false;
+			// waiting tasks cancelled in the meanwhile are skipped
+			next = task.host.waiting.poll();
+			while ( next != null && next.isDone() ) {
+				next = task.host.waiting.poll();
+			}
+			if ( next != null ) {
+				next.slot = true;
+			} else {
+				task.host.running--;
+				evictIdle( task.host );
+			}
+		}
+		if ( next != null ) {
+			try {
+				executor.execute( next );
+			} catch ( RejectedExecutionException e ) {
+				// fails the task, whose done() hands the slot on again
+				next.fail( e );
+			}
+		}
+	}
+	
+	// guarded by hosts
+	private void evictIdle( Host host ) {
+		if ( host.running == 0 && host.waiting.isEmpty() && hosts.get( host.key ) == host ) {
+			hosts.remove( host.key );
+		}
+	}
+	
+	protected HttpContent execute( HttpGet get, long deadline ) throws IOException {
+		CloseableHttpResponse response = client.execute( get );
+		try {
+			HttpEntity en = response.getEntity();
+			String charset = CrawlerUtils.detectCharset( response );
+			if ( en == null ) {
+				return new HttpContent( response, null, charset, false );
+			}
+			InputStream input = en.getContent();
+			CrawlerUtils.PageCompression compression = CrawlerUtils.detectCompressionMethod( response );
+			if ( compression == CrawlerUtils.PageCompression.GZIP ) {
+				input = new GZIPInputStream( input );
+			} else if ( compression == CrawlerUtils.PageCompression.DEFLATE ) {
+				input = new InflaterInputStream( input );
+			}
+			ByteArrayOutputStream data = new ByteArrayOutputStream( 8192 );
+			boolean truncated = false;
+			boolean sniff = charset == null;
+			byte[] buffer = new byte[8192];
+			int len;
+			while ( ( len = input.read( buffer ) ) >= 0 ) {
+				if ( System.currentTimeMillis() > deadline ) {
+					// abort rather than read the rest of the content; the connection is closed instead of being reused
+					get.abort();
+					throw new IOException( "Timed out downloading " + get.getURI() );
+				}
+				int keep = (int) Math.min( len, max_bytes - data.size() );
+				data.write( buffer, 0, keep );
+				if ( sniff ) {
+					charset = sniffCharset( data );
+					sniff = charset == null && data.size() < SNIFF_LENGTH;
+				}
+				if ( keep < len || ( data.size() >= max_bytes && input.read() >= 0 ) ) {
+					truncated = true;
+					get.abort();
+					break;
+				}
+			}
+			if ( !truncated ) {
+				// the content is fully read, so the connection is released back to the pool
+				input.close();
+			}
+			return new HttpContent( response, data.toByteArray(), charset, truncated );
+		} finally {
+			response.close();
+		}
+	}
+	
+	/**
+	 * Look for a &lt;meta charset="..."&gt; or &lt;meta http-equiv="Content-Type" content="...; charset=..."&gt; declaration in the first bytes of a page.
+	 */
+	private static String sniffCharset( ByteArrayOutputStream data ) {
+		byte[] head = data.toByteArray();
+		String text = new String( head, 0, Math.min( head.length, SNIFF_LENGTH ), StandardCharsets.ISO_8859_1 );
+		return StringUtils.extractFirst( text, SNIFF_PATTERN, 1 );
+	}
+	
+	/**
+	 * @return Number of requests running or waiting (for a thread or for their host).
+	 */
+	public int getPending() {
+		int waiting = 0;
+		synchronized ( hosts ) {
+			for ( Host host : hosts.values() ) {
+				waiting += host.waiting.size();
+			}
+		}
+		return executor.getActiveCount() + executor.getQueue().size() + waiting;
+	}
+	
+	public void close() throws IOException {
+		// requests still waiting (for a thread or for their host) are cancelled, which calls them back
+		List<Future<?>> waiting = new ArrayList<Future<?>>();
+		synchronized ( hosts ) {
+			for ( Host host : hosts.values() ) {
+				waiting.addAll( host.waiting );
+				host.waiting.clear();
+			}
+		}
+		for ( Runnable task : executor.shutdownNow() ) {
+			waiting.add( (Future<?>) task );
+		}
+		for ( Future<?> task : waiting ) {
+			task.cancel( true );
+		}
+		client.close();
+	}
+	
+}
@@ -0,0 +1,276 @@
+package utils.ir.analysis;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+
+import utils.StringUtils;
+
+/**
+ * <p>
+ * TermCounter counts the frequencies of the tokens of a text and selects the top N terms, without creating a String or a boxed number for each token. Terms
+ * are copied from the token buffer into a shared char pool and counted in a primitive open-addressing hash table; the top N terms are selected with a
+ * bounded heap in O(n log N) time. Only the selected terms are turned into Strings.
+ * </p>
+ * <p>
+ * The ranking is the same as sorting a TreeMapSample by maximum likelihood probability with SortedUnigramModel: frequency decreasingly and, for equal
+ * frequencies, the term itself increasingly (by String.compareTo()).
+ * </p>
+ * <p>
+ * A counter is not synchronized, but it can be reused (see reset()), e.g., one counter per thread.
+ * </p>
+ */
+public class TermCounter {
+	
+	private static final int INITIAL_CAPACITY = 1024;
+	private static final int MAX_RETAINED_CHARS = 1 << 20;
+	
+	// terms are numbered in the order they are first seen; slots hold term id + 1 (0 is an empty slot)
+	protected int[] slots;
+	protected long[] hashes;
+	protected int[] offsets;
+	protected int[] lengths;
+	protected int[] counts;
+	protected char[] pool;
+	protected int size;
+	protected int pool_size;
+	protected long total;
+	
+	public TermCounter() {
+		allocate();
+	}
+	
+	private void allocate() {
+		this.slots = new int[INITIAL_CAPACITY * 2];
+		this.hashes = new long[INITIAL_CAPACITY];
+		this.offsets = new int[INITIAL_CAPACITY];
+		this.lengths = new int[INITIAL_CAPACITY];
+		this.counts = new int[INITIAL_CAPACITY];
+		this.pool = new char[INITIAL_CAPACITY * 8];
+	}
+	
+	/**
+	 * Clear all counts such that the counter can be reused. Buffers are kept unless they grew very large for a long text.
+	 */
+	public void reset() {
+		if ( pool.length > MAX_RETAINED_CHARS ) {
+			allocate();
+		} else {
+			Arrays.fill( slots, 0 );
+		}
+		this.size = 0;
+		this.pool_size = 0;
+		this.total = 0;
+	}
+	
+	/**
+	 * Count all tokens of the text produced by the analyzer.
+	 * 
+	 * @param text
+	 * @param analyzer
+	 * @throws IOException
+	 */
+	public void update( String text, Analyzer analyzer ) throws IOException {
+		TokenStream ts = analyzer.tokenStream( "", new StringReader( text ) );
+		CharTermAttribute attr = ts.getAttribute( CharTermAttribute.class );
+		try {
+			ts.reset();
+			while ( ts.incrementToken() ) {
+				update( attr.buffer(), 0, attr.length() );
+			}
+			ts.end();
+		} finally {
+			ts.close();
+		}
+	}
+	
+	/**
+	 * Count one occurrence of a term given as a slice of a char buffer.
+	 * 
+	 * @param buffer
+	 * @param offset
+	 * @param length
+	 */
+	public void update( char[] buffer, int offset, int length ) {
+		long hash = StringUtils.hash64( buffer, offset, length );
+		int mask = slots.length - 1;
+		int ix = slot( hash, mask );
+		while ( slots[ix] != 0 ) {
+			int id = slots[ix] - 1;
+			if ( hashes[id] == hash && equals( id, buffer, offset, length ) ) {
+				counts[id]++;
+				total++;
+				return;
+			}
+			ix = ( ix + 1 ) & mask;
+		}
+		if ( size == hashes.length ) {
+			grow();
+			update( buffer, offset, length );
+			return;
+		}
+		if ( pool_size + length > pool.length ) {
+			pool = Arrays.copyOf( pool, Math.max( pool.length * 2, pool_size + length ) );
+		}
+		System.arraycopy( buffer, offset, pool, pool_size, length );
+		hashes[size] = hash;
+		offsets[size] = pool_size;
+		lengths[size] = length;
+		counts[size] = 1;
+		pool_size += length;
+		slots[ix] = ++size;
+		total++;
+	}
+	
+	private static int slot( long hash, int mask ) {
+		return (int) ( hash ^ ( hash >>> 32 ) ) & mask;
+	}
+	
+	private boolean equals( int id, char[] buffer, int offset, int length ) {
+		if ( lengths[id] != length ) {
+			return false;
+		}
+		int bg = offsets[id];
+		for ( int ix = 0 ; ix < length ; ix++ ) {
+			if ( pool[bg + ix] != buffer[offset + ix] ) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private void grow() {
+		int capacity = hashes.length * 2;
+		hashes = Arrays.copyOf( hashes, capacity );
+		offsets = Arrays.copyOf( offsets, capacity );
+		lengths = Arrays.copyOf( lengths, capacity );
+		counts = Arrays.copyOf( counts, capacity );
+		// keep the load factor of the hash table at most 0.5
+		slots = new int[capacity * 2];
+		int mask = slots.length - 1;
+		for ( int id = 0 ; id < size ; id++ ) {
+			int ix = slot( hashes[id], mask );
+			while ( slots[ix] != 0 ) {
+				ix = ( ix + 1 ) & mask;
+			}
+			slots[ix] = id + 1;
+		}
+	}
+	
+	/**
+	 * @return Number of distinct terms.
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * @return Total number of counted tokens.
+	 */
+	public long length() {
+		return total;
+	}
+	
+	/**
+	 * Select the top N terms ranked by frequency (decreasingly; equal frequencies by terms increasingly).
+	 * 
+	 * @param n
+	 * @return Ids of the top terms in rank order (use getTerm() and getCount() to access them).
+	 */
+	public int[] top( int n ) {
+		int k = Math.max( 0, Math.min( n, size ) );
+		// a min-heap of the selected terms: heap[0] is the lowest ranked one
+		int[] heap = new int[k];
+		int heap_size = 0;
+		for ( int id = 0 ; id < size && k > 0 ; id++ ) {
+			if ( heap_size < k ) {
+				heap[heap_size] = id;
+				upHeap( heap, heap_size );
+				heap_size++;
+			} else if ( lowerRanked( heap[0], id ) ) {
+				heap[0] = id;
+				downHeap( heap, 0, heap_size );
+			}
+		}
+		// pop the heap into rank order: the lowest ranked term goes to the end
+		for ( int end = heap_size - 1 ; end > 0 ; end-- ) {
+			int id = heap[0];
+			heap[0] = heap[end];
+			downHeap( heap, 0, end );
+			heap[end] = id;
+		}
+		return heap;
+	}
+	
+	/**
+	 * Whether term id1 ranks lower than term id2.
+	 */
+	private boolean lowerRanked( int id1, int id2 ) {
+		if ( counts[id1] != counts[id2] ) {
+			return counts[id1] < counts[id2];
+		}
+		return compareTerms( id1, id2 ) > 0;
+	}
+	
+	/**
+	 * Compare two terms in the same way as String.compareTo().
+	 */
+	private int compareTerms( int id1, int id2 ) {
+		int bg1 = offsets[id1];
+		int bg2 = offsets[id2];
+		int lim = Math.min( lengths[id1], lengths[id2] );
+		for ( int ix = 0 ; ix < lim ; ix++ ) {
+			char c1 = pool[bg1 + ix];
+			char c2 = pool[bg2 + ix];
+			if ( c1 != c2 ) {
+				return c1 - c2;
+			}
+		}
+		return lengths[id1] - lengths[id2];
+	}
+	
+	private void upHeap( int[] heap, int ix ) {
+		int id = heap[ix];
+		while ( ix > 0 ) {
+			int parent = ( ix - 1 ) >>> 1;
+			if ( !lowerRanked( id, heap[parent] ) ) {
+				break;
+			}
+			heap[ix] = heap[parent];
+			ix = parent;
+		}
+		heap[ix] = id;
+	}
+	
+	private void downHeap( int[] heap, int ix, int size ) {
+		int id = heap[ix];
+		while ( true ) {
+			int child = 2 * ix + 1;
+			if ( child >= size ) {
+				break;
+			}
+			if ( child + 1 < size && lowerRanked( heap[child + 1], heap[child] ) ) {
+				child++;
+			}
+			if ( !lowerRanked( heap[child], id ) ) {
+				break;
+			}
+			heap[ix] = heap[child];
+			ix = child;
+		}
+		heap[ix] = id;
+	}
+	
+	public String getTerm( int id ) {
+		return new String( pool, offsets[id], lengths[id] );
+	}
+	
+	public int getCount( int id ) {
+		return counts[id];
+	}
+	
+}
@@ -0,0 +1,110 @@
+package utils.ir.lucene;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.HashMap;
+
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.util.BytesRef;
+
+import utils.StringUtils;
+import utils.type.LongDoubleHashMap;
+
+/**
+ * <p>
+ * CorpusStatistics holds the maximum likelihood collection language model of an index field, i.e., P(w|C) = ttf(w) / sum of ttf, for every term of the
+ * field. It gives the same probabilities as EstimatedModel.MLE( LuceneUtils.getCorpusSample( index, field ) ) but without any index access at query time.
+ * </p>
+ * <p>
+ * The statistics are loaded once per index reader (or, more precisely, per index generation, because a reopened reader has a new core-and-deletes key)
+ * and shared by all threads. They are dropped when the reader is closed. Terms are keyed by their 64-bit hash code (see StringUtils.hash64) in a
+ * primitive open-addressing map, so the vocabulary strings are not kept in memory.
+ * </p>
+ */
+public class CorpusStatistics {
+	
+	private static final Map<Object, Map<String, CorpusStatistics>> cache = new HashMap<Object, Map<String, CorpusStatistics>>();
+	
+	protected final String field;
+	protected final double length;
+	protected final LongDoubleHashMap probs;
+	
+	protected CorpusStatistics( IndexReader index, String field ) throws IOException {
+		this.field = field;
+		this.length = index.getSumTotalTermFreq( field );
+		Terms terms = MultiFields.getTerms( index, field );
+		this.probs = new LongDoubleHashMap( terms == null || terms.size() < 0 ? 16 : (int) Math.min( terms.size(), Integer.MAX_VALUE / 2 ) );
+		if ( terms != null && length > 0 ) {
+			TermsEnum iterator = terms.iterator( null );
+			BytesRef term = null;
+			while ( ( term = iterator.next() ) != null ) {
+				long ttf = iterator.totalTermFreq();
+				if ( ttf > 0 ) {
+					probs.put( StringUtils.hash64( term.utf8ToString() ), ttf / length );
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Get the collection statistics of an index field. Statistics are loaded at the first call for each index reader and field.
+	 * 
+	 * @param index
+	 * @param field
+	 * @return
+	 * @throws IOException
+	 */
+	public static CorpusStatistics get( IndexReader index, String field ) throws IOException {
+		final Object key = index.getCombinedCoreAndDeletesKey();
+		synchronized ( cache ) {
+			Map<String, CorpusStatistics> fields = cache.get( key );
+			if ( fields == null ) {
+				fields = new HashMap<String, CorpusStatistics>();
+				cache.put( key, fields );
+				index.addReaderClosedListener( new IndexReader.ReaderClosedListener() {
+					public void onClose( IndexReader reader ) {
+						synchronized ( cache ) {
+							cache.remove( key );
+						}
+					}
+				} );
+			}
+			CorpusStatistics stats = fields.get( field );
+			if ( stats == null ) {
+				stats = new CorpusStatistics( index, field );
+				fields.put( field, stats );
+			}
+			return stats;
+		}
+	}
+	
+	/**
+	 * @param term
+	 * @return P(term|C) or 0 if the term does not appear in the field.
+	 */
+	public double probability( String term ) {
+		return probs.get( StringUtils.hash64( term ), 0 );
+	}
+	
+	public String getField() {
+		return field;
+	}
+	
+	/**
+	 * @return Total number of tokens in the field.
+	 */
+	public double length() {
+		return length;
+	}
+	
+	/**
+	 * @return Number of distinct terms in the field.
+	 */
+	public int sizeVocabulary() {
+		return probs.size();
+	}
+	
+}
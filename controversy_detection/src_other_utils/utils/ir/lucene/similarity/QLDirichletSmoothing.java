@@ -8,9 +8,7 @@ import org.apache.lucene.search.Explanation;
 import org.apache.lucene.search.similarities.BasicStats;
 import org.apache.lucene.search.similarities.LMSimilarity;
 
-import utils.ir.lucene.LuceneUtils;
-import utils.ir.lm.unigram.UnigramModel;
-import utils.ir.lm.unigram.EstimatedModel;
+import utils.ir.lucene.CorpusStatistics;
 
 /**
  * Lucene similarity function for query likelihood language model with Dirichlet smoothing.
@@ -94,7 +92,8 @@ public class QLDirichletSmoothing extends LMSimilarity {
 	}
 	
 	/**
-	 * Computer a normalizer for the lucene score. Lucene score + normalizer score = standard QL score.
+	 * Computer a normalizer for the lucene score. Lucene score + normalizer score = standard QL score. The collection model is loaded once per index reader
+	 * (see CorpusStatistics), so repeated calls do not access the index.
 	 * 
 	 * @param score
 	 * @param index
@@ -105,7 +104,7 @@ public class QLDirichletSmoothing extends LMSimilarity {
 	 * @throws IOException
 	 */
 	public static double scoreNormalizer( IndexReader index, String field, String[] terms, double[] weights ) throws IOException {
-		UnigramModel corpus_model = EstimatedModel.MLE( LuceneUtils.getCorpusSample( index, field, false ) );
+		CorpusStatistics corpus_model = CorpusStatistics.get( index, field );
 		double sum = 0;
 		for ( int ix = 0 ; ix < terms.length ; ix++ ) {
 			String term = terms[ix];
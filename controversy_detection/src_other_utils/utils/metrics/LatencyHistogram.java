@@ -0,0 +1,141 @@
+package utils.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ * LatencyHistogram records latencies (in nanoseconds) into log-linear buckets: each power of two is split into 16 linear sub-buckets, so a recorded value
+ * is known within 1/16 (6.25%) of itself over the whole range from 1 ns to about an hour, with 624 buckets in total. Values below 32 are counted
+ * exactly; larger values are clamped to the range.
+ * </p>
+ * <p>
+ * Recording is lock-free (one atomic increment of a bucket, the count and the sum, and rarely a CAS on the maximum), so the histogram can be updated by
+ * all request threads without contention. Reading percentiles while values are being recorded gives a slightly inconsistent but still valid snapshot.
+ * </p>
+ */
+public class LatencyHistogram {
+	
+	private static final int SUB_BITS = 4;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	private static final int MAX_EXPONENT = 41;
+	
+	/**
+	 * The largest value that can be recorded (about 73 minutes in nanoseconds); larger values are recorded as this.
+	 */
+	public static final long MAX_VALUE = ( 1L << ( MAX_EXPONENT + 1 ) ) - 1;
+	
+	private static final int BUCKETS = index( MAX_VALUE ) + 1;
+	
+	protected final AtomicLongArray buckets = new AtomicLongArray( BUCKETS );
+	protected final AtomicLong count = new AtomicLong();
+	protected final AtomicLong sum = new AtomicLong();
+	protected final AtomicLong max = new AtomicLong();
+	
+	/**
+	 * @param value
+	 * @return Index of the bucket of a (non-negative, not clamped) value.
+	 */
+	static int index( long value ) {
+		if ( value < SUB_COUNT ) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros( value );
+		int sub = (int) ( value >>> ( exponent - SUB_BITS ) ) & ( SUB_COUNT - 1 );
+		return SUB_COUNT + ( exponent - SUB_BITS ) * SUB_COUNT + sub;
+	}
+	
+	/**
+	 * @param index
+	 * @return The smallest value of a bucket.
+	 */
+	static long lowerBound( int index ) {
+		if ( index < SUB_COUNT ) {
+			return index;
+		}
+		int exponent = ( index - SUB_COUNT ) / SUB_COUNT + SUB_BITS;
+		int sub = ( index - SUB_COUNT ) % SUB_COUNT;
+		return (long) ( SUB_COUNT + sub ) << ( exponent - SUB_BITS );
+	}
+	
+	/**
+	 * @param index
+	 * @return The largest value of a bucket.
+	 */
+	static long upperBound( int index ) {
+		return index + 1 < BUCKETS ? lowerBound( index + 1 ) - 1 : MAX_VALUE;
+	}
+	
+	/**
+	 * Record a latency.
+	 * 
+	 * @param nanos
+	 *            Latency in nanoseconds; negative values are recorded as 0.
+	 */
+	public void record( long nanos ) {
+		long value = Math.min( Math.max( nanos, 0 ), MAX_VALUE );
+		buckets.incrementAndGet( index( value ) );
+		count.incrementAndGet();
+		sum.addAndGet( value );
+		long current = max.get();
+		while ( value > current && !max.compareAndSet( current, value ) ) {
+			current = max.get();
+		}
+	}
+	
+	/**
+	 * Record the time elapsed since a System.nanoTime() timestamp.
+	 * 
+	 * @param start
+	 *            The System.nanoTime() when the measured operation started.
+	 */
+	public void recordSince( long start ) {
+		record( System.nanoTime() - start );
+	}
+	
+	public long getCount() {
+		return count.get();
+	}
+	
+	/**
+	 * @return Sum of recorded latencies in nanoseconds.
+	 */
+	public long getSum() {
+		return sum.get();
+	}
+	
+	/**
+	 * @return The largest recorded latency in nanoseconds.
+	 */
+	public long getMax() {
+		return max.get();
+	}
+	
+	/**
+	 * @param quantile
+	 *            A quantile between 0 and 1, e.g., 0.99.
+	 * @return A latency (in nanoseconds) that at least the quantile of recorded latencies do not exceed, within 1/16 of the exact value (0 if nothing
+	 *         has been recorded).
+	 */
+	public long getQuantile( double quantile ) {
+		long[] snapshot = new long[BUCKETS];
+		long total = 0;
+		for ( int ix = 0 ; ix < BUCKETS ; ix++ ) {
+			snapshot[ix] = buckets.get( ix );
+			total += snapshot[ix];
+		}
+		if ( total == 0 ) {
+			return 0;
+		}
+		long rank = Math.max( 1, (long) Math.ceil( quantile * total ) );
+		long seen = 0;
+		for ( int ix = 0 ; ix < BUCKETS ; ix++ ) {
+			seen += snapshot[ix];
+			if ( seen >= rank ) {
+				return Math.min( upperBound( ix ), max.get() );
+			}
+		}
+		return max.get();
+	}
+	
+}
@@ -0,0 +1,96 @@
+package utils.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * Metrics is a process-wide registry of named latency histograms and counters, which can be written in the Prometheus text exposition format. Metric
+ * names should follow the Prometheus conventions (e.g., knn_search_seconds, crawl_failures_total).
+ * </p>
+ * <p>
+ * Looking up a metric by name is a ConcurrentHashMap read; code on a hot path should keep the returned histogram or counter in a (static) field.
+ * </p>
+ */
+public class Metrics {
+	
+	/**
+	 * Quantiles written for each histogram.
+	 */
+	public static final double[] QUANTILES = new double[] { 0.5, 0.9, 0.99, 0.999 };
+	
+	private static final ConcurrentHashMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<String, LatencyHistogram>();
+	private static final ConcurrentHashMap<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+	
+	/**
+	 * @param name
+	 * @return The histogram of the name (created if it does not exist).
+	 */
+	public static LatencyHistogram histogram( String name ) {
+		LatencyHistogram histogram = histograms.get( name );
+		if ( histogram == null ) {
+			histograms.putIfAbsent( name, new LatencyHistogram() );
+			histogram = histograms.get( name );
+		}
+		return histogram;
+	}
+	
+	/**
+	 * @param name
+	 * @return The counter of the name (created if it does not exist).
+	 */
+	public static AtomicLong counter( String name ) {
+		AtomicLong counter = counters.get( name );
+		if ( counter == null ) {
+			counters.putIfAbsent( name, new AtomicLong() );
+			counter = counters.get( name );
+		}
+		return counter;
+	}
+	
+	/**
+	 * Write all histograms (as summaries in seconds: quantiles, sum and count) and counters in the Prometheus text format.
+	 * 
+	 * @param writer
+	 * @throws IOException
+	 */
+	public static void write( Writer writer ) throws IOException {
+		for ( Map.Entry<String, LatencyHistogram> entry : new TreeMap<String, LatencyHistogram>( histograms ).entrySet() ) {
+			String name = entry.getKey();
+			LatencyHistogram histogram = entry.getValue();
+			writer.write( "# TYPE " + name + " summary\n" );
+			for ( double quantile : QUANTILES ) {
+				writer.write( name + "{quantile=\"" + quantile + "\"} " + seconds( histogram.getQuantile( quantile ) ) + "\n" );
+			}
+			writer.write( name + "_sum " + seconds( histogram.getSum() ) + "\n" );
+			writer.write( name + "_count " + histogram.getCount() + "\n" );
+		}
+		for ( Map.Entry<String, AtomicLong> entry : new TreeMap<String, AtomicLong>( counters ).entrySet() ) {
+			write( writer, entry.getKey(), "counter", entry.getValue().get() );
+		}
+	}
+	
+	/**
+	 * Write a single value (e.g., a counter or gauge kept outside the registry) in the Prometheus text format.
+	 * 
+	 * @param writer
+	 * @param name
+	 * @param type
+	 *            counter or gauge
+	 * @param value
+	 * @throws IOException
+	 */
+	public static void write( Writer writer, String name, String type, long value ) throws IOException {
+		writer.write( "# TYPE " + name + " " + type + "\n" );
+		writer.write( name + " " + value + "\n" );
+	}
+	
+	private static String seconds( long nanos ) {
+		return Double.toString( nanos / 1e9 );
+	}
+	
+}
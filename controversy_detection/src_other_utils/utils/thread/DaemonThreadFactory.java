@@ -0,0 +1,25 @@
+package utils.thread;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A thread factory creating named daemon threads (name-1, name-2, ...) for thread pools that should not keep the JVM (or a servlet container) alive.
+ */
+public class DaemonThreadFactory implements ThreadFactory {
+	
+	protected final String name;
+	protected final AtomicInteger count;
+	
+	public DaemonThreadFactory( String name ) {
+		this.name = name;
+		this.count = new AtomicInteger();
+	}
+	
+	public Thread newThread( Runnable runnable ) {
+		Thread thread = new Thread( runnable, name + "-" + count.incrementAndGet() );
+		thread.setDaemon( true );
+		return thread;
+	}
+	
+}
@@ -0,0 +1,153 @@
+package utils.type;
+
+/**
+ * <p>
+ * An open-addressing hash map from primitive long keys to primitive double values (linear probing, no boxing, two flat arrays).
+ * </p>
+ * <p>
+ * The map is not synchronized. It is safe to share a map among threads for reading once it has been filled and safely published, e.g., assigned to a final
+ * field or stored in a concurrent collection.
+ * </p>
+ */
+public class LongDoubleHashMap {
+	
+	private static final double LOAD_FACTOR = 0.75;
+	private static final int MAX_CAPACITY = 1 << 30;
+	
+	protected long[] keys;
+	protected double[] values;
+	protected int size;
+	protected int mask;
+	
+	// key 0 marks an empty slot, so it is stored separately
+	protected boolean hasZeroKey;
+	protected double zeroValue;
+	
+	public LongDoubleHashMap() {
+		this( 16 );
+	}
+	
+	/**
+	 * @param expected
+	 *            Expected number of keys. The map will not need to grow until it holds more than this number of keys (or the maximum capacity,
+	 *            2^30 slots, is reached).
+	 */
+	public LongDoubleHashMap( int expected ) {
+		int capacity = 16;
+		while ( capacity * LOAD_FACTOR < expected && capacity < MAX_CAPACITY ) {
+			capacity <<= 1;
+		}
+		allocate( capacity );
+	}
+	
+	private void allocate( int capacity ) {
+		this.keys = new long[capacity];
+		this.values = new double[capacity];
+		this.mask = capacity - 1;
+	}
+	
+	private static int slot( long key, int mask ) {
+		// murmur3 finalizer; spreads keys that only differ in high bits
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		key *= 0xc4ceb9fe1a85ec53L;
+		key ^= key >>> 33;
+		return (int) key & mask;
+	}
+	
+	/**
+	 * @param key
+	 * @param value
+	 * @return The previous value associated with the key, or NaN if there was none.
+	 */
+	public double put( long key, double value ) {
+		if ( key == 0 ) {
+			double prev = hasZeroKey ? zeroValue : Double.NaN;
+			if ( !hasZeroKey ) {
+				hasZeroKey = true;
+				size++;
+			}
+			zeroValue = value;
+			return prev;
+		}
+		int ix = slot( key, mask );
+		while ( keys[ix] != 0 ) {
+			if ( keys[ix] == key ) {
+				double prev = values[ix];
+				values[ix] = value;
+				return prev;
+			}
+			ix = ( ix + 1 ) & mask;
+		}
+		if ( size >= mask ) {
+			// at the maximum capacity; at least one empty slot must be left to end probing
+			throw new IllegalStateException( "The map is full." );
+		}
+		keys[ix] = key;
+		values[ix] = value;
+		size++;
+		if ( size > ( mask + 1 ) * LOAD_FACTOR && mask + 1 < MAX_CAPACITY ) {
+			rehash();
+		}
+		return Double.NaN;
+	}
+	
+	/**
+	 * @param key
+	 * @param missing
+	 *            Value to be returned if the key is not in the map.
+	 * @return
+	 */
+	public double get( long key, double missing ) {
+		if ( key == 0 ) {
+			return hasZeroKey ? zeroValue : missing;
+		}
+		int ix = slot( key, mask );
+		long k;
+		while ( ( k = keys[ix] ) != 0 ) {
+			if ( k == key ) {
+				return values[ix];
+			}
+			ix = ( ix + 1 ) & mask;
+		}
+		return missing;
+	}
+	
+	public boolean containsKey( long key ) {
+		if ( key == 0 ) {
+			return hasZeroKey;
+		}
+		int ix = slot( key, mask );
+		long k;
+		while ( ( k = keys[ix] ) != 0 ) {
+			if ( k == key ) {
+				return true;
+			}
+			ix = ( ix + 1 ) & mask;
+		}
+		return false;
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	private void rehash() {
+		long[] oldkeys = keys;
+		double[] oldvalues = values;
+		allocate( oldkeys.length << 1 );
+		for ( int ix = 0 ; ix < oldkeys.length ; ix++ ) {
+			long key = oldkeys[ix];
+			if ( key != 0 ) {
+				int jx = slot( key, mask );
+				while ( keys[jx] != 0 ) {
+					jx = ( jx + 1 ) & mask;
+				}
+				keys[jx] = key;
+				values[jx] = oldvalues[ix];
+			}
+		}
+	}
+	
+}
@@ -0,0 +1,134 @@
+package utils.type;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * <p>
+ * SortedStringPool stores a sorted set of strings in one shared char array (plus an array of offsets), which takes much less memory than a String[] or a
+ * TreeMap for millions of short strings such as Wikipedia titles. Strings are located by binary search, so callers can keep values for the i-th string in
+ * plain parallel arrays.
+ * </p>
+ * <p>
+ * The pool is immutable and can be shared by threads.
+ * </p>
+ */
+public class SortedStringPool {
+	
+	protected final char[] pool;
+	protected final int[] offsets;
+	
+	/**
+	 * @param sorted
+	 *            Strings sorted by String.compareTo() without duplicates.
+	 */
+	public SortedStringPool( String[] sorted ) {
+		long length = 0;
+		for ( int ix = 0 ; ix < sorted.length ; ix++ ) {
+			if ( ix > 0 && sorted[ix - 1].compareTo( sorted[ix] ) >= 0 ) {
+				throw new IllegalArgumentException( "Strings are not sorted or have duplicates: " + sorted[ix - 1] + ", " + sorted[ix] );
+			}
+			length += sorted[ix].length();
+		}
+		if ( length > Integer.MAX_VALUE ) {
+			throw new IllegalArgumentException( "Too many chars for a string pool: " + length );
+		}
+		this.pool = new char[(int) length];
+		this.offsets = new int[sorted.length + 1];
+		int offset = 0;
+		for ( int ix = 0 ; ix < sorted.length ; ix++ ) {
+			String str = sorted[ix];
+			str.getChars( 0, str.length(), pool, offset );
+			offset += str.length();
+			offsets[ix + 1] = offset;
+		}
+	}
+	
+	/**
+	 * Sort (and remove duplicates from) an array of strings such that it can be used to create a pool. It returns for each string in the sorted array the
+	 * position of its first occurrence in the input array.
+	 * 
+	 * @param strs
+	 *            Will be sorted and have duplicates removed (in-place; the valid length is the length of the returned array).
+	 * @return
+	 */
+	public static int[] sortUnique( final String[] strs ) {
+		Integer[] order = new Integer[strs.length];
+		for ( int ix = 0 ; ix < order.length ; ix++ ) {
+			order[ix] = ix;
+		}
+		// stable sort, so the first occurrence of a string comes first
+		Arrays.sort( order, new Comparator<Integer>() {
+			public int compare( Integer i1, Integer i2 ) {
+				return strs[i1].compareTo( strs[i2] );
+			}
+		} );
+		String[] copy = strs.clone();
+		int[] positions = new int[strs.length];
+		int size = 0;
+		for ( int ix = 0 ; ix < order.length ; ix++ ) {
+			String str = copy[order[ix]];
+			if ( size == 0 || !strs[size - 1].equals( str ) ) {
+				strs[size] = str;
+				positions[size] = order[ix];
+				size++;
+			}
+		}
+		for ( int ix = size ; ix < strs.length ; ix++ ) {
+			strs[ix] = null;
+		}
+		return Arrays.copyOf( positions, size );
+	}
+	
+	public int size() {
+		return offsets.length - 1;
+	}
+	
+	/**
+	 * @param index
+	 * @return The index-th string in the pool.
+	 */
+	public String get( int index ) {
+		return new String( pool, offsets[index], offsets[index + 1] - offsets[index] );
+	}
+	
+	/**
+	 * @param str
+	 * @return Position of the string in the pool, or -1 if it is not in the pool.
+	 */
+	public int find( CharSequence str ) {
+		int lo = 0;
+		int hi = size() - 1;
+		while ( lo <= hi ) {
+			int mid = ( lo + hi ) >>> 1;
+			int cmp = compare( mid, str );
+			if ( cmp < 0 ) {
+				lo = mid + 1;
+			} else if ( cmp > 0 ) {
+				hi = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Compare the index-th string in the pool with str in the same way as String.compareTo().
+	 */
+	private int compare( int index, CharSequence str ) {
+		int bg = offsets[index];
+		int len1 = offsets[index + 1] - bg;
+		int len2 = str.length();
+		int lim = Math.min( len1, len2 );
+		for ( int ix = 0 ; ix < lim ; ix++ ) {
+			char c1 = pool[bg + ix];
+			char c2 = str.charAt( ix );
+			if ( c1 != c2 ) {
+				return c1 - c2;
+			}
+		}
+		return len1 - len2;
+	}
+	
+}
@@ -13,6 +13,20 @@ public class ControversyScorerSettings {
 	
 	public static int default_topwords;
 	public static int default_topentries;
+	public static long cache_size_mb = 64; // size of the /detect result cache; 0 disables the cache
+	public static long cache_ttl_seconds = 3600;
+	public static boolean fused = true; // compute the aggregation inside the Lucene search (see FusedKNNScorer); debug requests always use the staged pipeline
+	public static int detect_threads = 32; // threads running the blocking stages (crawling, database) of /detect requests (see Detection)
+	public static int score_threads = 0; // threads scoring /detect requests; 0 means one per available processor
+	public static long detect_timeout_ms = 30000; // timeout of crawling and scoring a /detect request
+	public static long rating_timeout_ms = 3000; // timeout of looking up previous ratings
+	public static int batch_max_items = 100; // maximum number of items of a /detect_batch request
+	public static int batch_parallelism = 8; // maximum number of items of a /detect_batch request scored at the same time
+	public static long batch_timeout_ms = 120000; // timeout of a /detect_batch request
+	public static boolean reload_watch = true; // reload the scorer engine when the indexes or their config files change (see IndexWatcher)
+	public static long reload_quiet_seconds = 30; // time without changes to the watched files before reloading
+	public static int reload_warmup_queries = 100; // queries run on a reloaded engine before it serves requests
+	public static String reload_token = ""; // token of the /reload endpoint; without a token, only local requests can reload
 	
 	static {
 		try {
@@ -27,9 +41,78 @@ public class ControversyScorerSettings {
 			default_topwords = Integer.parseInt( props.getProperty( "default_topwords" ).trim() );
 			default_topentries = Integer.parseInt( props.getProperty( "default_topentries" ).trim() );
 			
+			if ( props.getProperty( "cache_size_mb" ) != null ) {
+				cache_size_mb = Long.parseLong( props.getProperty( "cache_size_mb" ).trim() );
+			}
+			
+			if ( props.getProperty( "cache_ttl_seconds" ) != null ) {
+				cache_ttl_seconds = Long.parseLong( props.getProperty( "cache_ttl_seconds" ).trim() );
+			}
+			
+			if ( props.getProperty( "fused" ) != null ) {
+				fused = Boolean.parseBoolean( props.getProperty( "fused" ).trim() );
+			}
+			
+			if ( props.getProperty( "detect_threads" ) != null ) {
+				detect_threads = Integer.parseInt( props.getProperty( "detect_threads" ).trim() );
+			}
+			
+			if ( props.getProperty( "score_threads" ) != null ) {
+				score_threads = Integer.parseInt( props.getProperty( "score_threads" ).trim() );
+			}
+			
+			if ( props.getProperty( "detect_timeout_ms" ) != null ) {
+				detect_timeout_ms = Long.parseLong( props.getProperty( "detect_timeout_ms" ).trim() );
+			}
+			
+			if ( props.getProperty( "rating_timeout_ms" ) != null ) {
+				rating_timeout_ms = Long.parseLong( props.getProperty( "rating_timeout_ms" ).trim() );
+			}
+			
+			if ( props.getProperty( "batch_max_items" ) != null ) {
+				batch_max_items = Integer.parseInt( props.getProperty( "batch_max_items" ).trim() );
+			}
+			
+			if ( props.getProperty( "batch_parallelism" ) != null ) {
+				batch_parallelism = Integer.parseInt( props.getProperty( "batch_parallelism" ).trim() );
+			}
+			
+			if ( props.getProperty( "batch_timeout_ms" ) != null ) {
+				batch_timeout_ms = Long.parseLong( props.getProperty( "batch_timeout_ms" ).trim() );
+			}
+			
+			if ( props.getProperty( "reload_watch" ) != null ) {
+				reload_watch = Boolean.parseBoolean( props.getProperty( "reload_watch" ).trim() );
+			}
+			
+			if ( props.getProperty( "reload_quiet_seconds" ) != null ) {
+				reload_quiet_seconds = Long.parseLong( props.getProperty( "reload_quiet_seconds" ).trim() );
+			}
+			
+			if ( props.getProperty( "reload_warmup_queries" ) != null ) {
+				reload_warmup_queries = Integer.parseInt( props.getProperty( "reload_warmup_queries" ).trim() );
+			}
+			
+			if ( props.getProperty( "reload_token" ) != null ) {
+				reload_token = props.getProperty( "reload_token" ).trim();
+			}
+			
 			System.out.println( " >> load controversy scorer settings from " + file.getAbsolutePath() );
 			System.out.println( "   --> default_topwords = " + default_topwords );
 			System.out.println( "   --> default_topentries = " + default_topentries );
+			System.out.println( "   --> cache_size_mb = " + cache_size_mb );
+			System.out.println( "   --> cache_ttl_seconds = " + cache_ttl_seconds );
+			System.out.println( "   --> fused = " + fused );
+			System.out.println( "   --> detect_threads = " + detect_threads );
+			System.out.println( "   --> score_threads = " + score_threads );
+			System.out.println( "   --> detect_timeout_ms = " + detect_timeout_ms );
+			System.out.println( "   --> rating_timeout_ms = " + rating_timeout_ms );
+			System.out.println( "   --> batch_max_items = " + batch_max_items );
+			System.out.println( "   --> batch_parallelism = " + batch_parallelism );
+			System.out.println( "   --> batch_timeout_ms = " + batch_timeout_ms );
+			System.out.println( "   --> reload_watch = " + reload_watch );
+			System.out.println( "   --> reload_quiet_seconds = " + reload_quiet_seconds );
+			System.out.println( "   --> reload_warmup_queries = " + reload_warmup_queries );
 			
 		} catch ( Exception e ) {
 			e.printStackTrace();
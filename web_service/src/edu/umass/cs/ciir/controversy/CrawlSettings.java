@@ -0,0 +1,99 @@
+package edu.umass.cs.ciir.controversy;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.FileInputStream;
+
+import java.net.URI;
+import java.util.Properties;
+
+public class CrawlSettings {
+	
+	public static final String path_config = "../../config_crawl";
+	
+	public static long page_cache_mb = 32; // size of the in-memory cache of crawled pages (plain text); 0 disables it
+	public static String page_cache_dir = ""; // directory of the on-disk cache of crawled pages; empty disables it
+	public static long page_cache_disk_mb = 512;
+	public static long page_fresh_seconds = 600; // how long a page is served without revalidation if the server does not say so
+	
+	public static int fetch_max_total = 64; // maximum number of pooled (keep-alive) connections of the fetcher
+	public static int fetch_max_per_host = 4; // maximum number of concurrent requests per host
+	public static int fetch_connect_timeout_ms = 5000;
+	public static int fetch_read_timeout_ms = 10000;
+	public static long fetch_max_kb = 2048; // longer pages are truncated
+	public static long fetch_timeout_ms = 20000; // overall deadline of crawling a page
+	public static int fetch_threads = 32;
+	
+	static {
+		try {
+			
+			URI uri = new CrawlSettings().getClass().getResource( "/" ).toURI().resolve( path_config );
+			File file = new File( uri.getPath() );
+			Properties props = new Properties();
+			InputStream instream = new FileInputStream( file );
+			props.load( instream );
+			instream.close();
+			
+			if ( props.getProperty( "page_cache_mb" ) != null ) {
+				page_cache_mb = Long.parseLong( props.getProperty( "page_cache_mb" ).trim() );
+			}
+			
+			if ( props.getProperty( "page_cache_dir" ) != null ) {
+				page_cache_dir = props.getProperty( "page_cache_dir" ).trim();
+			}
+			
+			if ( props.getProperty( "page_cache_disk_mb" ) != null ) {
+				page_cache_disk_mb = Long.parseLong( props.getProperty( "page_cache_disk_mb" ).trim() );
+			}
+			
+			if ( props.getProperty( "page_fresh_seconds" ) != null ) {
+				page_fresh_seconds = Long.parseLong( props.getProperty( "page_fresh_seconds" ).trim() );
+			}
+			
+			if ( props.getProperty( "fetch_max_total" ) != null ) {
+				fetch_max_total = Integer.parseInt( props.getProperty( "fetch_max_total" ).trim() );
+			}
+			
+			if ( props.getProperty( "fetch_max_per_host" ) != null ) {
+				fetch_max_per_host = Integer.parseInt( props.getProperty( "fetch_max_per_host" ).trim() );
+			}
+			
+			if ( props.getProperty( "fetch_connect_timeout_ms" ) != null ) {
+				fetch_connect_timeout_ms = Integer.parseInt( props.getProperty( "fetch_connect_timeout_ms" ).trim() );
+			}
+			
+			if ( props.getProperty( "fetch_read_timeout_ms" ) != null ) {
+				fetch_read_timeout_ms = Integer.parseInt( props.getProperty( "fetch_read_timeout_ms" ).trim() );
+			}
+			
+			if ( props.getProperty( "fetch_max_kb" ) != null ) {
+				fetch_max_kb = Long.parseLong( props.getProperty( "fetch_max_kb" ).trim() );
+			}
+			
+			if ( props.getProperty( "fetch_timeout_ms" ) != null ) {
+				fetch_timeout_ms = Long.parseLong( props.getProperty( "fetch_timeout_ms" ).trim() );
+			}
+			
+			if ( props.getProperty( "fetch_threads" ) != null ) {
+				fetch_threads = Integer.parseInt( props.getProperty( "fetch_threads" ).trim() );
+			}
+			
+			System.out.println( " >> load crawl settings from " + file.getAbsolutePath() );
+			System.out.println( "   --> page_cache_mb = " + page_cache_mb );
+			System.out.println( "   --> page_cache_dir = " + page_cache_dir );
+			System.out.println( "   --> page_cache_disk_mb = " + page_cache_disk_mb );
+			System.out.println( "   --> page_fresh_seconds = " + page_fresh_seconds );
+			System.out.println( "   --> fetch_max_total = " + fetch_max_total );
+			System.out.println( "   --> fetch_max_per_host = " + fetch_max_per_host );
+			System.out.println( "   --> fetch_connect_timeout_ms = " + fetch_connect_timeout_ms );
+			System.out.println( "   --> fetch_read_timeout_ms = " + fetch_read_timeout_ms );
+			System.out.println( "   --> fetch_max_kb = " + fetch_max_kb );
+			System.out.println( "   --> fetch_timeout_ms = " + fetch_timeout_ms );
+			System.out.println( "   --> fetch_threads = " + fetch_threads );
+			
+		} catch ( Exception e ) {
+			e.printStackTrace();
+		}
+	}
+	
+}
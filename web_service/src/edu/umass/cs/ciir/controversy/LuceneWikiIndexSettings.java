@@ -15,10 +15,13 @@ public class LuceneWikiIndexSettings {
 	
 	public static final String path_config = "../../config_lucene_wiki_index";
 	
+	public static File file_config;
+	
 	public static String path_index;
 	public static String field_key; // this is the field storing case-insensitive and normalized Wikipedia titles
 	public static String field_title; // this is the field storing original Wikipedia titles: use this field to generate URL to Wikipedia entries
 	public static String field_text;
+	public static String field_score = "score"; // the float DocValues field storing entries' controversy scores (only used by storage = docvalues)
 	public static double smoothing_dir_mu = 1000;
 	
 	public static String tokenization = "alpha";
@@ -31,55 +34,71 @@ public class LuceneWikiIndexSettings {
 	
 	static {
 		try {
-			
-			URI uri = new LuceneWikiIndexSettings().getClass().getResource( "/" ).toURI().resolve( path_config );
-			File file = new File( uri.getPath() );
-			Properties props = new Properties();
-			InputStream instream = new FileInputStream( file );
-			props.load( instream );
-			instream.close();
-			
-			path_index = props.getProperty( "path_index" ).trim();
-			field_key = props.getProperty( "field_key" ).trim();
-			field_title = props.getProperty( "field_title" ).trim();
-			field_text = props.getProperty( "field_text" ).trim();
-			
-			if ( props.getProperty( "smoothing_dir_mu" ) != null ) {
-				smoothing_dir_mu = Double.parseDouble( props.getProperty( "smoothing_dir_mu" ).trim() );
-			}
-			
-			if ( props.getProperty( "tokenization" ) != null ) {
-				tokenization = props.getProperty( "tokenization" ).trim();
-			}
-			
-			if ( props.getProperty( "casing" ) != null ) {
-				casing = props.getProperty( "casing" ).trim();
-			}
-			
-			if ( props.getProperty( "stopwords" ) != null ) {
-				stopwords = props.getProperty( "stopwords" ).trim();
-			}
-			
-			if ( props.getProperty( "stemming" ) != null ) {
-				stemming = props.getProperty( "stemming" ).trim();
-			}
-			
-			analyzer = TextAnalyzer.get( tokenization, casing, stopwords, stemming, oov );
-			
-			System.out.println( " >> load lucene wiki index settings from " + file.getAbsolutePath() );
-			System.out.println( "   --> path_index = " + path_index );
-			System.out.println( "   --> field_key = " + field_key );
-			System.out.println( "   --> field_title = " + field_title );
-			System.out.println( "   --> field_text = " + field_text );
-			System.out.println( "   --> smoothing_dir_mu = " + smoothing_dir_mu );
-			System.out.println( "   --> tokenization = " + tokenization );
-			System.out.println( "   --> casing = " + casing );
-			System.out.println( "   --> stopwords = " + stopwords );
-			System.out.println( "   --> stemming = " + stemming );
-			
+			load();
 		} catch ( Exception e ) {
 			e.printStackTrace();
 		}
 	}
 	
+	/**
+	 * (Re)load the settings from the config file. The web service reloads them to open rebuilt indexes or indexes at new paths (see
+	 * ScorerEngine.reload()); engines already opened keep what they read.
+	 * 
+	 * @throws Exception
+	 */
+	public static synchronized void load() throws Exception {
+		
+		URI uri = new LuceneWikiIndexSettings().getClass().getResource( "/" ).toURI().resolve( path_config );
+		File file = new File( uri.getPath() );
+		file_config = file;
+		Properties props = new Properties();
+		InputStream instream = new FileInputStream( file );
+		props.load( instream );
+		instream.close();
+		
+		path_index = props.getProperty( "path_index" ).trim();
+		field_key = props.getProperty( "field_key" ).trim();
+		field_title = props.getProperty( "field_title" ).trim();
+		field_text = props.getProperty( "field_text" ).trim();
+		
+		if ( props.getProperty( "field_score" ) != null ) {
+			field_score = props.getProperty( "field_score" ).trim();
+		}
+		
+		if ( props.getProperty( "smoothing_dir_mu" ) != null ) {
+			smoothing_dir_mu = Double.parseDouble( props.getProperty( "smoothing_dir_mu" ).trim() );
+		}
+		
+		if ( props.getProperty( "tokenization" ) != null ) {
+			tokenization = props.getProperty( "tokenization" ).trim();
+		}
+		
+		if ( props.getProperty( "casing" ) != null ) {
+			casing = props.getProperty( "casing" ).trim();
+		}
+		
+		if ( props.getProperty( "stopwords" ) != null ) {
+			stopwords = props.getProperty( "stopwords" ).trim();
+		}
+		
+		if ( props.getProperty( "stemming" ) != null ) {
+			stemming = props.getProperty( "stemming" ).trim();
+		}
+		
+		analyzer = TextAnalyzer.get( tokenization, casing, stopwords, stemming, oov );
+		
+		System.out.println( " >> load lucene wiki index settings from " + file.getAbsolutePath() );
+		System.out.println( "   --> path_index = " + path_index );
+		System.out.println( "   --> field_key = " + field_key );
+		System.out.println( "   --> field_title = " + field_title );
+		System.out.println( "   --> field_text = " + field_text );
+		System.out.println( "   --> field_score = " + field_score );
+		System.out.println( "   --> smoothing_dir_mu = " + smoothing_dir_mu );
+		System.out.println( "   --> tokenization = " + tokenization );
+		System.out.println( "   --> casing = " + casing );
+		System.out.println( "   --> stopwords = " + stopwords );
+		System.out.println( "   --> stemming = " + stemming );
+		
+	}
+	
 }
@@ -10,32 +10,54 @@ public class LuceneWikiScoreSettings {
 	
 	public static final String path_config = "../../config_lucene_wiki_score";
 	
+	public static File file_config;
+	
 	public static String path_index;
 	public static String field_key;
 	public static String field_score;
 	
+	// lucene: look up each entry in the score index; memory: load the whole table into memory at startup;
+	// mapped: map the binary score file written by BuildIndexControversyScore (path_index is the file);
+	// docvalues: read the score column of the wiki index (see LuceneWikiIndexSettings.field_score) by docid
+	public static String storage = "memory";
+	
 	static {
 		try {
-			
-			URI uri = new LuceneWikiScoreSettings().getClass().getResource( "/" ).toURI().resolve( path_config );
-			File file = new File( uri.getPath() );
-			Properties props = new Properties();
-			InputStream instream = new FileInputStream( file );
-			props.load( instream );
-			instream.close();
-			
-			path_index = props.getProperty( "path_index" ).trim();
-			field_key = props.getProperty( "field_key" ).trim();
-			field_score = props.getProperty( "field_score" ).trim();
-			
-			System.out.println( " >> load lucene wiki controversy score settings from " + file.getAbsolutePath() );
-			System.out.println( "   --> path_index = " + path_index );
-			System.out.println( "   --> field_key = " + field_key );
-			System.out.println( "   --> field_score = " + field_score );
-			
+			load();
 		} catch ( Exception e ) {
 			e.printStackTrace();
 		}
 	}
 	
+	/**
+	 * (Re)load the settings from the config file (see LuceneWikiIndexSettings.load()).
+	 * 
+	 * @throws Exception
+	 */
+	public static synchronized void load() throws Exception {
+		
+		URI uri = new LuceneWikiScoreSettings().getClass().getResource( "/" ).toURI().resolve( path_config );
+		File file = new File( uri.getPath() );
+		file_config = file;
+		Properties props = new Properties();
+		InputStream instream = new FileInputStream( file );
+		props.load( instream );
+		instream.close();
+		
+		path_index = props.getProperty( "path_index" ).trim();
+		field_key = props.getProperty( "field_key" ).trim();
+		field_score = props.getProperty( "field_score" ).trim();
+		
+		if ( props.getProperty( "storage" ) != null ) {
+			storage = props.getProperty( "storage" ).trim();
+		}
+		
+		System.out.println( " >> load lucene wiki controversy score settings from " + file.getAbsolutePath() );
+		System.out.println( "   --> path_index = " + path_index );
+		System.out.println( "   --> field_key = " + field_key );
+		System.out.println( "   --> field_score = " + field_score );
+		System.out.println( "   --> storage = " + storage );
+		
+	}
+	
 }
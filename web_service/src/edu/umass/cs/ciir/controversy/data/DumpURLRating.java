@@ -1,14 +1,15 @@
 package edu.umass.cs.ciir.controversy.data;
 
+import java.io.Writer;
 import java.io.IOException;
 import java.io.BufferedReader;
 import java.sql.SQLException;
 
 import java.util.Map;
-import java.util.List;
 import java.util.TreeMap;
 
 import utils.IOUtils;
+import edu.umass.cs.ciir.controversy.database.dao.RowHandler;
 import edu.umass.cs.ciir.controversy.database.dao.URLRatingDAO;
 
 public class DumpURLRating {
@@ -16,22 +17,45 @@ public class DumpURLRating {
 	public static void main( String[] args ) {
 		try {
 			
-			String data = combineData( true, true, true );
-			System.out.println( data );
+			Writer writer = IOUtils.getBufferedWriter( System.out );
+			dump( writer, true, true, true, null, null );
+			writer.flush();
 			
 		} catch ( Exception e ) {
 			e.printStackTrace();
 		}
 	}
 	
-	public static String combineData( boolean use_shiri, boolean use_myungha, boolean use_database ) throws IOException, SQLException {
-		String header = "source\tuser\ttime\turl\tselected text\trating\n";
-		return header + ( use_shiri ? generateDataShiri() : "" ) + ( use_myungha ? generateDataMyungha() : "" ) + ( use_database ? generateDataDatabase() : "" );
+	/**
+	 * Write the combined data row by row.
+	 * 
+	 * @param writer
+	 * @param use_shiri
+	 * @param use_myungha
+	 * @param use_database
+	 * @param after
+	 *            Cursor of a page of the database ratings (see URLRatingDAO.nextDumpCursor()), or null for the first page; the other sources are only
+	 *            written with the first page.
+	 * @param until
+	 *            Cursor of the next page (see URLRatingDAO.nextDumpCursor()), up to which the database ratings are written; null for all.
+	 * @throws IOException
+	 * @throws SQLException
+	 */
+	public static void dump( Writer writer, boolean use_shiri, boolean use_myungha, boolean use_database, String after, String until ) throws IOException, SQLException {
+		boolean first = after == null || after.length() == 0;
+		writer.write( "source\tuser\ttime\turl\tselected text\trating\n" );
+		if ( use_shiri && first ) {
+			writeDataShiri( writer );
+		}
+		if ( use_myungha && first ) {
+			writeDataMyungha( writer );
+		}
+		if ( use_database ) {
+			writeDataDatabase( writer, after, until );
+		}
 	}
 	
-	public static String generateDataShiri() throws IOException {
-		
-		StringBuilder sb = new StringBuilder();
+	public static void writeDataShiri( Writer writer ) throws IOException {
 		
 		for ( String path : new String[] { "shiri/judgments-topics-fullTask-2013-05-16.txt", "shiri/judgments-topics-lightTask-2013-05-16.txt" } ) {
 			BufferedReader reader = IOUtils.getBufferedReader( new DumpURLRating().getClass().getResourceAsStream( path ) );
@@ -39,7 +63,7 @@ public class DumpURLRating {
 			while ( line != null ) {
 				String[] splits = line.split( "\t" );
 				String url = "http://en.wikipedia.org/wiki/" + splits[0].replaceAll( "\\s+", "_" );
-				sb.append( "shiri\tunknown user\tunknown time\t" + url + "\t\t" + splits[1] + "\n" );
+				writer.write( "shiri\tunknown user\tunknown time\t" + url + "\t\t" + splits[1] + "\n" );
 				line = reader.readLine();
 			}
 			reader.close();
@@ -64,7 +88,7 @@ public class DumpURLRating {
 				String[] splits = line.split( "\t" );
 				String url = id_url.get( splits[0] );
 				if ( url != null ) {
-					sb.append( "shiri\tunknown user\tunknown time\t" + url + "\t\t" + splits[1] + "\n" );
+					writer.write( "shiri\tunknown user\tunknown time\t" + url + "\t\t" + splits[1] + "\n" );
 				} else {
 					System.out.println( splits[0] );
 				}
@@ -73,20 +97,17 @@ public class DumpURLRating {
 			reader.close();
 		}
 		
-		return sb.toString();
 	}
 	
-	public static String generateDataMyungha() {
-		return "";
+	public static void writeDataMyungha( Writer writer ) {
 	}
 	
-	public static String generateDataDatabase() throws SQLException {
-		StringBuilder sb = new StringBuilder();
-		List<Object[]> ratings = URLRatingDAO.dumpLastestRatings();
-		for ( Object[] rating : ratings ) {
-			sb.append( "database\t" + rating[0] + "\t" + rating[1] + "\t" + rating[2] + "\t" + ( (String) rating[4] ).replaceAll( "\\s+", " " ).trim() + "\t" + rating[3] + "\n" );
-		}
-		return sb.toString();
+	public static void writeDataDatabase( final Writer writer, String after, String until ) throws SQLException, IOException {
+		URLRatingDAO.dumpLatestRatings( after, until, new RowHandler<Object[]>() {
+			public void handle( Object[] rating ) throws IOException {
+				writer.write( "database\t" + rating[0] + "\t" + rating[1] + "\t" + rating[2] + "\t" + ( (String) rating[4] ).replaceAll( "\\s+", " " ).trim() + "\t" + rating[3] + "\n" );
+			}
+		} );
 	}
 	
 }
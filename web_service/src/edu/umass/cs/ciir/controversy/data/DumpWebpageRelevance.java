@@ -1,38 +1,77 @@
 package edu.umass.cs.ciir.controversy.data;
 
+import java.io.File;
+import java.io.Writer;
 import java.io.IOException;
 import java.io.BufferedReader;
 import java.sql.SQLException;
-import java.util.List;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
 
 import utils.IOUtils;
+import edu.umass.cs.ciir.controversy.LuceneWikiIndexSettings;
+import edu.umass.cs.ciir.controversy.database.dao.RowHandler;
 import edu.umass.cs.ciir.controversy.database.dao.WikiEntryRatingDAO;
+import edu.umass.cs.ciir.controversy.knn.sim.WikiEntryDictionary;
 
 public class DumpWebpageRelevance {
 	
 	public static void main( String[] args ) {
 		try {
 			
-			String data = combineData( true, true, true );
-			System.out.println( data );
+			Directory dir = FSDirectory.open( new File( LuceneWikiIndexSettings.path_index ) );
+			IndexReader index = DirectoryReader.open( dir );
+			WikiEntryDictionary dictionary = new WikiEntryDictionary( index, LuceneWikiIndexSettings.field_key, LuceneWikiIndexSettings.field_title );
+			index.close();
+			dir.close();
+			
+			Writer writer = IOUtils.getBufferedWriter( System.out );
+			dump( writer, true, true, true, null, null, dictionary );
+			writer.flush();
 			
 		} catch ( Exception e ) {
 			e.printStackTrace();
 		}
 	}
 	
-	public static String combineData( boolean use_shiri, boolean use_myungha, boolean use_database ) throws IOException, SQLException {
-		String header = "source\tuser\ttime\twiki entry\turl\tselected text\trating\n";
-		return header + ( use_shiri ? generateDataShiri() : "" ) + ( use_myungha ? generateDataMyungha() : "" ) + ( use_database ? generateDataDatabase() : "" );
+	/**
+	 * Write the combined data row by row.
+	 * 
+	 * @param writer
+	 * @param use_shiri
+	 * @param use_myungha
+	 * @param use_database
+	 * @param after
+	 *            Cursor of a page of the database ratings (see WikiEntryRatingDAO.nextDumpCursor()), or null for the first page; the other sources are
+	 *            only written with the first page.
+	 * @param until
+	 *            Cursor of the next page (see WikiEntryRatingDAO.nextDumpCursor()), up to which the database ratings are written; null for all.
+	 * @param dictionary
+	 *            Maps the entry keys of database ratings to titles.
+	 * @throws IOException
+	 * @throws SQLException
+	 */
+	public static void dump( Writer writer, boolean use_shiri, boolean use_myungha, boolean use_database, String after, String until, WikiEntryDictionary dictionary ) throws IOException, SQLException {
+		boolean first = after == null || after.length() == 0;
+		writer.write( "source\tuser\ttime\twiki entry\turl\tselected text\trating\n" );
+		if ( use_shiri && first ) {
+			writeDataShiri( writer );
+		}
+		if ( use_myungha && first ) {
+			writeDataMyungha( writer );
+		}
+		if ( use_database ) {
+			writeDataDatabase( writer, after, until, dictionary );
+		}
 	}
 	
-	public static String generateDataShiri() throws IOException {
-		return "";
+	public static void writeDataShiri( Writer writer ) throws IOException {
 	}
 	
-	public static String generateDataMyungha() throws IOException {
-		
-		StringBuilder sb = new StringBuilder();
+	public static void writeDataMyungha( Writer writer ) throws IOException {
 		
 		BufferedReader reader = IOUtils.getBufferedReader( new DumpWebpageRelevance().getClass().getResourceAsStream( "myungha/wikipedia_relevance_06062015.csv" ) );
 		String line = reader.readLine();
@@ -42,21 +81,19 @@ public class DumpWebpageRelevance {
 			String url = splits[1];
 			String entry = splits[2].replaceAll( "_", " " );
 			String rating = splits[3];
-			sb.append( "myungha\t" + user + "\tunknown time\t" + entry + "\t" + url + "\t\t" + rating + "\n" );
+			writer.write( "myungha\t" + user + "\tunknown time\t" + entry + "\t" + url + "\t\t" + rating + "\n" );
 			line = reader.readLine();
 		}
 		reader.close();
-		return sb.toString();
 	}
 	
-	public static String generateDataDatabase() throws SQLException, IOException {
-		// ratings.add( new Object[] { user, Settings.TIME_FORMAT_MS.format( new Date( timestamp ) ), url, text, entry, rating } );
-		StringBuilder sb = new StringBuilder();
-		List<Object[]> ratings = WikiEntryRatingDAO.dumpLastestRatings();
-		for ( Object[] rating : ratings ) {
-			sb.append( "database\t" + rating[0] + "\t" + rating[1] + "\t" + rating[4] + "\t" + rating[2] + "\t" + ( (String) rating[3] ).replaceAll( "\\s+", " " ) + "\t" + rating[5] + "\n" );
-		}
-		return sb.toString();
+	public static void writeDataDatabase( final Writer writer, String after, String until, WikiEntryDictionary dictionary ) throws SQLException, IOException {
+		// rating: { user, time, url, text, entry, rating }
+		WikiEntryRatingDAO.dumpLatestRatings( after, until, dictionary, new RowHandler<Object[]>() {
+			public void handle( Object[] rating ) throws IOException {
+				writer.write( "database\t" + rating[0] + "\t" + rating[1] + "\t" + rating[4] + "\t" + rating[2] + "\t" + ( (String) rating[3] ).replaceAll( "\\s+", " " ) + "\t" + rating[5] + "\n" );
+			}
+		} );
 	}
 	
 }
@@ -10,7 +10,9 @@ import java.util.Properties;
 
 import org.apache.tomcat.dbcp.dbcp2.BasicDataSource;
 
+import edu.umass.cs.ciir.controversy.database.dao.BlobDAO;
 import edu.umass.cs.ciir.controversy.database.dao.RequestDAO;
+import edu.umass.cs.ciir.controversy.database.dao.SequenceDAO;
 import edu.umass.cs.ciir.controversy.database.dao.URLRatingDAO;
 import edu.umass.cs.ciir.controversy.database.dao.WikiEntryRatingDAO;
 import edu.umass.cs.ciir.controversy.ControversyScorerSettings;
@@ -34,6 +36,14 @@ public class ConnectionPool {
 	public static BasicDataSource ds_search;
 	public static BasicDataSource ds_update;
 	
+	public static int log_queue_size = 10000; // maximum number of requests waiting to be logged
+	public static int log_queue_kb = 65536; // approximate maximum memory taken by the requests waiting to be logged (including crawled webpages)
+	public static int log_batch_size = 100; // maximum number of requests logged in one insert
+	public static int log_batch_kb = 1024; // approximate maximum size of an insert
+	public static String log_policy = "drop"; // drop or block requests when the queue is full
+	public static long log_block_ms = 100; // maximum time a request waits for the queue under the block policy
+	public static int log_id_block = 100; // number of request ids reserved at a time
+	
 	static {
 		try {
 			
@@ -54,22 +64,38 @@ public class ConnectionPool {
 			int max_conn_search = Integer.parseInt( props.getProperty( "max_conn_search", "20" ) );
 			int min_conn_update = Integer.parseInt( props.getProperty( "min_conn_update", "10" ) );
 			int max_conn_update = Integer.parseInt( props.getProperty( "max_conn_update", "50" ) );
+			int max_statements = Integer.parseInt( props.getProperty( "max_statements", "100" ) );
+			
+			// server-side prepared statements are parsed once per connection; JDBC batches of inserts are sent as multi-row inserts
+			String url = "jdbc:mysql://" + host + ":" + port + "/" + db + "?useUnicode=true&characterEncoding=UTF-8&useServerPrepStmts=true&rewriteBatchedStatements=true";
+			
+			log_queue_size = Integer.parseInt( props.getProperty( "log_queue_size", "" + log_queue_size ).trim() );
+			log_queue_kb = Integer.parseInt( props.getProperty( "log_queue_kb", "" + log_queue_kb ).trim() );
+			log_batch_size = Integer.parseInt( props.getProperty( "log_batch_size", "" + log_batch_size ).trim() );
+			log_batch_kb = Integer.parseInt( props.getProperty( "log_batch_kb", "" + log_batch_kb ).trim() );
+			log_policy = props.getProperty( "log_policy", log_policy ).trim();
+			log_block_ms = Long.parseLong( props.getProperty( "log_block_ms", "" + log_block_ms ).trim() );
+			log_id_block = Integer.parseInt( props.getProperty( "log_id_block", "" + log_id_block ).trim() );
 			
 			ds_search = new BasicDataSource();
 			ds_search.setDriverClassName( "com.mysql.jdbc.Driver" );
-			ds_search.setUrl( "jdbc:mysql://" + host + ":" + port + "/" + db + "?useUnicode=true&characterEncoding=UTF-8" );
+			ds_search.setUrl( url );
 			ds_search.setUsername( username );
 			ds_search.setPassword( password );
 			ds_search.setMinIdle( min_conn_search );
 			ds_search.setMaxTotal( max_conn_search );
+			ds_search.setPoolPreparedStatements( true );
+			ds_search.setMaxOpenPreparedStatements( max_statements );
 			
 			ds_update = new BasicDataSource();
 			ds_update.setDriverClassName( "com.mysql.jdbc.Driver" );
-			ds_update.setUrl( "jdbc:mysql://" + host + ":" + port + "/" + db + "?useUnicode=true&characterEncoding=UTF-8" );
+			ds_update.setUrl( url );
 			ds_update.setUsername( username );
 			ds_update.setPassword( password );
 			ds_update.setMinIdle( min_conn_update );
 			ds_update.setMaxTotal( max_conn_update );
+			ds_update.setPoolPreparedStatements( true );
+			ds_update.setMaxOpenPreparedStatements( max_statements );
 			
 			// create tables if they are not in the database, existing tables will not be removed
 			initDatabase();
@@ -88,7 +114,9 @@ public class ConnectionPool {
 	}
 	
 	private static void initDatabase() throws SQLException {
+		BlobDAO.createTable();
 		RequestDAO.createTable();
+		SequenceDAO.createTable();
 		URLRatingDAO.createTable();
 		WikiEntryRatingDAO.createTable();
 	}
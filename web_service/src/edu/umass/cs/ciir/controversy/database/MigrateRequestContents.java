@@ -0,0 +1,33 @@
+package edu.umass.cs.ciir.controversy.database;
+
+import edu.umass.cs.ciir.controversy.database.dao.BlobDAO;
+import edu.umass.cs.ciir.controversy.database.dao.RequestDAO;
+
+/**
+ * <p>
+ * Migrate a request table created before the content-addressed blob table: the inline texts and webpages of requests are moved into the blob table and
+ * request rows keep only their digests (see RequestDAO.migrateContents()); the unused texthash column is dropped as well, also from request tables
+ * migrated before. Run it once before starting the web service of this version on an existing database. It can be run again if it was interrupted; on
+ * a migrated database it does nothing.
+ * </p>
+ * <p>
+ * Usage: MigrateRequestContents [number of requests per batch, default 200]
+ * </p>
+ */
+public class MigrateRequestContents {
+	
+	public static void main( String[] args ) {
+		try {
+			
+			int batch = args.length > 0 ? Integer.parseInt( args[0] ) : 200;
+			
+			BlobDAO.createTable();
+			long migrated = RequestDAO.migrateContents( batch );
+			System.out.println( " >> done: " + migrated + " requests migrated" );
+			
+		} catch ( Exception e ) {
+			e.printStackTrace();
+		}
+	}
+	
+}
@@ -1,6 +1,8 @@
 package edu.umass.cs.ciir.controversy.database;
 
+import edu.umass.cs.ciir.controversy.database.dao.BlobDAO;
 import edu.umass.cs.ciir.controversy.database.dao.RequestDAO;
+import edu.umass.cs.ciir.controversy.database.dao.SequenceDAO;
 import edu.umass.cs.ciir.controversy.database.dao.URLRatingDAO;
 import edu.umass.cs.ciir.controversy.database.dao.WikiEntryRatingDAO;
 
@@ -15,11 +17,15 @@ public class RecreateTables {
 	public static void main( String[] args ) {
 		try {
 			
+			BlobDAO.dropTable();
 			RequestDAO.dropTable();
+			SequenceDAO.dropTable();
 			URLRatingDAO.dropTable();
 			WikiEntryRatingDAO.dropTable();
 			
+			BlobDAO.createTable();
 			RequestDAO.createTable();
+			SequenceDAO.createTable();
 			URLRatingDAO.createTable();
 			WikiEntryRatingDAO.createTable();
 			
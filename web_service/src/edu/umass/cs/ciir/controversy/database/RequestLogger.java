@@ -0,0 +1,315 @@
+package edu.umass.cs.ciir.controversy.database;
+
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.List;
+import java.util.LinkedHashMap;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.umass.cs.ciir.controversy.database.dao.RequestDAO;
+import edu.umass.cs.ciir.controversy.database.entity.Request;
+
+/**
+ * <p>
+ * RequestLogger logs user requests into the request table in the background (write-behind), such that the latency of the database (and MyISAM table
+ * locks) does not add up to the latency of the /detect service.
+ * </p>
+ * <p>
+ * log() numbers a request with an id reserved from the database in blocks (see RequestDAO.reserveIds()), so the id can be sent back to the client
+ * immediately for later ratings, and puts the request into a bounded queue. A writer thread drains the queue and writes requests with multi-row inserts.
+ * The queue is bounded both by the number of requests and by their size (a request holds its crawled webpage). If the queue is full, a request is
+ * dropped (policy DROP) or waits for a limited time before it is dropped (policy BLOCK); a dropped request gets no request id.
+ * </p>
+ * <p>
+ * The logger also remembers the digests (see RequestDAO.digest()) of recent requests, such that ratings submitted for a request can update the latest
+ * ratings without reading the request back from the database (which may not even have been written yet).
+ * </p>
+ * <p>
+ * A request must not be modified after it is logged.
+ * </p>
+ */
+public class RequestLogger {
+	
+	public enum Policy {
+		DROP, BLOCK
+	}
+	
+	private static final int RECENT_REQUESTS = 20000;
+	
+	private static RequestLogger shared;
+	private static boolean shared_closed;
+	
+	protected final ArrayBlockingQueue<Request> queue;
+	protected final Semaphore queue_space; // in KB
+	protected final int queue_kb;
+	protected final int batch_size;
+	protected final long batch_chars;
+	protected final Policy policy;
+	protected final long block_ms;
+	protected final int id_block;
+	
+	// request ids from next_id (inclusive) to limit_id (exclusive) are reserved but not used yet
+	protected long next_id;
+	protected long limit_id;
+	
+	// request id -> digest of recent requests
+	protected final LinkedHashMap<Long, String> recent;
+	
+	protected final Thread writer;
+	protected volatile boolean closed;
+	
+	protected final AtomicLong logged = new AtomicLong();
+	protected final AtomicLong dropped = new AtomicLong();
+	protected final AtomicLong failed = new AtomicLong();
+	
+	/**
+	 * @param queue_size
+	 *            Maximum number of requests waiting to be written.
+	 * @param queue_kb
+	 *            Approximate maximum memory (in KB) taken by the requests waiting to be written.
+	 * @param batch_size
+	 *            Maximum number of requests written by one insert.
+	 * @param batch_chars
+	 *            Approximate maximum number of characters of the requests written by one insert.
+	 * @param policy
+	 *            What to do with a request if the queue is full.
+	 * @param block_ms
+	 *            Maximum time (in milliseconds) a request waits for the queue under the BLOCK policy.
+	 * @param id_block
+	 *            Number of request ids reserved at a time.
+	 */
+	public RequestLogger( int queue_size, int queue_kb, int batch_size, long batch_chars, Policy policy, long block_ms, int id_block ) {
+		this.queue = new ArrayBlockingQueue<Request>( queue_size );
+		this.queue_kb = queue_kb;
+		this.queue_space = new Semaphore( queue_kb );
+		this.batch_size = batch_size;
+		this.batch_chars = batch_chars;
+		this.policy = policy;
+		this.block_ms = block_ms;
+		this.id_block = id_block;
+		this.recent = new LinkedHashMap<Long, String>( 1024, 0.75f, false ) {
+			private static final long serialVersionUID = 1L;
+			
+			protected boolean removeEldestEntry( Map.Entry<Long, String> eldest ) {
+				return size() > RECENT_REQUESTS;
+			}
+		};
+		this.writer = new Thread( new Runnable() {
+			public void run() {
+				write();
+			}
+		}, "request-logger" );
+		writer.setDaemon( true );
+		writer.start();
+	}
+	
+	/**
+	 * @return The request logger shared by the servlets of the web service (see the log_* settings in ConnectionPool).
+	 * @throws IllegalStateException
+	 *             If the shared request logger has been closed (see closeShared()); it is not created again.
+	 */
+	public static synchronized RequestLogger getShared() {
+		if ( shared_closed ) {
+			throw new IllegalStateException( "The shared request logger is closed." );
+		}
+		if ( shared == null ) {
+			Policy policy = ConnectionPool.log_policy.equalsIgnoreCase( "block" ) ? Policy.BLOCK : Policy.DROP;
+			shared = new RequestLogger( ConnectionPool.log_queue_size, ConnectionPool.log_queue_kb, ConnectionPool.log_batch_size, ConnectionPool.log_batch_kb << 10, policy, ConnectionPool.log_block_ms, ConnectionPool.log_id_block );
+		}
+		return shared;
+	}
+	
+	/**
+	 * @return The shared request logger, or null if it has not been created (or has been closed); unlike getShared(), it never creates one.
+	 */
+	public static synchronized RequestLogger getExisting() {
+		return shared;
+	}
+	
+	/**
+	 * Close the shared request logger (if it was created) after writing all waiting requests, when the web service stops.
+	 */
+	public static synchronized void closeShared() {
+		shared_closed = true;
+		if ( shared != null ) {
+			shared.close();
+			shared = null;
+		}
+	}
+	
+	/**
+	 * Number the request with a new request id and queue it to be written.
+	 * 
+	 * @param record
+	 * @return The record with its request id, or null if the request was dropped because the queue is full (it will not be written, so it has no id).
+	 * @throws SQLException
+	 *             If no request id can be reserved.
+	 */
+	public Request log( Request record ) throws SQLException {
+		int kb = size( record );
+		boolean queued = false;
+		if ( !closed ) {
+			try {
+				long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos( policy == Policy.BLOCK ? block_ms : 0 );
+				if ( queue_space.tryAcquire( kb, policy == Policy.BLOCK ? block_ms : 0, TimeUnit.MILLISECONDS ) ) {
+					try {
+						record.setRequestid( nextId() );
+						queued = queue.offer( record, Math.max( 0, deadline - System.nanoTime() ), TimeUnit.NANOSECONDS );
+					} finally {
+						if ( !queued ) {
+							queue_space.release( kb );
+						}
+					}
+				}
+			} catch ( InterruptedException e ) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		if ( queued ) {
+			String digest = RequestDAO.digest( record.getUserid(), record.getUrl(), record.getText() );
+			synchronized ( recent ) {
+				recent.put( record.getRequestid(), digest );
+			}
+			logged.incrementAndGet();
+			return record;
+		}
+		dropped.incrementAndGet();
+		return null;
+	}
+	
+	/**
+	 * @param requestid
+	 * @return The digest of the user, url and text of a request, or null if the request is unknown.
+	 * @throws SQLException
+	 */
+	public String getDigest( long requestid ) throws SQLException {
+		synchronized ( recent ) {
+			String digest = recent.get( requestid );
+			if ( digest != null ) {
+				return digest;
+			}
+		}
+		return RequestDAO.searchDigest( requestid );
+	}
+	
+	/**
+	 * Look up a request's digest through the shared request logger if it exists (it knows the requests still waiting to be written), or else in the
+	 * database.
+	 * 
+	 * @param requestid
+	 * @return The digest of the user, url and text of a request, or null if the request is unknown.
+	 * @throws SQLException
+	 */
+	public static String searchDigest( long requestid ) throws SQLException {
+		RequestLogger logger = getExisting();
+		return logger == null ? RequestDAO.searchDigest( requestid ) : logger.getDigest( requestid );
+	}
+	
+	protected synchronized long nextId() throws SQLException {
+		if ( next_id >= limit_id ) {
+			next_id = RequestDAO.reserveIds( id_block );
+			limit_id = next_id + id_block;
+		}
+		return next_id++;
+	}
+	
+	private void write() {
+		List<Request> batch = new ArrayList<Request>( batch_size );
+		while ( true ) {
+			Request record = null;
+			try {
+				record = queue.poll( 500, TimeUnit.MILLISECONDS );
+			} catch ( InterruptedException e ) {
+				// only close() stops the writer
+			}
+			if ( record == null ) {
+				if ( closed && queue.isEmpty() ) {
+					break;
+				}
+				continue;
+			}
+			batch.add( record );
+			queue.drainTo( batch, batch_size - 1 );
+			// split the batch such that an insert does not exceed the maximum packet size of the server
+			int bg = 0;
+			long chars = 0;
+			for ( int ix = 0 ; ix < batch.size() ; ix++ ) {
+				long len = length( batch.get( ix ) );
+				if ( ix > bg && chars + len > batch_chars ) {
+					insert( batch.subList( bg, ix ) );
+					bg = ix;
+					chars = 0;
+				}
+				chars += len;
+			}
+			insert( batch.subList( bg, batch.size() ) );
+			for ( Request written : batch ) {
+				queue_space.release( size( written ) );
+			}
+			batch.clear();
+		}
+	}
+	
+	private static long length( Request record ) {
+		return 256 + record.getText().length() + ( record.getWebpage() == null ? 0 : record.getWebpage().length() );
+	}
+	
+	// the memory (in KB) a queued request is counted for: two bytes a character; a request larger than the whole queue takes all of it
+	private int size( Request record ) {
+		return (int) Math.min( queue_kb, ( length( record ) * 2 >> 10 ) + 1 );
+	}
+	
+	private void insert( List<Request> records ) {
+		try {
+			RequestDAO.add( records );
+		} catch ( SQLException e ) {
+			e.printStackTrace();
+			failed.addAndGet( records.size() );
+		}
+	}
+	
+	/**
+	 * Stop accepting requests, and wait (for a limited time) until the waiting requests are written.
+	 */
+	public void close() {
+		closed = true;
+		try {
+			writer.join( 30000 );
+		} catch ( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * @return Number of requests queued to be written.
+	 */
+	public long getLogged() {
+		return logged.get();
+	}
+	
+	/**
+	 * @return Number of requests dropped because the queue was full (by number or by size).
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+	
+	/**
+	 * @return Number of requests that could not be written into the database.
+	 */
+	public long getFailed() {
+		return failed.get();
+	}
+	
+	/**
+	 * @return Number of requests waiting to be written.
+	 */
+	public int getPending() {
+		return queue.size();
+	}
+	
+}
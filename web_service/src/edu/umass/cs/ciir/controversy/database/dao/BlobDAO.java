@@ -0,0 +1,149 @@
+package edu.umass.cs.ciir.controversy.database.dao;
+
+import java.sql.ResultSet;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.DataFormatException;
+import java.nio.charset.StandardCharsets;
+
+import utils.ByteUtils;
+import utils.StringUtils;
+
+import edu.umass.cs.ciir.controversy.database.ConnectionPool;
+
+/**
+ * <p>
+ * A content-addressed store of the texts and crawled webpages of requests. A content is stored only once, no matter how many requests have it, keyed
+ * by the SHA-1 digest (hex) of its UTF-8 bytes and compressed by raw deflate at the fastest level (see ByteUtils.deflate()). Request rows reference
+ * their text and webpage by the digest (see RequestDAO).
+ * </p>
+ * <p>
+ * Contents are added by INSERT IGNORE, so concurrent writers of the same content (also by other web service instances) need no coordination; the
+ * digest determines the content, so whichever row is kept is the same.
+ * </p>
+ */
+public class BlobDAO {
+	
+	public static final String TABLE = "request_blob";
+	
+	public static final String COLUME_DIGEST = "digest";
+	public static final String COLUME_LENGTH = "length";
+	public static final String COLUME_DATA = "data";
+	
+	public static void dropTable() throws SQLException {
+		Connection conn = ConnectionPool.getConnectionUpdate();
+		Statement st = conn.createStatement();
+		st.execute( "DROP TABLE IF EXISTS `" + TABLE + "`;" );
+		st.close();
+		conn.close();
+	}
+	
+	public static void createTable() throws SQLException {
+		Connection conn = ConnectionPool.getConnectionUpdate();
+		Statement st = conn.createStatement();
+		st.execute( createTableSql() );
+		st.close();
+		conn.close();
+	}
+	
+	private static String createTableSql() {
+		return "CREATE TABLE IF NOT EXISTS `" + TABLE + "` (" + "\n"
+				+ "  `" + COLUME_DIGEST + "` CHAR(40) CHARACTER SET ascii NOT NULL," + "\n"
+				+ "  `" + COLUME_LENGTH + "` INT UNSIGNED NOT NULL," + "\n"
+				+ "  `" + COLUME_DATA + "` LONGBLOB NOT NULL," + "\n"
+				+ "  PRIMARY KEY (`" + COLUME_DIGEST + "`))" + "\n"
+				+ "ENGINE = InnoDB" + "\n"
+				+ "DEFAULT CHARACTER SET = utf8;";
+	}
+	
+	private static final String SQL_ADD = "INSERT IGNORE INTO `" + TABLE + "`(" + COLUME_DIGEST + "," + COLUME_LENGTH + "," + COLUME_DATA + ") VALUES(?,?,?)";
+	
+	private static final String SQL_SEARCH = "SELECT " + COLUME_LENGTH + ", " + COLUME_DATA + " FROM `" + TABLE + "` WHERE " + COLUME_DIGEST + " = ?";
+	
+	/**
+	 * @param content
+	 * @return The digest keying the content.
+	 */
+	public static String digest( String content ) {
+		return StringUtils.sha1( content == null ? "" : content );
+	}
+	
+	/**
+	 * Add contents (if they are not stored yet) in one JDBC batch. The contents are added in the order of their digests, so concurrent writers lock the
+	 * blob rows in the same order and do not deadlock each other.
+	 * 
+	 * @param conn
+	 *            A connection for update, which is not closed.
+	 * @param contents
+	 *            Contents keyed by their digests (see digest()).
+	 * @throws SQLException
+	 */
+	public static void add( Connection conn, Map<String, String> contents ) throws SQLException {
+		if ( contents.isEmpty() ) {
+			return;
+		}
+		PreparedStatement ps = conn.prepareStatement( SQL_ADD );
+		try {
+			for ( Map.Entry<String, String> content : new TreeMap<String, String>( contents ).entrySet() ) {
+				byte[] bytes = content.getValue().getBytes( StandardCharsets.UTF_8 );
+				ps.setString( 1, content.getKey() );
+				ps.setInt( 2, bytes.length );
+				ps.setBytes( 3, ByteUtils.deflate( bytes ) );
+				ps.addBatch();
+			}
+			ps.executeBatch();
+		} finally {
+			ps.close();
+		}
+	}
+	
+	/**
+	 * @param digest
+	 * @return The content of the digest, or null if it is not stored.
+	 * @throws SQLException
+	 */
+	public static String search( String digest ) throws SQLException {
+		Connection conn = ConnectionPool.getConnectionSearch();
+		PreparedStatement ps = conn.prepareStatement( SQL_SEARCH );
+		String content = null;
+		try {
+			ps.setString( 1, digest );
+			ResultSet rs = ps.executeQuery();
+			if ( rs.next() ) {
+				content = decode( rs.getBytes( 2 ), rs.getInt( 1 ) );
+			}
+			rs.close();
+		} finally {
+			ps.close();
+			conn.close();
+		}
+		return content;
+	}
+	
+	/**
+	 * Decode a stored content, e.g., selected by joining the blob table in another query.
+	 * 
+	 * @param data
+	 *            The data column, or null (e.g., a missing row of an outer join).
+	 * @param length
+	 *            The length column.
+	 * @return The content, or an empty string if data is null.
+	 * @throws SQLException
+	 *             If the data is corrupted.
+	 */
+	public static String decode( byte[] data, int length ) throws SQLException {
+		if ( data == null ) {
+			return "";
+		}
+		try {
+			return new String( ByteUtils.inflate( data, length ), StandardCharsets.UTF_8 );
+		} catch ( DataFormatException e ) {
+			throw new SQLException( "Corrupted content in " + TABLE, e );
+		}
+	}
+	
+}
@@ -0,0 +1,78 @@
+package edu.umass.cs.ciir.controversy.database.dao;
+
+import java.util.Map;
+import java.util.LinkedHashMap;
+
+/**
+ * <p>
+ * A small LRU cache of latest ratings (keyed by the digest of user, url and text) in front of the latest-rating tables, for users who look up the same
+ * pages repeatedly.
+ * </p>
+ * <p>
+ * A lookup that misses reads the version before querying the database and caches the result only if no rating was submitted in the meanwhile
+ * (invalidate() changes the version), so a concurrent submission is never overwritten by an older result.
+ * </p>
+ * <p>
+ * Values may be null (e.g., the user has not rated the page); lookup() tells a cached null from a missing key in one step.
+ * </p>
+ */
+class RatingCache<V> {
+	
+	/**
+	 * A cached value, which may be null.
+	 */
+	static class Cached<V> {
+		
+		final V value;
+		
+		Cached( V value ) {
+			this.value = value;
+		}
+		
+	}
+	
+	protected final LinkedHashMap<String, Cached<V>> values;
+	protected long version;
+	
+	RatingCache( final int capacity ) {
+		this.values = new LinkedHashMap<String, Cached<V>>( 1024, 0.75f, true ) {
+			private static final long serialVersionUID = 1L;
+			
+			protected boolean removeEldestEntry( Map.Entry<String, Cached<V>> eldest ) {
+				return size() > capacity;
+			}
+		};
+	}
+	
+	/**
+	 * @param digest
+	 * @return The cached value, or null if the digest is not cached.
+	 */
+	synchronized Cached<V> lookup( String digest ) {
+		return values.get( digest );
+	}
+	
+	synchronized long version() {
+		return version;
+	}
+	
+	/**
+	 * Cache a value read from the database, unless a rating has been submitted since the version was read.
+	 */
+	synchronized void put( String digest, V value, long version ) {
+		if ( this.version == version ) {
+			values.put( digest, new Cached<V>( value ) );
+		}
+	}
+	
+	synchronized void invalidate( String digest ) {
+		values.remove( digest );
+		version++;
+	}
+	
+	synchronized void clear() {
+		values.clear();
+		version++;
+	}
+	
+}
@@ -1,14 +1,33 @@
 package edu.umass.cs.ciir.controversy.database.dao;
 
 import java.sql.ResultSet;
+import java.sql.PreparedStatement;
 import java.sql.Statement;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.Map;
+import java.util.List;
+import java.util.LinkedHashMap;
+
+import utils.StringUtils;
 
-import utils.db.SqlUtils;
 import edu.umass.cs.ciir.controversy.database.ConnectionPool;
 import edu.umass.cs.ciir.controversy.database.entity.Request;
 
+/**
+ * <p>
+ * The request log. The text and the crawled webpage of a request are stored in the content-addressed blob table (see BlobDAO) and a request row only
+ * references them by their digests, so a page requested many times is stored once and the request table stays small. A request row also stores the
+ * digest of its user, url and text (see digest()), which keys the latest ratings.
+ * </p>
+ * <p>
+ * Request tables created before the blob table stored the text and webpage inline; migrateContents() (see MigrateRequestContents) moves them into the
+ * blob table.
+ * </p>
+ * 
+ * @author Jiepu Jiang
+ * @version Jun 12, 2015
+ */
 public class RequestDAO {
 	
 	public static final String TABLE = "request";
@@ -18,10 +37,16 @@ public class RequestDAO {
 	public static final String COLUME_IP = "ip";
 	public static final String COLUME_USER = "userid";
 	public static final String COLUME_URL = "url";
+	public static final String COLUME_DIGEST = "digest";
+	public static final String COLUME_TEXT_DIGEST = "text_digest";
+	public static final String COLUME_WEBPAGE_DIGEST = "webpage_digest";
+	public static final String COLUME_PARAM = "param";
+	
+	// columns of request tables created before the blob table (see migrateContents()): the inline text and webpage, and the hash code of the text,
+	// which was looked up before requests had digests
 	public static final String COLUME_TEXT = "text";
-	public static final String COLUME_TEXTHASH = "texthash";
 	public static final String COLUME_WEBPAGE = "webpage";
-	public static final String COLUME_PARAM = "param";
+	public static final String COLUME_TEXTHASH = "texthash";
 	
 	public static void dropTable() throws SQLException {
 		Connection conn = ConnectionPool.getConnectionUpdate();
@@ -46,45 +71,257 @@ public class RequestDAO {
 				+ "  `" + COLUME_IP + "` VARCHAR(100) NOT NULL," + "\n"
 				+ "  `" + COLUME_USER + "` VARCHAR(100) NOT NULL," + "\n"
 				+ "  `" + COLUME_URL + "` VARCHAR(333) NOT NULL," + "\n"
-				+ "  `" + COLUME_TEXTHASH + "` INT NOT NULL," + "\n"
-				+ "  `" + COLUME_TEXT + "` MEDIUMTEXT NOT NULL," + "\n"
-				+ "  `" + COLUME_WEBPAGE + "` LONGTEXT NOT NULL," + "\n"
+				+ "  `" + COLUME_DIGEST + "` CHAR(40) CHARACTER SET ascii NOT NULL," + "\n"
+				+ "  `" + COLUME_TEXT_DIGEST + "` CHAR(40) CHARACTER SET ascii NOT NULL," + "\n"
+				+ "  `" + COLUME_WEBPAGE_DIGEST + "` CHAR(40) CHARACTER SET ascii NOT NULL," + "\n"
 				+ "  `" + COLUME_PARAM + "` VARCHAR(500) NOT NULL," + "\n"
 				+ "  PRIMARY KEY (`" + COLUME_ID + "`)," + "\n"
 				+ "  INDEX `" + COLUME_USER + "` USING BTREE (`" + COLUME_USER + "` ASC)," + "\n"
 				+ "  INDEX `" + COLUME_URL + "` USING BTREE (`" + COLUME_URL + "` ASC)," + "\n"
-				+ "  INDEX `" + COLUME_TEXTHASH + "` USING BTREE (`" + COLUME_TEXTHASH + "` ASC))" + "\n"
+				+ "  INDEX `" + COLUME_DIGEST + "` USING BTREE (`" + COLUME_DIGEST + "` ASC))" + "\n"
 				+ "ENGINE = MyISAM" + "\n"
 				+ "DEFAULT CHARACTER SET = utf8;";
 	}
 	
-	public static Request add( Request record ) throws SQLException {
-		Connection conn = ConnectionPool.getConnectionUpdate();
-		Statement st = conn.createStatement();
-		st.executeUpdate( addSql( record ), Statement.RETURN_GENERATED_KEYS );
-		ResultSet rs = st.getGeneratedKeys();
-		if ( rs.next() ) {
-			record.setRequestid( rs.getLong( 1 ) );
+	private static final String SQL_ADD = "INSERT INTO `" + TABLE + "`(" + COLUME_TIME + "," + COLUME_IP + "," + COLUME_USER + "," + COLUME_URL + "," + COLUME_DIGEST + "," + COLUME_TEXT_DIGEST + "," + COLUME_WEBPAGE_DIGEST + "," + COLUME_PARAM + "," + COLUME_ID + ") " + "\n"
+			+ " VALUES(?,?,?,?,?,?,?,?,?)";
+	
+	/**
+	 * SQL joining the blob storing the text of requests to the request table (select its columns with SQL_TEXT_COLUMNS and decode them with
+	 * BlobDAO.decode()).
+	 */
+	public static final String SQL_JOIN_TEXT = " LEFT JOIN `" + BlobDAO.TABLE + "` ON " + BlobDAO.TABLE + "." + BlobDAO.COLUME_DIGEST + " = " + TABLE + "." + COLUME_TEXT_DIGEST;
+	
+	public static final String SQL_TEXT_COLUMNS = BlobDAO.TABLE + "." + BlobDAO.COLUME_LENGTH + ", " + BlobDAO.TABLE + "." + BlobDAO.COLUME_DATA;
+	
+	private static String valueUser( String userid ) {
+		return userid == null ? "" : userid;
+	}
+	
+	private static String valueUrl( String url ) {
+		if ( url == null ) {
+			return "";
 		}
-		rs.close();
-		st.close();
-		conn.close();
-		return record;
+		return url.length() > 333 ? url.substring( 0, 333 ) : url;
+	}
+	
+	/**
+	 * SQL expression of the digest of a request's user, url and text (see digest()).
+	 */
+	public static final String SQL_DIGEST = TABLE + "." + COLUME_DIGEST;
+	
+	/**
+	 * The SHA-1 digest (hex) identifying the user, url and text of requests, which keys the latest ratings (see URLRatingDAO and WikiEntryRatingDAO).
+	 * The userid and url are normalized as they are stored in the request table, so the digest is the same as the stored digest of the request.
+	 * 
+	 * @param userid
+	 * @param url
+	 * @param text
+	 * @return
+	 */
+	public static String digest( String userid, String url, String text ) {
+		return StringUtils.sha1( valueUser( userid ) + "\t" + valueUrl( url ) + "\t" + ( text == null ? "" : text ) );
 	}
 	
-	private static String addSql( Request record ) {
-		String url = SqlUtils.format( record.getUrl() );
-		String param = SqlUtils.format( record.getParam() );
-		if ( url.length() > 333 ) {
-			url = url.substring( 0, 333 );
+	private static final String SQL_SEARCH_DIGEST = "SELECT " + SQL_DIGEST + " FROM `" + TABLE + "` WHERE " + COLUME_ID + " = ?";
+	
+	/**
+	 * @param requestid
+	 * @return The digest of a request's user, url and text, or null if the request is not in the table.
+	 * @throws SQLException
+	 */
+	public static String searchDigest( long requestid ) throws SQLException {
+		Connection conn = ConnectionPool.getConnectionSearch();
+		PreparedStatement ps = conn.prepareStatement( SQL_SEARCH_DIGEST );
+		String digest = null;
+		try {
+			ps.setLong( 1, requestid );
+			ResultSet rs = ps.executeQuery();
+			if ( rs.next() ) {
+				digest = rs.getString( 1 );
+			}
+			rs.close();
+		} finally {
+			ps.close();
+			conn.close();
 		}
+		return digest;
+	}
+	
+	private static void addContents( Map<String, String> contents, Request record ) {
+		String text = record.getText() == null ? "" : record.getText();
+		String webpage = record.getWebpage() == null ? "" : record.getWebpage();
+		contents.put( BlobDAO.digest( text ), text );
+		contents.put( BlobDAO.digest( webpage ), webpage );
+	}
+	
+	private static void setValues( PreparedStatement ps, Request record ) throws SQLException {
+		String param = record.getParam() == null ? "" : record.getParam();
 		if ( param.length() > 500 ) {
 			param = param.substring( 0, 500 );
 		}
-		
-		return "INSERT INTO `" + TABLE + "`(" + COLUME_TIME + "," + COLUME_IP + "," + COLUME_USER + "," + COLUME_URL + "," + COLUME_TEXT + "," + COLUME_TEXTHASH + "," + COLUME_WEBPAGE + "," + COLUME_PARAM + ") " + "\n" +
-				" VALUES(" + record.getTimestamp() + ",'" + SqlUtils.format( record.getIp() ) + "','" + SqlUtils.format( record.getUserid() ) + "','" + url + "','" + SqlUtils.format( record.getText() ) + "'," + record.getTextHash() + ",'" + SqlUtils.format( record.getWebpage() ) + "','" + param + "')";
-		
+		ps.setLong( 1, record.getTimestamp() );
+		ps.setString( 2, record.getIp() == null ? "" : record.getIp() );
+		ps.setString( 3, valueUser( record.getUserid() ) );
+		ps.setString( 4, valueUrl( record.getUrl() ) );
+		ps.setString( 5, digest( record.getUserid(), record.getUrl(), record.getText() ) );
+		ps.setString( 6, BlobDAO.digest( record.getText() ) );
+		ps.setString( 7, BlobDAO.digest( record.getWebpage() ) );
+		ps.setString( 8, param );
+	}
+	
+	/**
+	 * Insert records that already have request ids (see reserveIds()) in one JDBC batch (sent as a multi-row insert with rewriteBatchedStatements).
+	 * The texts and webpages of the records are added to the blob table first, each distinct one once. Requests are never inserted with AUTO_INCREMENT
+	 * ids, which could collide with the reserved ones.
+	 * 
+	 * @param records
+	 * @throws SQLException
+	 */
+	public static void add( List<Request> records ) throws SQLException {
+		if ( records.isEmpty() ) {
+			return;
+		}
+		Connection conn = ConnectionPool.getConnectionUpdate();
+		PreparedStatement ps = conn.prepareStatement( SQL_ADD );
+		try {
+			Map<String, String> contents = new LinkedHashMap<String, String>();
+			for ( Request record : records ) {
+				addContents( contents, record );
+			}
+			BlobDAO.add( conn, contents );
+			for ( Request record : records ) {
+				setValues( ps, record );
+				ps.setLong( 9, record.getRequestid() );
+				ps.addBatch();
+			}
+			ps.executeBatch();
+		} finally {
+			ps.close();
+			conn.close();
+		}
+	}
+	
+	/**
+	 * Reserve a block of request ids for records inserted by add(List).
+	 * 
+	 * @param block
+	 * @return The first reserved request id.
+	 * @throws SQLException
+	 */
+	public static long reserveIds( int block ) throws SQLException {
+		return SequenceDAO.reserve( TABLE, "SELECT IFNULL(MAX(" + COLUME_ID + "),0)+1 FROM `" + TABLE + "`", block );
+	}
+	
+	private static boolean hasColumn( Connection conn, String column ) throws SQLException {
+		PreparedStatement ps = conn.prepareStatement( "SHOW COLUMNS FROM `" + TABLE + "` LIKE ?" );
+		try {
+			ps.setString( 1, column );
+			ResultSet rs = ps.executeQuery();
+			boolean exists = rs.next();
+			rs.close();
+			return exists;
+		} finally {
+			ps.close();
+		}
+	}
+	
+	private static final String SQL_ADD_DIGEST_COLUMNS = "ALTER TABLE `" + TABLE + "`" + "\n"
+			+ "  ADD COLUMN `" + COLUME_DIGEST + "` CHAR(40) CHARACTER SET ascii NOT NULL DEFAULT '' AFTER `" + COLUME_URL + "`," + "\n"
+			+ "  ADD COLUMN `" + COLUME_TEXT_DIGEST + "` CHAR(40) CHARACTER SET ascii NOT NULL DEFAULT '' AFTER `" + COLUME_DIGEST + "`," + "\n"
+			+ "  ADD COLUMN `" + COLUME_WEBPAGE_DIGEST + "` CHAR(40) CHARACTER SET ascii NOT NULL DEFAULT '' AFTER `" + COLUME_TEXT_DIGEST + "`," + "\n"
+			+ "  ADD INDEX `" + COLUME_DIGEST + "` USING BTREE (`" + COLUME_DIGEST + "` ASC)";
+	
+	private static final String SQL_DROP_INLINE_COLUMNS = "ALTER TABLE `" + TABLE + "`" + "\n"
+			+ "  DROP COLUMN `" + COLUME_TEXT + "`," + "\n"
+			+ "  DROP COLUMN `" + COLUME_WEBPAGE + "`," + "\n"
+			+ "  ALTER COLUMN `" + COLUME_DIGEST + "` DROP DEFAULT," + "\n"
+			+ "  ALTER COLUMN `" + COLUME_TEXT_DIGEST + "` DROP DEFAULT," + "\n"
+			+ "  ALTER COLUMN `" + COLUME_WEBPAGE_DIGEST + "` DROP DEFAULT";
+	
+	// dropping the column also drops its index
+	private static final String SQL_DROP_TEXTHASH = "ALTER TABLE `" + TABLE + "` DROP COLUMN `" + COLUME_TEXTHASH + "`";
+	
+	// rows written by the current version already have a digest and no inline text or webpage
+	private static final String SQL_MIGRATE_SELECT = "SELECT " + COLUME_ID + ", " + COLUME_USER + ", " + COLUME_URL + ", " + COLUME_TEXT + ", " + COLUME_WEBPAGE + " FROM `" + TABLE + "`" + "\n"
+			+ "WHERE " + COLUME_ID + " > ? AND " + COLUME_DIGEST + " = ''" + "\n"
+			+ "ORDER BY " + COLUME_ID + " LIMIT ?";
+	
+	private static final String SQL_MIGRATE_UPDATE = "UPDATE `" + TABLE + "` SET " + COLUME_DIGEST + " = ?, " + COLUME_TEXT_DIGEST + " = ?, " + COLUME_WEBPAGE_DIGEST + " = ? WHERE " + COLUME_ID + " = ?";
+	
+	/**
+	 * Migrate a request table created before the blob table: add the digest columns, move the inline texts and webpages into the blob table batch by
+	 * batch, and finally drop the inline columns and the unused texthash column (which rebuilds the table and frees their space). Migrated rows are skipped, so an interrupted
+	 * migration can simply be run again. The stored digests of requests are the same as the ones computed by SQL before, so the latest ratings stay
+	 * valid.
+	 * 
+	 * @param batch
+	 *            Number of requests migrated in a batch.
+	 * @return Number of migrated requests.
+	 * @throws SQLException
+	 */
+	public static long migrateContents( int batch ) throws SQLException {
+		Connection conn = ConnectionPool.getConnectionUpdate();
+		try {
+			Statement st = conn.createStatement();
+			if ( !hasColumn( conn, COLUME_WEBPAGE ) ) {
+				// tables migrated before the texthash column was dropped
+				if ( hasColumn( conn, COLUME_TEXTHASH ) ) {
+					st.execute( SQL_DROP_TEXTHASH );
+				}
+				st.close();
+				return 0;
+			}
+			if ( !hasColumn( conn, COLUME_DIGEST ) ) {
+				st.execute( SQL_ADD_DIGEST_COLUMNS );
+			}
+			PreparedStatement ps_select = conn.prepareStatement( SQL_MIGRATE_SELECT );
+			PreparedStatement ps_update = conn.prepareStatement( SQL_MIGRATE_UPDATE );
+			long migrated = 0;
+			try {
+				long last = 0;
+				while ( true ) {
+					Map<String, String> contents = new LinkedHashMap<String, String>();
+					ps_select.setLong( 1, last );
+					ps_select.setInt( 2, batch );
+					ResultSet rs = ps_select.executeQuery();
+					int count = 0;
+					while ( rs.next() ) {
+						last = rs.getLong( 1 );
+						String text = rs.getString( 4 );
+						String webpage = rs.getString( 5 );
+						contents.put( BlobDAO.digest( text ), text );
+						contents.put( BlobDAO.digest( webpage ), webpage );
+						ps_update.setString( 1, digest( rs.getString( 2 ), rs.getString( 3 ), text ) );
+						ps_update.setString( 2, BlobDAO.digest( text ) );
+						ps_update.setString( 3, BlobDAO.digest( webpage ) );
+						ps_update.setLong( 4, last );
+						ps_update.addBatch();
+						count++;
+					}
+					rs.close();
+					if ( count == 0 ) {
+						break;
+					}
+					// blobs first, so a migrated row never references a missing blob
+					BlobDAO.add( conn, contents );
+					ps_update.executeBatch();
+					migrated += count;
+					System.out.println( " >> migrated " + migrated + " requests (last request id " + last + ")" );
+				}
+			} finally {
+				ps_select.close();
+				ps_update.close();
+			}
+			st.execute( SQL_DROP_INLINE_COLUMNS );
+			if ( hasColumn( conn, COLUME_TEXTHASH ) ) {
+				st.execute( SQL_DROP_TEXTHASH );
+			}
+			st.close();
+			return migrated;
+		} finally {
+			conn.close();
+		}
 	}
 	
 }
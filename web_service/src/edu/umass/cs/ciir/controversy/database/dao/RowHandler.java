@@ -0,0 +1,20 @@
+package edu.umass.cs.ciir.controversy.database.dao;
+
+import java.io.IOException;
+
+/**
+ * <p>
+ * RowHandler receives the rows of a streamed query (e.g., a dump) one at a time, such that the rows are never collected in memory.
+ * </p>
+ */
+public interface RowHandler<T> {
+	
+	/**
+	 * @param row
+	 *            The current row; it may be reused for the next row, so it must not be kept.
+	 * @throws IOException
+	 *             If the row cannot be written; the query is stopped.
+	 */
+	public void handle( T row ) throws IOException;
+	
+}
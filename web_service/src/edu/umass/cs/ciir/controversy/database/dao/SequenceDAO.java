@@ -0,0 +1,101 @@
+package edu.umass.cs.ciir.controversy.database.dao;
+
+import java.sql.ResultSet;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import edu.umass.cs.ciir.controversy.database.ConnectionPool;
+
+/**
+ * <p>
+ * Named id sequences, from which the web service reserves blocks of ids (e.g., request ids) such that records can be numbered before they are written.
+ * </p>
+ * <p>
+ * A block is reserved by a single UPDATE that sets LAST_INSERT_ID() to the end of the block, so concurrent reservations (also by other web service
+ * instances) never overlap and the new value is read back on the same connection without another lock.
+ * </p>
+ */
+public class SequenceDAO {
+	
+	public static final String TABLE = "sequence";
+	
+	public static final String COLUME_NAME = "name";
+	public static final String COLUME_NEXT = "next_value";
+	
+	public static void dropTable() throws SQLException {
+		Connection conn = ConnectionPool.getConnectionUpdate();
+		Statement st = conn.createStatement();
+		st.execute( "DROP TABLE IF EXISTS `" + TABLE + "`;" );
+		st.close();
+		conn.close();
+	}
+	
+	public static void createTable() throws SQLException {
+		Connection conn = ConnectionPool.getConnectionUpdate();
+		Statement st = conn.createStatement();
+		st.execute( createTableSql() );
+		st.close();
+		conn.close();
+	}
+	
+	private static String createTableSql() {
+		return "CREATE TABLE IF NOT EXISTS `" + TABLE + "` (" + "\n"
+				+ "  `" + COLUME_NAME + "` VARCHAR(100) NOT NULL," + "\n"
+				+ "  `" + COLUME_NEXT + "` BIGINT(64) UNSIGNED NOT NULL," + "\n"
+				+ "  PRIMARY KEY (`" + COLUME_NAME + "`))" + "\n"
+				+ "ENGINE = MyISAM" + "\n"
+				+ "DEFAULT CHARACTER SET = utf8;";
+	}
+	
+	private static final String SQL_RESERVE = "UPDATE `" + TABLE + "` SET " + COLUME_NEXT + " = LAST_INSERT_ID(" + COLUME_NEXT + " + ?) WHERE " + COLUME_NAME + " = ?";
+	
+	/**
+	 * Reserve a block of ids from a sequence.
+	 * 
+	 * @param name
+	 *            Name of the sequence.
+	 * @param seed_sql
+	 *            A query returning the first id of the sequence, used if the sequence does not exist yet (e.g., one plus the largest id in a table).
+	 * @param block
+	 *            Number of ids to reserve.
+	 * @return The first reserved id; ids from it (inclusive) to it + block (exclusive) are reserved.
+	 * @throws SQLException
+	 */
+	public static long reserve( String name, String seed_sql, int block ) throws SQLException {
+		Connection conn = ConnectionPool.getConnectionUpdate();
+		PreparedStatement ps = conn.prepareStatement( SQL_RESERVE );
+		try {
+			ps.setInt( 1, block );
+			ps.setString( 2, name );
+			if ( ps.executeUpdate() == 0 ) {
+				PreparedStatement ps_seed = conn.prepareStatement( "INSERT IGNORE INTO `" + TABLE + "`(" + COLUME_NAME + "," + COLUME_NEXT + ") SELECT ?, (" + seed_sql + ")" );
+				try {
+					ps_seed.setString( 1, name );
+					ps_seed.executeUpdate();
+				} finally {
+					ps_seed.close();
+				}
+				ps.executeUpdate();
+			}
+			PreparedStatement ps_id = conn.prepareStatement( "SELECT LAST_INSERT_ID()" );
+			long next = 0;
+			try {
+				ResultSet rs = ps_id.executeQuery();
+				next = rs.next() ? rs.getLong( 1 ) : 0;
+				rs.close();
+			} finally {
+				ps_id.close();
+			}
+			if ( next <= 0 ) {
+				throw new SQLException( "Cannot reserve ids from sequence " + name );
+			}
+			return next - block;
+		} finally {
+			ps.close();
+			conn.close();
+		}
+	}
+	
+}
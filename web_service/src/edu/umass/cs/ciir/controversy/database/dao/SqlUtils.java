@@ -4,6 +4,10 @@ import java.io.IOException;
 
 import java.net.URLDecoder;
 import java.net.URLEncoder;
+import java.sql.ResultSet;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.PreparedStatement;
 
 public class SqlUtils {
 	
@@ -29,4 +33,19 @@ public class SqlUtils {
 		return URLDecoder.decode( str, "UTF-8" );
 	}
 	
+	/**
+	 * Prepare a query whose result set is streamed from the server row by row (MySQL Connector/J reads the whole result set into memory otherwise). The
+	 * connection cannot run other statements until the result set is closed.
+	 * 
+	 * @param conn
+	 * @param sql
+	 * @return
+	 * @throws SQLException
+	 */
+	public static PreparedStatement prepareStreaming( Connection conn, String sql ) throws SQLException {
+		PreparedStatement ps = conn.prepareStatement( sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY );
+		ps.setFetchSize( Integer.MIN_VALUE );
+		return ps;
+	}
+	
 }
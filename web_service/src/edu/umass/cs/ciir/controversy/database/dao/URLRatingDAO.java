@@ -1,16 +1,14 @@
 package edu.umass.cs.ciir.controversy.database.dao;
 
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.ResultSet;
+import java.sql.PreparedStatement;
 import java.sql.Statement;
 import java.sql.SQLException;
-import java.util.ArrayList;
+import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.List;
-import java.util.Set;
-import java.util.TreeSet;
 
-import utils.db.SqlUtils;
 import edu.umass.cs.ciir.controversy.Settings;
 import edu.umass.cs.ciir.controversy.database.ConnectionPool;
 import edu.umass.cs.ciir.controversy.database.entity.URLRating;
@@ -23,10 +21,17 @@ public class URLRatingDAO {
 	public static final String COLUME_TIME = "timestamp";
 	public static final String COLUME_RATING = "rating";
 	
+	// the latest rating of each user, url and text (identified by RequestDAO.digest())
+	public static final String TABLE_LATEST = "url_rating_latest";
+	public static final String COLUME_DIGEST = "digest";
+	
+	private static final RatingCache<Integer> cache = new RatingCache<Integer>( 10000 );
+	
 	public static void dropTable() throws SQLException {
 		Connection conn = ConnectionPool.getConnectionUpdate();
 		Statement st = conn.createStatement();
 		st.execute( "DROP TABLE IF EXISTS `" + TABLE + "`;" );
+		st.execute( "DROP TABLE IF EXISTS `" + TABLE_LATEST + "`;" );
 		st.close();
 		conn.close();
 	}
@@ -35,8 +40,16 @@ public class URLRatingDAO {
 		Connection conn = ConnectionPool.getConnectionUpdate();
 		Statement st = conn.createStatement();
 		st.execute( createTableSql() );
+		st.execute( createTableLatestSql() );
+		ResultSet rs = st.executeQuery( "SELECT 1 FROM `" + TABLE_LATEST + "` LIMIT 1" );
+		boolean empty = !rs.next();
+		rs.close();
 		st.close();
 		conn.close();
+		if ( empty ) {
+			// a new latest-rating table is filled from the existing ratings
+			rebuildLatest();
+		}
 	}
 	
 	private static String createTableSql() {
@@ -51,89 +64,245 @@ public class URLRatingDAO {
 				+ "DEFAULT CHARACTER SET = utf8;";
 	}
 	
+	private static String createTableLatestSql() {
+		return "CREATE TABLE IF NOT EXISTS `" + TABLE_LATEST + "` (" + "\n"
+				+ "  `" + COLUME_DIGEST + "` CHAR(40) CHARACTER SET ascii NOT NULL," + "\n"
+				+ "  `" + COLUME_REQUESTID + "` BIGINT(64) UNSIGNED NOT NULL," + "\n"
+				+ "  `" + COLUME_TIME + "` BIGINT(64) UNSIGNED NOT NULL," + "\n"
+				+ "  `" + COLUME_RATING + "` INT NOT NULL," + "\n"
+				+ "  PRIMARY KEY (`" + COLUME_DIGEST + "`))" + "\n"
+				+ "ENGINE = InnoDB" + "\n"
+				+ "DEFAULT CHARACTER SET = utf8;";
+	}
+	
+	private static final String SQL_ADD = "INSERT INTO `" + TABLE + "`(" + COLUME_REQUESTID + "," + COLUME_TIME + "," + COLUME_RATING + ") VALUES(?,?,?)";
+	
+	private static final String SQL_LAST_RATING = "SELECT " + URLRatingDAO.COLUME_RATING + " \n"
+			+ "FROM " + RequestDAO.TABLE + ", " + URLRatingDAO.TABLE + " \n"
+			+ "WHERE " + RequestDAO.TABLE + "." + RequestDAO.COLUME_ID + " = " + URLRatingDAO.TABLE + "." + URLRatingDAO.COLUME_REQUESTID + " \n"
+			+ "AND " + RequestDAO.COLUME_USER + " = ? AND " + RequestDAO.COLUME_URL + " = ? \n"
+			+ "ORDER BY " + URLRatingDAO.TABLE + "." + URLRatingDAO.COLUME_TIME + " DESC" + "\n"
+			+ "LIMIT 1";
+	
+	private static final String SQL_LAST_RATING_DIGEST = "SELECT " + COLUME_RATING + " FROM `" + TABLE_LATEST + "` WHERE " + COLUME_DIGEST + " = ?";
+	
+	// an older rating (e.g., replayed by rebuildLatest()) never replaces a newer one; timestamp must be updated last
+	// (columns are qualified because they are ambiguous in the join of rebuildLatest())
+	private static final String SQL_UPDATE_LATEST = " ON DUPLICATE KEY UPDATE " + "\n"
+			+ TABLE_LATEST + "." + COLUME_REQUESTID + " = IF(VALUES(" + COLUME_TIME + ") >= " + TABLE_LATEST + "." + COLUME_TIME + ", VALUES(" + COLUME_REQUESTID + "), " + TABLE_LATEST + "." + COLUME_REQUESTID + ")," + "\n"
+			+ TABLE_LATEST + "." + COLUME_RATING + " = IF(VALUES(" + COLUME_TIME + ") >= " + TABLE_LATEST + "." + COLUME_TIME + ", VALUES(" + COLUME_RATING + "), " + TABLE_LATEST + "." + COLUME_RATING + ")," + "\n"
+			+ TABLE_LATEST + "." + COLUME_TIME + " = GREATEST(" + TABLE_LATEST + "." + COLUME_TIME + ", VALUES(" + COLUME_TIME + "))";
+	
+	private static final String SQL_ADD_LATEST = "INSERT INTO `" + TABLE_LATEST + "`(" + COLUME_DIGEST + "," + COLUME_REQUESTID + "," + COLUME_TIME + "," + COLUME_RATING + ") VALUES(?,?,?,?)" + "\n"
+			+ SQL_UPDATE_LATEST;
+	
+	private static final String SQL_REBUILD_LATEST = "INSERT INTO `" + TABLE_LATEST + "`(" + COLUME_DIGEST + "," + COLUME_REQUESTID + "," + COLUME_TIME + "," + COLUME_RATING + ")" + "\n"
+			+ "SELECT " + RequestDAO.SQL_DIGEST + ", " + TABLE + "." + COLUME_REQUESTID + ", " + TABLE + "." + COLUME_TIME + ", " + TABLE + "." + COLUME_RATING + "\n"
+			+ "FROM " + RequestDAO.TABLE + ", " + TABLE + "\n"
+			+ "WHERE " + RequestDAO.TABLE + "." + RequestDAO.COLUME_ID + " = " + TABLE + "." + COLUME_REQUESTID + "\n"
+			+ SQL_UPDATE_LATEST;
+	
+	/**
+	 * Store a rating without updating the latest ratings (use add(URLRating, String) where the digest of the rated request is known).
+	 * 
+	 * @param rating
+	 * @throws SQLException
+	 */
 	public static void add( URLRating rating ) throws SQLException {
+		add( rating, null );
+	}
+	
+	/**
+	 * Store a rating and make it the latest rating of the user, url and text of the rated request.
+	 * 
+	 * @param rating
+	 * @param digest
+	 *            Digest of the rated request (see RequestDAO.digest()), or null if unknown; the latest ratings are not updated then.
+	 * @throws SQLException
+	 */
+	public static void add( URLRating rating, String digest ) throws SQLException {
 		Connection conn = ConnectionPool.getConnectionUpdate();
-		Statement st = conn.createStatement();
-		st.executeUpdate( addSql( rating ) );
-		st.close();
-		conn.close();
+		PreparedStatement ps = conn.prepareStatement( SQL_ADD );
+		try {
+			ps.setLong( 1, rating.getRequestid() );
+			ps.setLong( 2, rating.getTimestamp() );
+			ps.setInt( 3, rating.getRating() );
+			ps.executeUpdate();
+			if ( digest != null ) {
+				PreparedStatement ps_latest = conn.prepareStatement( SQL_ADD_LATEST );
+				ps_latest.setString( 1, digest );
+				ps_latest.setLong( 2, rating.getRequestid() );
+				ps_latest.setLong( 3, rating.getTimestamp() );
+				ps_latest.setInt( 4, rating.getRating() );
+				ps_latest.executeUpdate();
+				ps_latest.close();
+				cache.invalidate( digest );
+			}
+		} finally {
+			ps.close();
+			conn.close();
+		}
 	}
 	
-	private static String addSql( URLRating rating ) {
-		return "INSERT INTO `" + TABLE + "`(" + COLUME_REQUESTID + "," + COLUME_TIME + "," + COLUME_RATING + ") VALUES(" + rating.getRequestid() + "," + rating.getTimestamp() + "," + rating.getRating() + ")";
+	/**
+	 * Refill the latest ratings from all stored ratings (e.g., after the latest-rating table was created or lost).
+	 * 
+	 * @throws SQLException
+	 */
+	public static void rebuildLatest() throws SQLException {
+		Connection conn = ConnectionPool.getConnectionUpdate();
+		PreparedStatement ps = conn.prepareStatement( SQL_REBUILD_LATEST );
+		try {
+			ps.executeUpdate();
+		} finally {
+			ps.close();
+			conn.close();
+		}
+		cache.clear();
 	}
 	
 	public static Integer searchLastRating( String userid, String url ) throws SQLException {
 		Connection conn = ConnectionPool.getConnectionUpdate();
-		Statement st = conn.createStatement();
-		String sql_search = "SELECT " + URLRatingDAO.COLUME_RATING + " \n"
-				+ "FROM " + RequestDAO.TABLE + ", " + URLRatingDAO.TABLE + " \n"
-				+ "WHERE " + RequestDAO.TABLE + "." + RequestDAO.COLUME_ID + " = " + URLRatingDAO.TABLE + "." + URLRatingDAO.COLUME_REQUESTID + " \n"
-				+ "AND " + RequestDAO.COLUME_USER + " = '" + SqlUtils.format( userid ) + "' AND " + RequestDAO.COLUME_URL + " = '" + SqlUtils.format( url ) + "' \n"
-				+ "ORDER BY " + URLRatingDAO.TABLE + "." + URLRatingDAO.COLUME_TIME + " DESC" + "\n"
-				+ "LIMIT 1";
-		ResultSet rs = st.executeQuery( sql_search );
+		PreparedStatement ps = conn.prepareStatement( SQL_LAST_RATING );
 		Integer rating = null;
-		if ( rs.next() ) {
-			rating = rs.getInt( 1 );
+		try {
+			ps.setString( 1, userid == null ? "" : userid );
+			ps.setString( 2, url == null ? "" : url );
+			ResultSet rs = ps.executeQuery();
+			if ( rs.next() ) {
+				rating = rs.getInt( 1 );
+			}
+			rs.close();
+		} finally {
+			ps.close();
+			conn.close();
 		}
-		rs.close();
-		st.close();
-		conn.close();
 		return rating;
 	}
 	
+	/**
+	 * The latest rating of the user on the url and text (empty for url requests), read from the latest-rating table (or the cache).
+	 * 
+	 * @param userid
+	 * @param url
+	 * @param text
+	 * @return
+	 * @throws SQLException
+	 */
 	public static Integer searchLastRating( String userid, String url, String text ) throws SQLException {
-		Connection conn = ConnectionPool.getConnectionUpdate();
-		Statement st = conn.createStatement();
-		String sql_search = "SELECT " + RequestDAO.COLUME_TEXT + ", " + URLRatingDAO.COLUME_RATING + " \n"
-				+ "FROM " + RequestDAO.TABLE + ", " + URLRatingDAO.TABLE + " \n"
-				+ "WHERE " + RequestDAO.TABLE + "." + RequestDAO.COLUME_ID + " = " + URLRatingDAO.TABLE + "." + URLRatingDAO.COLUME_REQUESTID + " \n"
-				+ "AND " + RequestDAO.COLUME_USER + " = '" + SqlUtils.format( userid ) + "' AND " + RequestDAO.COLUME_URL + " = '" + SqlUtils.format( url ) + "' AND " + RequestDAO.COLUME_TEXTHASH + " = " + text.hashCode() + " \n"
-				+ "ORDER BY " + URLRatingDAO.TABLE + "." + URLRatingDAO.COLUME_TIME + " DESC";
-		ResultSet rs = st.executeQuery( sql_search );
+		String digest = RequestDAO.digest( userid, url, text );
+		RatingCache.Cached<Integer> cached = cache.lookup( digest );
+		if ( cached != null ) {
+			return cached.value;
+		}
+		long version = cache.version();
+		Connection conn = ConnectionPool.getConnectionSearch();
+		PreparedStatement ps = conn.prepareStatement( SQL_LAST_RATING_DIGEST );
 		Integer rating = null;
-		while ( rs.next() ) {
-			if ( text.equals( rs.getString( 1 ) ) ) {
-				rating = rs.getInt( 2 );
-				break;
+		try {
+			ps.setString( 1, digest );
+			ResultSet rs = ps.executeQuery();
+			if ( rs.next() ) {
+				rating = rs.getInt( 1 );
 			}
+			rs.close();
+		} finally {
+			ps.close();
+			conn.close();
 		}
-		rs.close();
-		st.close();
-		conn.close();
+		cache.put( digest, rating, version );
 		return rating;
 	}
 	
+	private static final String SQL_DUMP_LATEST = "SELECT " + RequestDAO.TABLE + "." + RequestDAO.COLUME_USER + ", " + TABLE_LATEST + "." + COLUME_TIME + ", " + RequestDAO.TABLE + "." + RequestDAO.COLUME_URL + ", " + TABLE_LATEST + "." + COLUME_RATING + ", " + RequestDAO.SQL_TEXT_COLUMNS + "\n"
+			+ "FROM " + TABLE_LATEST + ", " + RequestDAO.TABLE + RequestDAO.SQL_JOIN_TEXT + "\n"
+			+ "WHERE " + RequestDAO.TABLE + "." + RequestDAO.COLUME_ID + " = " + TABLE_LATEST + "." + COLUME_REQUESTID + " AND " + TABLE_LATEST + "." + COLUME_DIGEST + " > ?" + "\n"
+			+ "AND ( ? = '' OR " + TABLE_LATEST + "." + COLUME_DIGEST + " <= ? )" + "\n"
+			+ "ORDER BY " + TABLE_LATEST + "." + COLUME_DIGEST;
+	
+	// the same rows as SQL_DUMP_LATEST (latest ratings of requests that exist)
+	private static final String SQL_DUMP_CURSOR = "SELECT " + TABLE_LATEST + "." + COLUME_DIGEST + "\n"
+			+ "FROM " + TABLE_LATEST + ", " + RequestDAO.TABLE + "\n"
+			+ "WHERE " + RequestDAO.TABLE + "." + RequestDAO.COLUME_ID + " = " + TABLE_LATEST + "." + COLUME_REQUESTID + " AND " + TABLE_LATEST + "." + COLUME_DIGEST + " > ?" + "\n"
+			+ "ORDER BY " + TABLE_LATEST + "." + COLUME_DIGEST + "\n"
+			+ "LIMIT ?, 2";
+	
 	/**
-	 * Dump the latest rating of users for each URL.
+	 * Dump the latest rating of users for each url and text. Ratings are read from the latest-rating table (one row per user, url and text) in the
+	 * order of their digests, and streamed to the handler row by row, so the dump takes constant memory. A page of the dump is bounded by cursors rather
+	 * than by a number of ratings: a page ending at the cursor sent for the next page (see nextDumpCursor()) includes ratings upserted into it in the
+	 * meanwhile, so the next page starting after that cursor misses none of them.
+	 * 
+	 * @param after
+	 *            Dump ratings after this cursor (see nextDumpCursor()); null or empty to start from the first rating.
+	 * @param until
+	 *            Dump ratings up to and including this cursor (the cursor of the next page); null or empty to dump until the last rating.
+	 * @param handler
+	 *            Receives { user, time, url, rating, text } for each rating.
+	 * @throws SQLException
+	 * @throws IOException
 	 */
-	public static List<Object[]> dumpLastestRatings() throws SQLException {
-		Set<String> processed = new TreeSet<String>();
-		List<Object[]> ratings = new ArrayList<Object[]>();
-		Connection conn = ConnectionPool.getConnectionUpdate();
-		Statement st = conn.createStatement();
-		ResultSet rs = st.executeQuery( "SELECT " + RequestDAO.COLUME_USER + ", " + URLRatingDAO.TABLE + "." + URLRatingDAO.COLUME_TIME + ", " + RequestDAO.COLUME_URL + ", " + URLRatingDAO.COLUME_RATING + ", " + RequestDAO.COLUME_TEXT + " " + "\n"
-				+ "FROM " + RequestDAO.TABLE + ", " + URLRatingDAO.TABLE + " " + "\n"
-				+ "WHERE " + RequestDAO.TABLE + "." + RequestDAO.COLUME_ID + " = " + URLRatingDAO.TABLE + "." + URLRatingDAO.COLUME_REQUESTID + " " + "\n"
-				+ "ORDER BY " + URLRatingDAO.TABLE + "." + URLRatingDAO.COLUME_TIME + " DESC;" );
-		while ( rs.next() ) {
-			String user = rs.getString( 1 );
-			long timestamp = rs.getLong( 2 );
-			String url = rs.getString( 3 );
-			int rating = rs.getInt( 4 );
-			String text = rs.getString( 5 );
-			String key = user + url + text;
-			if ( !processed.contains( key ) ) {
-				// only dump the latest rating for each URL
-				processed.add( key );
-				ratings.add( new Object[] { user, Settings.TIME_FORMAT_MS.format( new Date( timestamp ) ), url, rating, text } );
+	public static void dumpLatestRatings( String after, String until, RowHandler<Object[]> handler ) throws SQLException, IOException {
+		SimpleDateFormat format = (SimpleDateFormat) Settings.TIME_FORMAT_MS.clone();
+		Connection conn = ConnectionPool.getConnectionSearch();
+		PreparedStatement ps = SqlUtils.prepareStreaming( conn, SQL_DUMP_LATEST );
+		try {
+			ps.setString( 1, after == null ? "" : after );
+			ps.setString( 2, until == null ? "" : until );
+			ps.setString( 3, until == null ? "" : until );
+			ResultSet rs = ps.executeQuery();
+			try {
+				Object[] row = new Object[5];
+				while ( rs.next() ) {
+					row[0] = rs.getString( 1 );
+					row[1] = format.format( new Date( rs.getLong( 2 ) ) );
+					row[2] = rs.getString( 3 );
+					row[3] = rs.getInt( 4 );
+					row[4] = BlobDAO.decode( rs.getBytes( 6 ), rs.getInt( 5 ) );
+					handler.handle( row );
+				}
+			} finally {
+				rs.close();
 			}
+		} finally {
+			ps.close();
+			conn.close();
 		}
-		rs.close();
-		st.close();
-		conn.close();
-		return ratings;
+	}
+	
+	/**
+	 * @param after
+	 *            Cursor of the current page of a dump (null or empty for the first page).
+	 * @param limit
+	 *            Number of ratings of a page.
+	 * @return Cursor of the next page of the dump, or null if the current page is the last one; the current page is dumped until this cursor (pass it
+	 *         as "until" to dumpLatestRatings()), and the next page after it (pass it as "after").
+	 * @throws SQLException
+	 */
+	public static String nextDumpCursor( String after, long limit ) throws SQLException {
+		if ( limit <= 0 ) {
+			return null;
+		}
+		Connection conn = ConnectionPool.getConnectionSearch();
+		PreparedStatement ps = conn.prepareStatement( SQL_DUMP_CURSOR );
+		String cursor = null;
+		try {
+			ps.setString( 1, after == null ? "" : after );
+			ps.setLong( 2, limit - 1 );
+			ResultSet rs = ps.executeQuery();
+			// the last digest of the page, if another rating follows it
+			if ( rs.next() ) {
+				String last = rs.getString( 1 );
+				if ( rs.next() ) {
+					cursor = last;
+				}
+			}
+			rs.close();
+		} finally {
+			ps.close();
+			conn.close();
+		}
+		return cursor;
 	}
 	
 }
@@ -1,30 +1,23 @@
 package edu.umass.cs.ciir.controversy.database.dao;
 
-import java.io.File;
 import java.io.IOException;
 import java.sql.ResultSet;
+import java.sql.PreparedStatement;
 import java.sql.Statement;
 import java.sql.Connection;
 import java.sql.SQLException;
-import java.util.ArrayList;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.TreeMap;
-import java.util.TreeSet;
 
-import org.apache.lucene.index.DirectoryReader;
-import org.apache.lucene.index.IndexReader;
-import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
-
-import utils.db.SqlUtils;
-import utils.ir.lucene.LuceneUtils;
-import edu.umass.cs.ciir.controversy.LuceneWikiIndexSettings;
+import utils.StringUtils;
 import edu.umass.cs.ciir.controversy.Settings;
 import edu.umass.cs.ciir.controversy.database.ConnectionPool;
 import edu.umass.cs.ciir.controversy.database.entity.WikiEntryRating;
+import edu.umass.cs.ciir.controversy.knn.sim.WikiEntryDictionary;
 
 public class WikiEntryRatingDAO {
 	
@@ -35,10 +28,18 @@ public class WikiEntryRatingDAO {
 	public static final String COLUME_ENTRY = "entry";
 	public static final String COLUME_RATING = "rating";
 	
+	// the latest rating of each entry by each user, url and text (identified by RequestDAO.digest())
+	public static final String TABLE_LATEST = "wikientry_rating_latest";
+	public static final String COLUME_DIGEST = "digest";
+	public static final String COLUME_ENTRY_DIGEST = "entry_digest";
+	
+	private static final RatingCache<Map<String, Integer>> cache = new RatingCache<Map<String, Integer>>( 10000 );
+	
 	public static void dropTable() throws SQLException {
 		Connection conn = ConnectionPool.getConnectionUpdate();
 		Statement st = conn.createStatement();
 		st.execute( "DROP TABLE IF EXISTS `" + TABLE + "`;" );
+		st.execute( "DROP TABLE IF EXISTS `" + TABLE_LATEST + "`;" );
 		st.close();
 		conn.close();
 	}
@@ -47,8 +48,16 @@ public class WikiEntryRatingDAO {
 		Connection conn = ConnectionPool.getConnectionUpdate();
 		Statement st = conn.createStatement();
 		st.execute( createTableSql() );
+		st.execute( createTableLatestSql() );
+		ResultSet rs = st.executeQuery( "SELECT 1 FROM `" + TABLE_LATEST + "` LIMIT 1" );
+		boolean empty = !rs.next();
+		rs.close();
 		st.close();
 		conn.close();
+		if ( empty ) {
+			// a new latest-rating table is filled from the existing ratings
+			rebuildLatest();
+		}
 	}
 	
 	private static String createTableSql() {
@@ -65,108 +74,290 @@ public class WikiEntryRatingDAO {
 				+ "DEFAULT CHARACTER SET = utf8;";
 	}
 	
+	private static String createTableLatestSql() {
+		// entries are keyed by their digest to keep the primary key short
+		return "CREATE TABLE IF NOT EXISTS `" + TABLE_LATEST + "` (" + "\n"
+				+ "  `" + COLUME_DIGEST + "` CHAR(40) CHARACTER SET ascii NOT NULL," + "\n"
+				+ "  `" + COLUME_ENTRY_DIGEST + "` CHAR(40) CHARACTER SET ascii NOT NULL," + "\n"
+				+ "  `" + COLUME_ENTRY + "` VARCHAR(333) NOT NULL," + "\n"
+				+ "  `" + COLUME_REQUESTID + "` BIGINT(64) UNSIGNED NOT NULL," + "\n"
+				+ "  `" + COLUME_TIME + "` BIGINT(64) UNSIGNED NOT NULL," + "\n"
+				+ "  `" + COLUME_RATING + "` INT NOT NULL," + "\n"
+				+ "  PRIMARY KEY (`" + COLUME_DIGEST + "`, `" + COLUME_ENTRY_DIGEST + "`))" + "\n"
+				+ "ENGINE = InnoDB" + "\n"
+				+ "DEFAULT CHARACTER SET = utf8;";
+	}
+	
+	private static final String SQL_ADD = "INSERT INTO `" + TABLE + "`(" + COLUME_REQUESTID + "," + COLUME_TIME + "," + COLUME_ENTRY + "," + COLUME_RATING + ") VALUES(?,?,?,?)";
+	
+	private static final String SQL_LAST_RATING = "SELECT " + WikiEntryRatingDAO.COLUME_ENTRY + ", " + WikiEntryRatingDAO.COLUME_RATING + " \n"
+			+ "FROM " + RequestDAO.TABLE + ", " + WikiEntryRatingDAO.TABLE + " \n"
+			+ "WHERE " + RequestDAO.TABLE + "." + RequestDAO.COLUME_ID + " = " + WikiEntryRatingDAO.TABLE + "." + WikiEntryRatingDAO.COLUME_REQUESTID + " \n"
+			+ "AND " + RequestDAO.COLUME_USER + " = ? AND " + RequestDAO.COLUME_URL + " = ? \n"
+			+ "ORDER BY " + WikiEntryRatingDAO.TABLE + "." + WikiEntryRatingDAO.COLUME_TIME + " DESC";
+	
+	private static final String SQL_LAST_RATING_DIGEST = "SELECT " + COLUME_ENTRY + ", " + COLUME_RATING + " FROM `" + TABLE_LATEST + "` WHERE " + COLUME_DIGEST + " = ?";
+	
+	// an older rating (e.g., replayed by rebuildLatest()) never replaces a newer one; timestamp must be updated last
+	// (columns are qualified because they are ambiguous in the join of rebuildLatest())
+	private static final String SQL_UPDATE_LATEST = " ON DUPLICATE KEY UPDATE " + "\n"
+			+ TABLE_LATEST + "." + COLUME_REQUESTID + " = IF(VALUES(" + COLUME_TIME + ") >= " + TABLE_LATEST + "." + COLUME_TIME + ", VALUES(" + COLUME_REQUESTID + "), " + TABLE_LATEST + "." + COLUME_REQUESTID + ")," + "\n"
+			+ TABLE_LATEST + "." + COLUME_RATING + " = IF(VALUES(" + COLUME_TIME + ") >= " + TABLE_LATEST + "." + COLUME_TIME + ", VALUES(" + COLUME_RATING + "), " + TABLE_LATEST + "." + COLUME_RATING + ")," + "\n"
+			+ TABLE_LATEST + "." + COLUME_TIME + " = GREATEST(" + TABLE_LATEST + "." + COLUME_TIME + ", VALUES(" + COLUME_TIME + "))";
+	
+	private static final String SQL_ADD_LATEST = "INSERT INTO `" + TABLE_LATEST + "`(" + COLUME_DIGEST + "," + COLUME_ENTRY_DIGEST + "," + COLUME_ENTRY + "," + COLUME_REQUESTID + "," + COLUME_TIME + "," + COLUME_RATING + ") VALUES(?,?,?,?,?,?)" + "\n"
+			+ SQL_UPDATE_LATEST;
+	
+	private static final String SQL_REBUILD_LATEST = "INSERT INTO `" + TABLE_LATEST + "`(" + COLUME_DIGEST + "," + COLUME_ENTRY_DIGEST + "," + COLUME_ENTRY + "," + COLUME_REQUESTID + "," + COLUME_TIME + "," + COLUME_RATING + ")" + "\n"
+			+ "SELECT " + RequestDAO.SQL_DIGEST + ", SHA1(" + TABLE + "." + COLUME_ENTRY + "), " + TABLE + "." + COLUME_ENTRY + ", " + TABLE + "." + COLUME_REQUESTID + ", " + TABLE + "." + COLUME_TIME + ", " + TABLE + "." + COLUME_RATING + "\n"
+			+ "FROM " + RequestDAO.TABLE + ", " + TABLE + "\n"
+			+ "WHERE " + RequestDAO.TABLE + "." + RequestDAO.COLUME_ID + " = " + TABLE + "." + COLUME_REQUESTID + "\n"
+			+ SQL_UPDATE_LATEST;
+	
+	/**
+	 * Store a rating without updating the latest ratings (use add(List, String) where the digest of the rated request is known).
+	 * 
+	 * @param rating
+	 * @throws SQLException
+	 */
 	public static void add( WikiEntryRating rating ) throws SQLException {
+		add( Collections.singletonList( rating ), null );
+	}
+	
+	/**
+	 * Insert several ratings of one request (e.g., all entry ratings of one submission) in one JDBC batch, and make them the latest ratings of the user,
+	 * url and text of the request.
+	 * 
+	 * @param ratings
+	 * @param digest
+	 *            Digest of the rated request (see RequestDAO.digest()), or null if unknown; the latest ratings are not updated then.
+	 * @throws SQLException
+	 */
+	public static void add( List<WikiEntryRating> ratings, String digest ) throws SQLException {
+		if ( ratings.isEmpty() ) {
+			return;
+		}
 		Connection conn = ConnectionPool.getConnectionUpdate();
-		Statement st = conn.createStatement();
-		st.executeUpdate( addSql( rating ) );
-		st.close();
-		conn.close();
+		PreparedStatement ps = conn.prepareStatement( SQL_ADD );
+		try {
+			for ( WikiEntryRating rating : ratings ) {
+				ps.setLong( 1, rating.getRequestid() );
+				ps.setLong( 2, rating.getTimestamp() );
+				ps.setString( 3, rating.getEntry() );
+				ps.setInt( 4, rating.getRating() );
+				ps.addBatch();
+			}
+			ps.executeBatch();
+			if ( digest != null ) {
+				PreparedStatement ps_latest = conn.prepareStatement( SQL_ADD_LATEST );
+				for ( WikiEntryRating rating : ratings ) {
+					ps_latest.setString( 1, digest );
+					ps_latest.setString( 2, StringUtils.sha1( rating.getEntry() ) );
+					ps_latest.setString( 3, rating.getEntry() );
+					ps_latest.setLong( 4, rating.getRequestid() );
+					ps_latest.setLong( 5, rating.getTimestamp() );
+					ps_latest.setInt( 6, rating.getRating() );
+					ps_latest.addBatch();
+				}
+				ps_latest.executeBatch();
+				ps_latest.close();
+				cache.invalidate( digest );
+			}
+		} finally {
+			ps.close();
+			conn.close();
+		}
 	}
 	
-	private static String addSql( WikiEntryRating rating ) {
-		return "INSERT INTO `" + TABLE + "`(" + COLUME_REQUESTID + "," + COLUME_TIME + "," + COLUME_ENTRY + "," + COLUME_RATING + ") VALUES(" + rating.getRequestid() + "," + rating.getTimestamp() + ",'" + SqlUtils.format( rating.getEntry() ) + "'," + rating.getRating() + ")";
+	/**
+	 * Refill the latest ratings from all stored ratings (e.g., after the latest-rating table was created or lost).
+	 * 
+	 * @throws SQLException
+	 */
+	public static void rebuildLatest() throws SQLException {
+		Connection conn = ConnectionPool.getConnectionUpdate();
+		PreparedStatement ps = conn.prepareStatement( SQL_REBUILD_LATEST );
+		try {
+			ps.executeUpdate();
+		} finally {
+			ps.close();
+			conn.close();
+		}
+		cache.clear();
 	}
 	
 	public static Map<String, Integer> searchLastRating( String userid, String url ) throws SQLException {
 		Connection conn = ConnectionPool.getConnectionUpdate();
-		Statement st = conn.createStatement();
-		String sql_search = "SELECT " + WikiEntryRatingDAO.COLUME_ENTRY + ", " + WikiEntryRatingDAO.COLUME_RATING + " \n"
-				+ "FROM " + RequestDAO.TABLE + ", " + WikiEntryRatingDAO.TABLE + " \n"
-				+ "WHERE " + RequestDAO.TABLE + "." + RequestDAO.COLUME_ID + " = " + WikiEntryRatingDAO.TABLE + "." + WikiEntryRatingDAO.COLUME_REQUESTID + " \n"
-				+ "AND " + RequestDAO.COLUME_USER + " = '" + SqlUtils.format( userid ) + "' AND " + RequestDAO.COLUME_URL + " = '" + SqlUtils.format( url ) + "' \n"
-				+ "ORDER BY " + WikiEntryRatingDAO.TABLE + "." + WikiEntryRatingDAO.COLUME_TIME + " DESC";
-		ResultSet rs = st.executeQuery( sql_search );
+		PreparedStatement ps = conn.prepareStatement( SQL_LAST_RATING );
 		Map<String, Integer> ratings = new TreeMap<String, Integer>();
-		while ( rs.next() ) {
-			String entry = rs.getString( 1 );
-			int rating = rs.getInt( 2 );
-			if ( !ratings.containsKey( entry ) ) {
-				ratings.put( entry, rating );
+		try {
+			ps.setString( 1, userid == null ? "" : userid );
+			ps.setString( 2, url == null ? "" : url );
+			ResultSet rs = ps.executeQuery();
+			while ( rs.next() ) {
+				String entry = rs.getString( 1 );
+				int rating = rs.getInt( 2 );
+				if ( !ratings.containsKey( entry ) ) {
+					ratings.put( entry, rating );
+				}
 			}
+			rs.close();
+		} finally {
+			ps.close();
+			conn.close();
 		}
-		rs.close();
-		st.close();
-		conn.close();
 		return ratings;
 	}
 	
+	/**
+	 * The latest ratings of the user on the entries for the url and text (empty for url requests), read from the latest-rating table (or the cache).
+	 * 
+	 * @param userid
+	 * @param url
+	 * @param text
+	 * @return A map from entries to ratings.
+	 * @throws SQLException
+	 */
 	public static Map<String, Integer> searchLastRating( String userid, String url, String text ) throws SQLException {
-		Connection conn = ConnectionPool.getConnectionUpdate();
-		Statement st = conn.createStatement();
-		String sql_search = "SELECT " + RequestDAO.COLUME_TEXT + ", " + WikiEntryRatingDAO.COLUME_ENTRY + ", " + WikiEntryRatingDAO.COLUME_RATING + " \n"
-				+ "FROM " + RequestDAO.TABLE + ", " + WikiEntryRatingDAO.TABLE + " \n"
-				+ "WHERE " + RequestDAO.TABLE + "." + RequestDAO.COLUME_ID + " = " + WikiEntryRatingDAO.TABLE + "." + WikiEntryRatingDAO.COLUME_REQUESTID + " \n"
-				+ "AND " + RequestDAO.COLUME_USER + " = '" + SqlUtils.format( userid ) + "' AND " + RequestDAO.COLUME_URL + " = '" + SqlUtils.format( url ) + "' AND " + RequestDAO.COLUME_TEXTHASH + " = " + text.hashCode() + " \n"
-				+ "ORDER BY " + WikiEntryRatingDAO.TABLE + "." + WikiEntryRatingDAO.COLUME_TIME + " DESC";
-		ResultSet rs = st.executeQuery( sql_search );
+		String digest = RequestDAO.digest( userid, url, text );
+		RatingCache.Cached<Map<String, Integer>> cached = cache.lookup( digest );
+		if ( cached != null ) {
+			return new TreeMap<String, Integer>( cached.value );
+		}
+		long version = cache.version();
+		Connection conn = ConnectionPool.getConnectionSearch();
+		PreparedStatement ps = conn.prepareStatement( SQL_LAST_RATING_DIGEST );
 		Map<String, Integer> ratings = new TreeMap<String, Integer>();
-		while ( rs.next() ) {
-			if ( text.equals( rs.getString( 1 ) ) ) {
-				String entry = rs.getString( 2 );
-				int rating = rs.getInt( 3 );
-				if ( !ratings.containsKey( entry ) ) {
-					ratings.put( entry, rating );
-				}
+		try {
+			ps.setString( 1, digest );
+			ResultSet rs = ps.executeQuery();
+			while ( rs.next() ) {
+				ratings.put( rs.getString( 1 ), rs.getInt( 2 ) );
 			}
+			rs.close();
+		} finally {
+			ps.close();
+			conn.close();
 		}
-		rs.close();
-		st.close();
-		conn.close();
-		return ratings;
+		cache.put( digest, ratings, version );
+		return new TreeMap<String, Integer>( ratings );
+	}
+	
+	private static final String SQL_DUMP_LATEST = "SELECT " + RequestDAO.TABLE + "." + RequestDAO.COLUME_USER + ", " + TABLE_LATEST + "." + COLUME_TIME + ", " + RequestDAO.TABLE + "." + RequestDAO.COLUME_URL + ", " + TABLE_LATEST + "." + COLUME_ENTRY + ", " + TABLE_LATEST + "." + COLUME_RATING + ", " + RequestDAO.SQL_TEXT_COLUMNS + "\n"
+			+ "FROM " + TABLE_LATEST + ", " + RequestDAO.TABLE + RequestDAO.SQL_JOIN_TEXT + "\n"
+			+ "WHERE " + RequestDAO.TABLE + "." + RequestDAO.COLUME_ID + " = " + TABLE_LATEST + "." + COLUME_REQUESTID + "\n"
+			+ "AND ( " + TABLE_LATEST + "." + COLUME_DIGEST + " > ? OR ( " + TABLE_LATEST + "." + COLUME_DIGEST + " = ? AND " + TABLE_LATEST + "." + COLUME_ENTRY_DIGEST + " > ? ) )" + "\n"
+			+ "AND ( ? = '' OR " + TABLE_LATEST + "." + COLUME_DIGEST + " < ? OR ( " + TABLE_LATEST + "." + COLUME_DIGEST + " = ? AND " + TABLE_LATEST + "." + COLUME_ENTRY_DIGEST + " <= ? ) )" + "\n"
+			+ "ORDER BY " + TABLE_LATEST + "." + COLUME_DIGEST + ", " + TABLE_LATEST + "." + COLUME_ENTRY_DIGEST;
+	
+	// the same rows as SQL_DUMP_LATEST (latest ratings of requests that exist)
+	private static final String SQL_DUMP_CURSOR = "SELECT " + TABLE_LATEST + "." + COLUME_DIGEST + ", " + TABLE_LATEST + "." + COLUME_ENTRY_DIGEST + "\n"
+			+ "FROM " + TABLE_LATEST + ", " + RequestDAO.TABLE + "\n"
+			+ "WHERE " + RequestDAO.TABLE + "." + RequestDAO.COLUME_ID + " = " + TABLE_LATEST + "." + COLUME_REQUESTID + "\n"
+			+ "AND ( " + TABLE_LATEST + "." + COLUME_DIGEST + " > ? OR ( " + TABLE_LATEST + "." + COLUME_DIGEST + " = ? AND " + TABLE_LATEST + "." + COLUME_ENTRY_DIGEST + " > ? ) )" + "\n"
+			+ "ORDER BY " + TABLE_LATEST + "." + COLUME_DIGEST + ", " + TABLE_LATEST + "." + COLUME_ENTRY_DIGEST + "\n"
+			+ "LIMIT ?, 2";
+	
+	private static void setCursor( PreparedStatement ps, String after ) throws SQLException {
+		ps.setString( 1, getDigest( after ) );
+		ps.setString( 2, getDigest( after ) );
+		ps.setString( 3, getEntryDigest( after ) );
+	}
+	
+	// a cursor is the digest followed by the entry digest (see nextDumpCursor())
+	private static String getDigest( String cursor ) {
+		return cursor == null ? "" : cursor.substring( 0, Math.min( 40, cursor.length() ) );
+	}
+	
+	private static String getEntryDigest( String cursor ) {
+		return cursor == null || cursor.length() <= 40 ? "" : cursor.substring( 40 );
 	}
 	
 	/**
-	 * Dump the latest rating of wikipedia page relevance.
+	 * Dump the latest rating of wikipedia page relevance. Ratings are read from the latest-rating table (one row per user, url, text and entry) in the
+	 * order of their digests, and streamed to the handler row by row, so the dump takes constant memory. A page of the dump is bounded by cursors rather
+	 * than by a number of ratings, so ratings upserted into a page in the meanwhile are not missed (see URLRatingDAO.dumpLatestRatings()).
+	 * 
+	 * @param after
+	 *            Dump ratings after this cursor (see nextDumpCursor()); null or empty to start from the first rating.
+	 * @param until
+	 *            Dump ratings up to and including this cursor (the cursor of the next page); null or empty to dump until the last rating.
+	 * @param dictionary
+	 *            Maps entry keys to titles; entries not in the dictionary (or all entries if it is null) are dumped as keys.
+	 * @param handler
+	 *            Receives { user, time, url, text, entry title, rating } for each rating.
+	 * @throws SQLException
+	 * @throws IOException
 	 */
-	public static List<Object[]> dumpLastestRatings() throws SQLException, IOException {
-		
-		Directory dir = FSDirectory.open( new File( LuceneWikiIndexSettings.path_index ) );
-		IndexReader index = DirectoryReader.open( dir );
-		
-		Set<String> processed = new TreeSet<String>();
-		List<Object[]> ratings = new ArrayList<Object[]>();
-		Connection conn = ConnectionPool.getConnectionUpdate();
-		Statement st = conn.createStatement();
-		ResultSet rs = st.executeQuery( "SELECT " + RequestDAO.COLUME_USER + ", " + WikiEntryRatingDAO.TABLE + "." + WikiEntryRatingDAO.COLUME_TIME + ", " + RequestDAO.COLUME_URL + ", " + RequestDAO.COLUME_TEXT + ", " + WikiEntryRatingDAO.COLUME_ENTRY + ", " + WikiEntryRatingDAO.COLUME_RATING + "\n"
-				+ "FROM " + RequestDAO.TABLE + ", " + WikiEntryRatingDAO.TABLE + "\n"
-				+ "WHERE " + RequestDAO.TABLE + "." + RequestDAO.COLUME_ID + " = " + WikiEntryRatingDAO.TABLE + "." + WikiEntryRatingDAO.COLUME_REQUESTID + "\n"
-				+ "ORDER BY " + WikiEntryRatingDAO.TABLE + "." + WikiEntryRatingDAO.COLUME_TIME + " DESC;" );
-		while ( rs.next() ) {
-			String user = rs.getString( 1 );
-			long timestamp = rs.getLong( 2 );
-			String url = rs.getString( 3 );
-			String text = rs.getString( 4 );
-			String entry = rs.getString( 5 );
-			int docid = LuceneUtils.find( index, LuceneWikiIndexSettings.field_key, entry );
-			if ( docid >= 0 ) {
-				entry = index.document( docid ).get( LuceneWikiIndexSettings.field_title );
+	public static void dumpLatestRatings( String after, String until, WikiEntryDictionary dictionary, RowHandler<Object[]> handler ) throws SQLException, IOException {
+		SimpleDateFormat format = (SimpleDateFormat) Settings.TIME_FORMAT_MS.clone();
+		Connection conn = ConnectionPool.getConnectionSearch();
+		PreparedStatement ps = SqlUtils.prepareStreaming( conn, SQL_DUMP_LATEST );
+		try {
+			setCursor( ps, after );
+			ps.setString( 4, until == null ? "" : until );
+			ps.setString( 5, getDigest( until ) );
+			ps.setString( 6, getDigest( until ) );
+			ps.setString( 7, getEntryDigest( until ) );
+			ResultSet rs = ps.executeQuery();
+			try {
+				Object[] row = new Object[6];
+				while ( rs.next() ) {
+					String entry = rs.getString( 4 );
+					String title = dictionary == null ? null : dictionary.getTitle( entry );
+					if ( title != null ) {
+						entry = title;
+					}
+					row[0] = rs.getString( 1 );
+					row[1] = format.format( new Date( rs.getLong( 2 ) ) );
+					row[2] = rs.getString( 3 );
+					row[3] = BlobDAO.decode( rs.getBytes( 7 ), rs.getInt( 6 ) );
+					row[4] = entry;
+					row[5] = rs.getInt( 5 );
+					handler.handle( row );
+				}
+			} finally {
+				rs.close();
 			}
-			int rating = rs.getInt( 6 );
-			String key = user + url + text + entry;
-			if ( !processed.contains( key ) ) {
-				// only dump the latest rating for each URL
-				processed.add( key );
-				ratings.add( new Object[] { user, Settings.TIME_FORMAT_MS.format( new Date( timestamp ) ), url, text, entry, rating } );
+		} finally {
+			ps.close();
+			conn.close();
+		}
+	}
+	
+	/**
+	 * @param after
+	 *            Cursor of the current page of a dump (null or empty for the first page).
+	 * @param limit
+	 *            Number of ratings of a page.
+	 * @return Cursor of the next page of the dump, or null if the current page is the last one; the current page is dumped until this cursor (pass it
+	 *         as "until" to dumpLatestRatings()), and the next page after it (pass it as "after").
+	 * @throws SQLException
+	 */
+	public static String nextDumpCursor( String after, long limit ) throws SQLException {
+		if ( limit <= 0 ) {
+			return null;
+		}
+		Connection conn = ConnectionPool.getConnectionSearch();
+		PreparedStatement ps = conn.prepareStatement( SQL_DUMP_CURSOR );
+		String cursor = null;
+		try {
+			setCursor( ps, after );
+			ps.setLong( 4, limit - 1 );
+			ResultSet rs = ps.executeQuery();
+			// the key of the last rating of the page, if another rating follows it
+			if ( rs.next() ) {
+				String last = rs.getString( 1 ) + rs.getString( 2 );
+				if ( rs.next() ) {
+					cursor = last;
+				}
 			}
+			rs.close();
+		} finally {
+			ps.close();
+			conn.close();
 		}
-		rs.close();
-		st.close();
-		conn.close();
-		
-		index.close();
-		dir.close();
-		
-		return ratings;
-		
+		return cursor;
 	}
+	
 }
@@ -0,0 +1,514 @@
+package edu.umass.cs.ciir.controversy.service;
+
+import java.util.Map;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.gson.Gson;
+
+import utils.metrics.Metrics;
+import utils.metrics.LatencyHistogram;
+import utils.thread.DaemonThreadFactory;
+import edu.umass.cs.ciir.controversy.ControversyScorerSettings;
+import edu.umass.cs.ciir.controversy.database.RequestLogger;
+import edu.umass.cs.ciir.controversy.database.dao.URLRatingDAO;
+import edu.umass.cs.ciir.controversy.database.dao.WikiEntryRatingDAO;
+import edu.umass.cs.ciir.controversy.database.entity.Request;
+import edu.umass.cs.ciir.controversy.knn.ObjectInfo;
+
+/**
+ * <p>
+ * Detection computes the controversy score of one /detect request as a small graph of stages:
+ * </p>
+ * <ul>
+ * <li>crawling and parsing the webpage (for url requests) and logging the request, followed by scoring the webpage or text;</li>
+ * <li>looking up the user's previous rating of the url/text;</li>
+ * <li>looking up the user's previous ratings of the Wikipedia entries.</li>
+ * </ul>
+ * <p>
+ * The three run in parallel, so a request takes about as long as the slowest of them rather than their sum. Blocking stages (crawling, database) run on
+ * a bounded I/O pool; scoring runs on a pool sized to the number of CPUs, so a burst of slow crawls cannot oversubscribe the CPUs and slow pages never
+ * hold a scoring thread. No thread waits for a request or a webpage: crawling calls back when the webpage is parsed (see PageCache.getPlainText()),
+ * and the stage that finishes last (or a timeout) completes the request, cancels the pending timeouts and calls back.
+ * </p>
+ * <p>
+ * Each stage has its own timeout; a stage that times out is left out of the result (with an error message) instead of holding the request.
+ * </p>
+ * <p>
+ * The scoring stage takes the current ScorerEngine when it starts and returns it when it ends, so a request started before a reload is scored (and
+ * cached) by the engine it started with.
+ * </p>
+ */
+public class Detection {
+	
+	/**
+	 * Called once when a detection completes (all stages finished or timed out).
+	 */
+	public interface Callback {
+		
+		public void done( Detection detection );
+		
+	}
+	
+	private static final int STAGE_SCORE = 1;
+	private static final int STAGE_RATING = 2;
+	private static final int STAGE_RATING_ENTRIES = 4;
+	private static final int STAGE_ALL = STAGE_SCORE | STAGE_RATING | STAGE_RATING_ENTRIES;
+	
+	// latencies and failures of all detections (see Metrics)
+	private static final LatencyHistogram time_detect = Metrics.histogram( "detect_seconds" );
+	private static final LatencyHistogram time_fetch = Metrics.histogram( "detect_fetch_webpage_seconds" );
+	private static final LatencyHistogram time_rating = Metrics.histogram( "detect_rating_lookup_seconds" );
+	private static final AtomicLong crawl_failures = Metrics.counter( "crawl_failures_total" );
+	private static final AtomicLong db_errors = Metrics.counter( "db_errors_total" );
+	private static final AtomicLong timeouts = Metrics.counter( "detect_timeouts_total" );
+	private static final AtomicLong rejections = Metrics.counter( "detect_rejected_total" );
+	
+	private static ThreadPoolExecutor executor_io;
+	private static ThreadPoolExecutor executor_cpu;
+	private static ScheduledThreadPoolExecutor timer;
+	
+	private static synchronized void startExecutors() {
+		if ( executor_io == null ) {
+			int threads = ControversyScorerSettings.detect_threads;
+			executor_io = new ThreadPoolExecutor( threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>( threads * 4 ), new DaemonThreadFactory( "detect-io" ) );
+			executor_io.allowCoreThreadTimeOut( true );
+			int cpus = ControversyScorerSettings.score_threads > 0 ? ControversyScorerSettings.score_threads : Runtime.getRuntime().availableProcessors();
+			executor_cpu = new ThreadPoolExecutor( cpus, cpus, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>( threads * 4 ), new DaemonThreadFactory( "detect-cpu" ) );
+			executor_cpu.allowCoreThreadTimeOut( true );
+			timer = new ScheduledThreadPoolExecutor( 1, new DaemonThreadFactory( "detect-timer" ) );
+			timer.setRemoveOnCancelPolicy( true );
+		}
+	}
+	
+	public static synchronized void shutdownExecutors() {
+		if ( executor_io != null ) {
+			executor_io.shutdown();
+			executor_cpu.shutdown();
+			timer.shutdownNow();
+			executor_io = null;
+			executor_cpu = null;
+			timer = null;
+		}
+	}
+	
+	protected final Request record;
+	protected final int topwords;
+	protected final int topentries;
+	protected final boolean debug;
+	
+	protected Callback callback;
+	protected boolean ratings = true;
+	protected long started;
+	protected ScheduledFuture<?> timeout_score;
+	protected ScheduledFuture<?> timeout_rating;
+	
+	// guarded by this: stages that finished (or timed out), and their results
+	protected int finished;
+	protected boolean completed;
+	protected ObjectInfo<Double> score;
+	protected double fetchtime;
+	protected Request user_request;
+	protected Integer prev_rating;
+	protected Map<String, Integer> prev_rating_entries;
+	protected StringBuilder errmsg = new StringBuilder();
+	protected boolean success;
+	
+	/**
+	 * @param record
+	 *            The request to be logged (url normalized; text empty for url requests; webpage empty, which is filled in by crawling).
+	 * @param topwords
+	 * @param topentries
+	 * @param debug
+	 */
+	public Detection( Request record, int topwords, int topentries, boolean debug ) {
+		this.record = record;
+		this.topwords = topwords;
+		this.topentries = topentries;
+		this.debug = debug;
+	}
+	
+	/**
+	 * Do not look up the user's previous ratings (e.g., for batch requests, whose responses do not include them).
+	 * 
+	 * @return this
+	 */
+	public Detection skipRatings() {
+		this.ratings = false;
+		return this;
+	}
+	
+	/**
+	 * Start all stages. The callback is called exactly once, by the thread finishing the last stage or by a timeout (or by this thread if the server is
+	 * too busy to start the stages). Detections are started asynchronously only; nothing waits for them.
+	 * 
+	 * @param callback
+	 * @param timeout_score
+	 *            Timeout (in milliseconds) of crawling and scoring.
+	 * @param timeout_rating
+	 *            Timeout (in milliseconds) of the rating lookups, which run in parallel with scoring.
+	 * @return this
+	 */
+	public Detection start( Callback callback, long timeout_score, long timeout_rating ) {
+		this.callback = callback;
+		this.started = System.nanoTime();
+		final String userid = record.getUserid();
+		final String url = record.getUrl();
+		final String text = record.getText();
+		startExecutors();
+		try {
+			// the timeouts are scheduled before the stages start, so the stage finishing last can cancel them
+			synchronized ( this ) {
+				this.timeout_score = timer.schedule( new Runnable() {
+					public void run() {
+						timeout( STAGE_SCORE, "computing the controversy score" );
+					}
+				}, timeout_score, TimeUnit.MILLISECONDS );
+				if ( ratings ) {
+					this.timeout_rating = timer.schedule( new Runnable() {
+						public void run() {
+							timeout( STAGE_RATING | STAGE_RATING_ENTRIES, "looking up previous ratings" );
+						}
+					}, timeout_rating, TimeUnit.MILLISECONDS );
+				}
+			}
+			executor_io.execute( new Runnable() {
+				public void run() {
+					crawl();
+				}
+			} );
+			if ( !ratings ) {
+				finish( STAGE_RATING | STAGE_RATING_ENTRIES );
+				return this;
+			}
+			executor_io.execute( new Runnable() {
+				public void run() {
+					Integer rating = null;
+					String err = "";
+					long timestamp = System.nanoTime();
+					try {
+						// previous ratings of the same url and text (empty for url requests)
+						rating = URLRatingDAO.searchLastRating( userid, url, text );
+					} catch ( Exception e ) {
+						e.printStackTrace();
+						db_errors.incrementAndGet();
+						err = "Server error: failed looking up previous ratings. ";
+					}
+					time_rating.recordSince( timestamp );
+					synchronized ( Detection.this ) {
+						if ( ( finished & STAGE_RATING ) == 0 ) {
+							prev_rating = rating;
+							errmsg.append( err );
+						}
+					}
+					finish( STAGE_RATING );
+				}
+			} );
+			executor_io.execute( new Runnable() {
+				public void run() {
+					Map<String, Integer> ratings = null;
+					String err = "";
+					long timestamp = System.nanoTime();
+					try {
+						ratings = WikiEntryRatingDAO.searchLastRating( userid, url, text );
+					} catch ( Exception e ) {
+						e.printStackTrace();
+						db_errors.incrementAndGet();
+						err = "Server error: failed looking up previous ratings of Wikipedia entries. ";
+					}
+					time_rating.recordSince( timestamp );
+					synchronized ( Detection.this ) {
+						if ( ( finished & STAGE_RATING_ENTRIES ) == 0 ) {
+							prev_rating_entries = ratings;
+							errmsg.append( err );
+						}
+					}
+					finish( STAGE_RATING_ENTRIES );
+				}
+			} );
+		} catch ( RejectedExecutionException e ) {
+			rejections.incrementAndGet();
+			synchronized ( this ) {
+				errmsg.append( "Server is busy. Please try again later. " );
+			}
+			finish( STAGE_ALL );
+		}
+		return this;
+	}
+	
+	/**
+	 * The first part of the scoring stage (on the I/O pool): look up the result cache and start crawling the webpage.
+	 */
+	private void crawl() {
+		ScorerEngine engine;
+		try {
+			engine = ScorerEngine.current();
+		} catch ( IllegalStateException e ) {
+			e.printStackTrace();
+			synchronized ( this ) {
+				errmsg.append( "Server error: the controversy scorer is not available. " );
+			}
+			finish( STAGE_SCORE );
+			return;
+		}
+		// the engine is returned here unless it has been passed on to crawling, which returns it
+		boolean crawling = false;
+		try {
+			crawling = crawl( engine );
+		} finally {
+			if ( !crawling ) {
+				release( engine );
+			}
+		}
+	}
+	
+	private static void release( ScorerEngine engine ) {
+		try {
+			engine.decRef();
+		} catch ( IOException e ) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * @return Whether the engine has been passed on to crawling (see crawled()).
+	 */
+	private boolean crawl( final ScorerEngine engine ) {
+		
+		final String url = record.getUrl();
+		String text = record.getText();
+		
+		// a fresh result of the same request skips both crawling and scoring
+		final ResultCache cache = ResultCache.getShared();
+		final String cache_key = cache == null ? null : ResultCache.getKey( url, text, topwords, topentries, engine.getGeneration() );
+		ResultCache.Result cached = cache == null ? null : cache.get( cache_key, debug );
+		
+		if ( cached != null || text.length() > 0 ) {
+			return score( engine, cache, cache_key, cached, cached == null ? "" : cached.getWebpage(), 0, new StringBuilder() );
+		}
+		
+		PageCache pages;
+		try {
+			pages = PageCache.getShared();
+		} catch ( IllegalStateException e ) {
+			// the web service is stopping
+			return score( engine, cache, cache_key, null, "", 0, new StringBuilder( "Server is shutting down: cannot get access to the requested url: " + url + ". " ) );
+		}
+		
+		final long timestamp = System.nanoTime();
+		try {
+			pages.getPlainText( url, new PageCache.Callback() {
+				public void completed( String page ) {
+					long elapsed = System.nanoTime() - timestamp;
+					time_fetch.record( elapsed );
+					crawled( engine, cache, cache_key, page, elapsed / 1e9, new StringBuilder() );
+				}
+				
+				public void failed( Exception e ) {
+					e.printStackTrace();
+					crawl_failures.incrementAndGet();
+					crawled( engine, cache, cache_key, "", 0, new StringBuilder( "Server cannot get access to the requested url: " + url + ". " ) );
+				}
+			} );
+		} catch ( RuntimeException e ) {
+			// thrown by the callback of a cached page, which has returned the engine already
+			e.printStackTrace();
+		}
+		return true;
+		
+	}
+	
+	/**
+	 * The second part of the scoring stage (on the fetcher's thread): log the request and start scoring the crawled webpage; the engine is returned here
+	 * unless scoring has been started.
+	 */
+	private void crawled( ScorerEngine engine, ResultCache cache, String cache_key, String page, double time, StringBuilder err ) {
+		boolean scoring = false;
+		try {
+			scoring = score( engine, cache, cache_key, null, page, time, err );
+		} finally {
+			if ( !scoring ) {
+				release( engine );
+			}
+		}
+	}
+	
+	/**
+	 * @return Whether scoring has been started on the CPU pool.
+	 */
+	private boolean score( final ScorerEngine engine, final ResultCache cache, final String cache_key, ResultCache.Result cached, String page, double time, StringBuilder err ) {
+		
+		String text = record.getText();
+		
+		Request logged = null;
+		try {
+			record.setWebpage( page );
+			logged = RequestLogger.getShared().log( record );
+			if ( logged == null ) {
+				// dropped, so there is no request id to rate later
+				err.append( "Server is busy: the request is not logged. " );
+			}
+		} catch ( SQLException e ) {
+			e.printStackTrace();
+			db_errors.incrementAndGet();
+			err.append( "Server error: cannot log requests into database." );
+		} catch ( IllegalStateException e ) {
+			// the web service is stopping
+			err.append( "Server is shutting down: the request is not logged. " );
+		}
+		
+		ObjectInfo<Double> result = null;
+		if ( cached != null ) {
+			result = cached.getScore();
+			result.setInfo( "cache_hit", true );
+		}
+		
+		synchronized ( this ) {
+			if ( ( finished & STAGE_SCORE ) != 0 ) {
+				return false;
+			}
+			fetchtime = time;
+			user_request = logged;
+			errmsg.append( err );
+			score = result;
+		}
+		
+		if ( cached != null || ( page.length() == 0 && text.length() == 0 ) ) {
+			finish( STAGE_SCORE );
+			return false;
+		}
+		
+		final String content = text.length() > 0 ? text : page;
+		final String cached_webpage = text.length() > 0 ? "" : page;
+		try {
+			executor_cpu.execute( new Runnable() {
+				public void run() {
+					ObjectInfo<Double> result = null;
+					String err = "";
+					try {
+						result = engine.getScorer().getScore( content, topwords, topentries, debug );
+						if ( cache != null ) {
+							cache.put( cache_key, result, debug, cached_webpage );
+						}
+					} catch ( Exception e ) {
+						e.printStackTrace();
+						err = "Server error: cannot compute controversy score for this webpage.";
+					} finally {
+						release( engine );
+					}
+					synchronized ( Detection.this ) {
+						if ( ( finished & STAGE_SCORE ) == 0 ) {
+							score = result;
+							errmsg.append( err );
+						}
+					}
+					finish( STAGE_SCORE );
+				}
+			} );
+			return true;
+		} catch ( RejectedExecutionException e ) {
+			rejections.incrementAndGet();
+			synchronized ( this ) {
+				errmsg.append( "Server is busy. Please try again later. " );
+			}
+			finish( STAGE_SCORE );
+			return false;
+		}
+		
+	}
+	
+	private void timeout( int stages, String stage ) {
+		synchronized ( this ) {
+			if ( ( finished & stages ) == stages ) {
+				return;
+			}
+			// the results of stages still running are dropped when they finish
+			timeouts.incrementAndGet();
+			errmsg.append( "Server timed out " + stage + ". " );
+		}
+		finish( stages );
+	}
+	
+	/**
+	 * Mark stages as finished; the call finishing the last stage completes the detection.
+	 */
+	private void finish( int stages ) {
+		synchronized ( this ) {
+			finished |= stages;
+			if ( completed || finished != STAGE_ALL ) {
+				return;
+			}
+			completed = true;
+			time_detect.recordSince( started );
+			if ( timeout_score != null ) {
+				timeout_score.cancel( false );
+			}
+			if ( timeout_rating != null ) {
+				timeout_rating.cancel( false );
+			}
+			if ( score != null ) {
+				score.setInfo( "request_type", record.getText().length() > 0 ? "text" : "url" );
+				score.setInfo( "time_fetch_webpage", fetchtime );
+				if ( user_request != null ) {
+					// do not send crawled webpage information back to the client (the logged request itself must not be modified)
+					Request info = new Request( record.getUserid(), record.getIp(), record.getUrl(), record.getText(), "", record.getParam(), record.getTimestamp() );
+					info.setRequestid( user_request.getRequestid() );
+					score.setInfo( "user_request", info );
+				}
+				if ( prev_rating != null ) {
+					score.setInfo( "prev_rating", prev_rating );
+				}
+				if ( prev_rating_entries != null ) {
+					score.setInfo( "prev_rating_entries", prev_rating_entries );
+				}
+				success = true;
+			}
+		}
+		if ( callback != null ) {
+			callback.done( this );
+		}
+	}
+	
+	public synchronized boolean isSuccess() {
+		return success;
+	}
+	
+	public synchronized ObjectInfo<Double> getScore() {
+		return score;
+	}
+	
+	public synchronized String getErrmsg() {
+		return errmsg.toString();
+	}
+	
+	/**
+	 * Add an error message (e.g., about the request parameters) to the response.
+	 * 
+	 * @param msg
+	 * @return this
+	 */
+	public synchronized Detection addErrmsg( String msg ) {
+		errmsg.append( msg );
+		return this;
+	}
+	
+	/**
+	 * @return The json response of /detect.
+	 */
+	public synchronized String toJson() {
+		Double controversy = score == null ? null : score.getObject();
+		if ( !debug || score == null ) {
+			return "{\"success\": " + success + ", \"controversy\":" + controversy + ", \"errmsg\":\"" + errmsg.toString() + "\"}";
+		} else {
+			return "{\"success\": " + success + ", \"controversy\":" + controversy + ", \"errmsg\":\"" + errmsg.toString() + "\"" + ", \"info\":" + new Gson().toJson( score.getInfo() ) + "}";
+		}
+	}
+	
+}
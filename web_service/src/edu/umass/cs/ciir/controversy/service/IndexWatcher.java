@@ -0,0 +1,170 @@
+package edu.umass.cs.ciir.controversy.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchEvent;
+import java.nio.file.FileSystems;
+import java.nio.file.WatchService;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.ClosedWatchServiceException;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import edu.umass.cs.ciir.controversy.LuceneWikiIndexSettings;
+import edu.umass.cs.ciir.controversy.LuceneWikiScoreSettings;
+
+/**
+ * <p>
+ * IndexWatcher watches the wiki index, the score index and their config files, and reloads the scorer engine (see ScorerEngine.reload()) when they
+ * change, so an index rebuilt in place, or a config switched to a new index, is picked up without restarting the web service.
+ * </p>
+ * <p>
+ * A build writes many files over a long time, so the watcher waits until the files have been quiet for a while before it reloads; a reload that finds
+ * no new commit and no changed setting does nothing. The directories of the indexes are watched together with their parents, so an index directory
+ * that is replaced (e.g., renamed over) is noticed; in a parent, only the changes of the indexes and the config files count. A mapped score file is
+ * written into a temporary file and renamed into place (see MappedControversyDatabase.write()), so only its renaming counts; the watched directories
+ * are updated after each reload.
+ * </p>
+ */
+public class IndexWatcher extends Thread {
+	
+	protected final long quiet_ms;
+	protected final WatchService service;
+	protected final Map<Path, WatchKey> keys;
+	// the names in each watched directory whose changes count, mapped to whether only their creation (renaming into place) counts; null for any name
+	protected Map<Path, Map<Path, Boolean>> names;
+	protected volatile boolean stopped;
+	
+	/**
+	 * @param quiet_ms
+	 *            Time (in milliseconds) without changes to the watched files before reloading.
+	 * @throws IOException
+	 */
+	public IndexWatcher( long quiet_ms ) throws IOException {
+		super( "index-watcher" );
+		setDaemon( true );
+		this.quiet_ms = quiet_ms;
+		this.service = FileSystems.getDefault().newWatchService();
+		this.keys = new HashMap<Path, WatchKey>();
+		register();
+	}
+	
+	// watches the directories of the current settings and stops watching the others
+	protected void register() {
+		Map<Path, Map<Path, Boolean>> dirs = new HashMap<Path, Map<Path, Boolean>>();
+		addIndex( dirs, LuceneWikiIndexSettings.path_index, false );
+		if ( !LuceneWikiScoreSettings.storage.equalsIgnoreCase( "docvalues" ) ) {
+			addIndex( dirs, LuceneWikiScoreSettings.path_index, LuceneWikiScoreSettings.storage.equalsIgnoreCase( "mapped" ) );
+		}
+		addParent( dirs, LuceneWikiIndexSettings.file_config, false );
+		addParent( dirs, LuceneWikiScoreSettings.file_config, false );
+		names = dirs;
+		Iterator<Map.Entry<Path, WatchKey>> it = keys.entrySet().iterator();
+		while ( it.hasNext() ) {
+			Map.Entry<Path, WatchKey> entry = it.next();
+			if ( !dirs.containsKey( entry.getKey() ) || !entry.getValue().isValid() ) {
+				entry.getValue().cancel();
+				it.remove();
+			}
+		}
+		for ( Path dir : dirs.keySet() ) {
+			if ( !keys.containsKey( dir ) && dir.toFile().isDirectory() ) {
+				try {
+					keys.put( dir, dir.register( service, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY ) );
+				} catch ( IOException e ) {
+					System.err.println( " >> cannot watch " + dir + ": " + e );
+				}
+			}
+		}
+	}
+	
+	// an index directory (any name in it) and its parent, or the parent of an index file
+	private static void addIndex( Map<Path, Map<Path, Boolean>> dirs, String path, boolean created_only ) {
+		if ( path == null ) {
+			return;
+		}
+		File f = new File( path ).getAbsoluteFile();
+		if ( f.isDirectory() ) {
+			dirs.put( f.toPath(), null );
+		}
+		addParent( dirs, f, created_only );
+	}
+	
+	private static void addParent( Map<Path, Map<Path, Boolean>> dirs, File f, boolean created_only ) {
+		if ( f == null || f.getAbsoluteFile().getParentFile() == null ) {
+			return;
+		}
+		Path dir = f.getAbsoluteFile().getParentFile().toPath();
+		if ( !dirs.containsKey( dir ) ) {
+			dirs.put( dir, new HashMap<Path, Boolean>() );
+		}
+		Map<Path, Boolean> files = dirs.get( dir );
+		if ( files != null ) {
+			Path name = f.toPath().getFileName();
+			files.put( name, files.containsKey( name ) ? files.get( name ) && created_only : created_only );
+		}
+	}
+	
+	// whether an event of a watched directory counts
+	private boolean counts( Path dir, WatchEvent<?> event ) {
+		if ( event.kind() == StandardWatchEventKinds.OVERFLOW || !names.containsKey( dir ) ) {
+			return true;
+		}
+		Map<Path, Boolean> files = names.get( dir );
+		if ( files == null ) {
+			return true;
+		}
+		Boolean created_only = files.get( event.context() );
+		return created_only != null && ( !created_only || event.kind() == StandardWatchEventKinds.ENTRY_CREATE );
+	}
+	
+	public void run() {
+		boolean changed = false;
+		while ( !stopped ) {
+			try {
+				WatchKey key = changed ? service.poll( quiet_ms, TimeUnit.MILLISECONDS ) : service.take();
+				if ( key != null ) {
+					Path dir = (Path) key.watchable();
+					for ( WatchEvent<?> event : key.pollEvents() ) {
+						if ( counts( dir, event ) ) {
+							changed = true;
+						}
+					}
+					key.reset();
+				} else {
+					changed = false;
+					try {
+						ScorerEngine.reload( false );
+					} catch ( Exception e ) {
+						if ( !stopped ) {
+							System.err.println( " >> cannot reload the controversy scorer engine; the current engine is kept" );
+							e.printStackTrace();
+						}
+					}
+					register();
+				}
+			} catch ( InterruptedException e ) {
+				break;
+			} catch ( ClosedWatchServiceException e ) {
+				break;
+			}
+		}
+	}
+	
+	/**
+	 * Stop watching. A reload in progress is not interrupted.
+	 */
+	public void shutdown() {
+		stopped = true;
+		try {
+			service.close();
+		} catch ( IOException e ) {
+			e.printStackTrace();
+		}
+	}
+	
+}
@@ -0,0 +1,399 @@
+package edu.umass.cs.ciir.controversy.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.util.Map;
+import java.util.List;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.jsoup.Jsoup;
+import org.jsoup.examples.HtmlToPlainText;
+
+import utils.StringUtils;
+import utils.crawl.HttpContent;
+import utils.crawl.PooledFetcher;
+import utils.crawl.HttpRequestHeaderInfo;
+import edu.umass.cs.ciir.controversy.CrawlSettings;
+
+/**
+ * <p>
+ * PageCache crawls webpages for the /detect service and caches their plain text (extracted by HtmlToPlainText) together with their ETag and
+ * Last-Modified headers. A cached page is returned without any http request while it is fresh (Cache-Control max-age, Expires, or a default freshness
+ * lifetime). After that, it is revalidated with a conditional get (If-None-Match/If-Modified-Since): a 304 Not Modified response costs no download and
+ * no parsing. If a stale page cannot be revalidated (e.g., the site is down), the stale page is returned.
+ * </p>
+ * <p>
+ * Pages are cached in memory (least recently used pages are evicted first) and, if a cache directory is configured, in a size-bounded on-disk tier (one
+ * gzipped file per url) that survives restarts of the web service.
+ * </p>
+ * <p>
+ * Pages are crawled with a PooledFetcher (keep-alive connections, per-host limits, timeouts and a maximum page size); a truncated page is parsed as it is.
+ * No thread waits for a crawl: getPlainText() calls back when the page is crawled and parsed.
+ * </p>
+ */
+public class PageCache {
+	
+	private static final int ENTRY_WEIGHT = 256;
+	
+	/**
+	 * Called once with the plain text of a webpage, or with the reason it cannot be crawled.
+	 */
+	public interface Callback {
+		
+		public void completed( String text );
+		
+		public void failed( Exception e );
+		
+	}
+	
+	protected static class Page {
+		
+		protected final String url;
+		protected final String text;
+		protected final String etag;
+		protected final String last_modified;
+		protected final long fresh_until;
+		
+		protected Page( String url, String text, String etag, String last_modified, long fresh_until ) {
+			this.url = url;
+			this.text = text;
+			this.etag = etag;
+			this.last_modified = last_modified;
+			this.fresh_until = fresh_until;
+		}
+		
+		protected long weight() {
+			return ENTRY_WEIGHT + 2L * ( url.length() + text.length() );
+		}
+		
+		protected boolean revalidatable() {
+			return etag != null || last_modified != null;
+		}
+		
+	}
+	
+	private static PageCache shared;
+	private static boolean shared_closed;
+	
+	protected final HtmlToPlainText formatter = new HtmlToPlainText();
+	
+	protected final long capacity;
+	protected final long fresh;
+	protected final LinkedHashMap<String, Page> pages;
+	protected long size;
+	
+	protected final PooledFetcher fetcher;
+	
+	protected final File dir;
+	protected final long disk_capacity;
+	protected final LinkedHashMap<String, Long> files; // file name -> file size, least recently used first
+	protected long disk_size;
+	
+	/**
+	 * @param capacity
+	 *            Approximate maximum size of pages cached in memory in bytes (0 disables the memory tier).
+	 * @param dir
+	 *            Directory of the on-disk tier, or null to disable it.
+	 * @param disk_capacity
+	 *            Maximum size of the on-disk tier in bytes.
+	 * @param fresh
+	 *            Freshness lifetime (in milliseconds) of pages for which the server does not specify one.
+	 * @param fetcher
+	 *            The fetcher crawling pages.
+	 */
+	public PageCache( long capacity, File dir, long disk_capacity, long fresh, PooledFetcher fetcher ) {
+		this.fetcher = fetcher;
+		this.capacity = capacity;
+		this.fresh = fresh;
+		this.pages = new LinkedHashMap<String, Page>( 1024, 0.75f, true );
+		this.dir = dir;
+		this.disk_capacity = disk_capacity;
+		this.files = new LinkedHashMap<String, Long>( 1024, 0.75f, true );
+		if ( dir != null ) {
+			loadDirectory();
+		}
+	}
+	
+	/**
+	 * @return The page cache shared by the servlets of the web service (see CrawlSettings).
+	 * @throws IllegalStateException
+	 *             If the shared page cache has been closed (see closeShared()); it is not created again.
+	 */
+	public static synchronized PageCache getShared() {
+		if ( shared_closed ) {
+			throw new IllegalStateException( "The shared page cache is closed." );
+		}
+		if ( shared == null ) {
+			File dir = CrawlSettings.page_cache_dir.length() > 0 ? new File( CrawlSettings.page_cache_dir ) : null;
+			PooledFetcher fetcher = new PooledFetcher( CrawlSettings.fetch_max_total, CrawlSettings.fetch_max_per_host, CrawlSettings.fetch_connect_timeout_ms, CrawlSettings.fetch_read_timeout_ms, CrawlSettings.fetch_max_kb << 10, CrawlSettings.fetch_timeout_ms, CrawlSettings.fetch_threads );
+			shared = new PageCache( CrawlSettings.page_cache_mb << 20, dir, CrawlSettings.page_cache_disk_mb << 20, CrawlSettings.page_fresh_seconds * 1000, fetcher );
+		}
+		return shared;
+	}
+	
+	/**
+	 * Close the fetcher of the shared page cache (if it was created) when the web service stops (see WebServiceListener); requests being crawled are
+	 * aborted.
+	 */
+	public static synchronized void closeShared() {
+		shared_closed = true;
+		if ( shared != null ) {
+			try {
+				shared.fetcher.close();
+			} catch ( IOException e ) {
+				e.printStackTrace();
+			}
+			shared = null;
+		}
+	}
+	
+	private void loadDirectory() {
+		dir.mkdirs();
+		File[] list = dir.listFiles();
+		if ( list == null ) {
+			return;
+		}
+		// oldest files first, so they are evicted first
+		Arrays.sort( list, new Comparator<File>() {
+			public int compare( File f1, File f2 ) {
+				return Long.compare( f1.lastModified(), f2.lastModified() );
+			}
+		} );
+		synchronized ( files ) {
+			for ( File f : list ) {
+				if ( f.getName().endsWith( ".tmp" ) ) {
+					f.delete();
+				} else if ( f.isFile() ) {
+					files.put( f.getName(), f.length() );
+					disk_size += f.length();
+				}
+			}
+		}
+		evictFiles();
+		System.out.println( " >> page cache: " + files.size() + " pages (" + ( disk_size >> 20 ) + " MB) on disk at " + dir.getAbsolutePath() );
+	}
+	
+	/**
+	 * Get the plain text of a webpage, either from the cache or by crawling (or revalidating) it. A cached page is passed to the callback by this thread;
+	 * otherwise the callback is called by the fetcher's thread once the page is crawled and parsed. The callback fails if the page cannot be crawled and
+	 * there is no cached copy.
+	 * 
+	 * @param url
+	 * @param callback
+	 */
+	public void getPlainText( final String url, final Callback callback ) {
+		final long now = System.currentTimeMillis();
+		final Page page = get( url );
+		if ( page != null && now < page.fresh_until ) {
+			callback.completed( page.text );
+			return;
+		}
+		PooledFetcher.Callback fetched = new PooledFetcher.Callback() {
+			public void completed( HttpContent content ) {
+				String text = null;
+				try {
+					text = getPlainText( url, page, content, now );
+				} catch ( Exception e ) {
+					callback.failed( e );
+					return;
+				}
+				callback.completed( text );
+			}
+			
+			public void failed( Exception e ) {
+				if ( page != null ) {
+					// serve the stale copy rather than nothing
+					e.printStackTrace();
+					callback.completed( page.text );
+				} else {
+					callback.failed( e );
+				}
+			}
+		};
+		try {
+			if ( page != null && page.revalidatable() ) {
+				fetcher.fetch( HttpRequestHeaderInfo.get(), url, page.etag, page.last_modified, fetched );
+			} else {
+				fetcher.fetch( HttpRequestHeaderInfo.get(), url, null, null, fetched );
+			}
+		} catch ( Exception e ) {
+			fetched.failed( e );
+		}
+	}
+	
+	// the plain text of a crawled (or revalidated) page, which is cached
+	private String getPlainText( String url, Page page, HttpContent content, long now ) throws IOException {
+		long freshness = content.getFreshness( now );
+		long fresh_until = now + ( freshness >= 0 ? freshness : fresh );
+		if ( page != null && content.isNotModified() ) {
+			put( new Page( url, page.text, content.getETag() != null ? content.getETag() : page.etag, content.getLastModified() != null ? content.getLastModified() : page.last_modified, fresh_until ) );
+			return page.text;
+		}
+		if ( content.getContent() == null ) {
+			throw new IOException( "No content (status " + content.getStatus() + ") from " + url );
+		}
+		String html = content.getContentString( "UTF-8" );
+		String text = formatter.getPlainText( Jsoup.parse( html ) );
+		if ( content.getStatus() == 200 && !content.isNoStore() ) {
+			put( new Page( url, text, content.getETag(), content.getLastModified(), fresh_until ) );
+		}
+		return text;
+	}
+	
+	protected Page get( String url ) {
+		synchronized ( pages ) {
+			Page page = pages.get( url );
+			if ( page != null ) {
+				return page;
+			}
+		}
+		Page page = readFile( url );
+		if ( page != null ) {
+			putMemory( page );
+		}
+		return page;
+	}
+	
+	protected void put( Page page ) {
+		putMemory( page );
+		writeFile( page );
+	}
+	
+	private void putMemory( Page page ) {
+		if ( page.weight() > capacity ) {
+			return;
+		}
+		synchronized ( pages ) {
+			Page prev = pages.put( page.url, page );
+			if ( prev != null ) {
+				size -= prev.weight();
+			}
+			size += page.weight();
+			Iterator<Page> iterator = pages.values().iterator();
+			while ( size > capacity && iterator.hasNext() ) {
+				size -= iterator.next().weight();
+				iterator.remove();
+			}
+		}
+	}
+	
+	private static String getFileName( String url ) {
+		return StringUtils.sha1( url ) + ".gz";
+	}
+	
+	private Page readFile( String url ) {
+		if ( dir == null ) {
+			return null;
+		}
+		String name = getFileName( url );
+		synchronized ( files ) {
+			if ( files.get( name ) == null ) {
+				return null;
+			}
+		}
+		File f = new File( dir, name );
+		try {
+			DataInputStream in = new DataInputStream( new BufferedInputStream( new GZIPInputStream( new FileInputStream( f ) ) ) );
+			try {
+				if ( !in.readUTF().equals( url ) ) {
+					return null;
+				}
+				String etag = in.readUTF();
+				String last_modified = in.readUTF();
+				long fresh_until = in.readLong();
+				byte[] text = new byte[in.readInt()];
+				in.readFully( text );
+				f.setLastModified( System.currentTimeMillis() );
+				return new Page( url, new String( text, StandardCharsets.UTF_8 ), etag.length() > 0 ? etag : null, last_modified.length() > 0 ? last_modified : null, fresh_until );
+			} finally {
+				in.close();
+			}
+		} catch ( IOException e ) {
+			// the file was evicted in the meanwhile or is corrupted
+			removeFile( name );
+			return null;
+		}
+	}
+	
+	private void writeFile( Page page ) {
+		// DataOutputStream.writeUTF() is limited to 64K bytes
+		if ( dir == null || page.url.length() > 8192 ) {
+			return;
+		}
+		String name = getFileName( page.url );
+		File tmp = new File( dir, name + "." + Thread.currentThread().getId() + ".tmp" );
+		File f = new File( dir, name );
+		try {
+			byte[] text = page.text.getBytes( StandardCharsets.UTF_8 );
+			OutputStream outstream = new GZIPOutputStream( new FileOutputStream( tmp ) );
+			DataOutputStream out = new DataOutputStream( new BufferedOutputStream( outstream ) );
+			try {
+				out.writeUTF( page.url );
+				out.writeUTF( page.etag == null ? "" : page.etag );
+				out.writeUTF( page.last_modified == null ? "" : page.last_modified );
+				out.writeLong( page.fresh_until );
+				out.writeInt( text.length );
+				out.write( text );
+			} finally {
+				out.close();
+			}
+			synchronized ( files ) {
+				Long prev = files.remove( name );
+				if ( prev != null ) {
+					disk_size -= prev;
+				}
+				f.delete();
+				if ( !tmp.renameTo( f ) ) {
+					throw new IOException( "Cannot rename " + tmp + " to " + f );
+				}
+				files.put( name, f.length() );
+				disk_size += f.length();
+			}
+			evictFiles();
+		} catch ( IOException e ) {
+			e.printStackTrace();
+			tmp.delete();
+		}
+	}
+	
+	private void removeFile( String name ) {
+		synchronized ( files ) {
+			Long prev = files.remove( name );
+			if ( prev != null ) {
+				disk_size -= prev;
+			}
+			new File( dir, name ).delete();
+		}
+	}
+	
+	private void evictFiles() {
+		List<String> evicted = new ArrayList<String>();
+		synchronized ( files ) {
+			Iterator<Map.Entry<String, Long>> iterator = files.entrySet().iterator();
+			while ( disk_size > disk_capacity && iterator.hasNext() ) {
+				Map.Entry<String, Long> entry = iterator.next();
+				disk_size -= entry.getValue();
+				evicted.add( entry.getKey() );
+				iterator.remove();
+			}
+		}
+		for ( String name : evicted ) {
+			new File( dir, name ).delete();
+		}
+	}
+	
+}
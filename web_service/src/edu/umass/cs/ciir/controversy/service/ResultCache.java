@@ -0,0 +1,257 @@
+package edu.umass.cs.ciir.controversy.service;
+
+import java.util.Map;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import utils.StringUtils;
+import edu.umass.cs.ciir.controversy.ControversyScorerSettings;
+import edu.umass.cs.ciir.controversy.knn.ObjectInfo;
+
+/**
+ * <p>
+ * ResultCache keeps recent controversy scores of the /detect service in memory, such that repeated requests for the same page do not crawl the page and
+ * run the KNN scorer again. A result is keyed by the requested url (or the SHA-1 digest of the requested text), the number of top words and top entries,
+ * and the generation of the scorer engine; results computed by an engine that has been closed (e.g., because an index was reopened) are never returned.
+ * </p>
+ * <p>
+ * The cache is bounded by an approximate size in bytes (least recently used results are evicted first) and by a time-to-live. It is shared by all
+ * servlet threads.
+ * </p>
+ * <p>
+ * When the engine is reloaded, the most recently used url results are rescored by the new engine (see refresh()), which both warms up the new engine
+ * and keeps the cache warm for the pages users are requesting.
+ * </p>
+ */
+public class ResultCache {
+	
+	// a rough size of an entry without the webpage, and of the debugging information of a result
+	private static final int ENTRY_WEIGHT = 256;
+	private static final int INFO_WEIGHT = 8192;
+	
+	public static class Result {
+		
+		protected final double score;
+		protected final Map<String, Object> info;
+		protected final String webpage;
+		protected final long expire;
+		protected final long weight;
+		
+		protected Result( double score, Map<String, Object> info, String webpage, long expire ) {
+			this.score = score;
+			this.info = info;
+			this.webpage = webpage;
+			this.expire = expire;
+			this.weight = ENTRY_WEIGHT + 2L * ( webpage == null ? 0 : webpage.length() ) + ( info == null ? 0 : INFO_WEIGHT );
+		}
+		
+		/**
+		 * @return A new copy of the cached score (and its debugging information, if it was computed with debug).
+		 */
+		public ObjectInfo<Double> getScore() {
+			ObjectInfo<Double> copy = new ObjectInfo<Double>().setObject( score );
+			if ( info != null ) {
+				copy.getInfo().putAll( info );
+			}
+			return copy;
+		}
+		
+		/**
+		 * @return Whether debugging information was cached together with the score.
+		 */
+		public boolean hasInfo() {
+			return info != null;
+		}
+		
+		/**
+		 * @return The crawled plain-text webpage (empty for text requests).
+		 */
+		public String getWebpage() {
+			return webpage;
+		}
+		
+	}
+	
+	/**
+	 * Rescoring a cached url result by another engine (see refresh()).
+	 */
+	public interface Rescorer {
+		
+		public ObjectInfo<Double> score( String webpage, int topwords, int topentries ) throws Exception;
+		
+	}
+	
+	private static ResultCache shared;
+	
+	protected final long capacity;
+	protected final long ttl;
+	protected final LinkedHashMap<String, Result> results;
+	protected long size;
+	
+	protected final AtomicLong hits = new AtomicLong();
+	protected final AtomicLong misses = new AtomicLong();
+	
+	/**
+	 * @param capacity
+	 *            Approximate maximum size of cached results in bytes.
+	 * @param ttl
+	 *            Time-to-live of a cached result in milliseconds.
+	 */
+	public ResultCache( long capacity, long ttl ) {
+		this.capacity = capacity;
+		this.ttl = ttl;
+		this.results = new LinkedHashMap<String, Result>( 1024, 0.75f, true );
+		this.size = 0;
+	}
+	
+	/**
+	 * @return The cache shared by the servlets of the web service, or null if caching is disabled (see ControversyScorerSettings).
+	 */
+	public static synchronized ResultCache getShared() {
+		if ( shared == null && ControversyScorerSettings.cache_size_mb > 0 ) {
+			shared = new ResultCache( ControversyScorerSettings.cache_size_mb << 20, ControversyScorerSettings.cache_ttl_seconds * 1000L );
+		}
+		return shared;
+	}
+	
+	/**
+	 * @param url
+	 * @param text
+	 *            The requested text; if empty, the result is keyed by the url.
+	 * @param topwords
+	 * @param topentries
+	 * @param generation
+	 *            Generation of the scorer engine computing the result.
+	 * @return
+	 */
+	public static String getKey( String url, String text, int topwords, int topentries, long generation ) {
+		String source = text == null || text.length() == 0 ? "url:" + url : "text:" + StringUtils.sha1( text );
+		return generation + "\t" + topwords + "\t" + topentries + "\t" + source;
+	}
+	
+	/**
+	 * @param key
+	 * @param debug
+	 *            Whether the result needs debugging information.
+	 * @return The cached result or null if there is no fresh (and, for debug, detailed enough) result for the key.
+	 */
+	public Result get( String key, boolean debug ) {
+		Result result = null;
+		synchronized ( this ) {
+			result = results.get( key );
+			if ( result != null && result.expire < System.currentTimeMillis() ) {
+				results.remove( key );
+				size -= result.weight;
+				result = null;
+			}
+		}
+		if ( result != null && debug && !result.hasInfo() ) {
+			result = null;
+		}
+		if ( result == null ) {
+			misses.incrementAndGet();
+		} else {
+			hits.incrementAndGet();
+		}
+		return result;
+	}
+	
+	/**
+	 * Cache a result. The score's information map is copied, so the caller can keep adding request-specific information to it.
+	 * 
+	 * @param key
+	 * @param score
+	 * @param debug
+	 *            Whether the score has debugging information worth caching.
+	 * @param webpage
+	 */
+	public void put( String key, ObjectInfo<Double> score, boolean debug, String webpage ) {
+		Map<String, Object> info = debug ? new TreeMap<String, Object>( score.getInfo() ) : null;
+		Result result = new Result( score.getObject(), info, webpage, System.currentTimeMillis() + ttl );
+		if ( result.weight > capacity ) {
+			return;
+		}
+		synchronized ( this ) {
+			Result prev = results.put( key, result );
+			if ( prev != null ) {
+				size -= prev.weight;
+			}
+			size += result.weight;
+			Iterator<Result> iterator = results.values().iterator();
+			while ( size > capacity && iterator.hasNext() ) {
+				size -= iterator.next().weight;
+				iterator.remove();
+			}
+		}
+	}
+	
+	/**
+	 * Rescore the most recently used url results of one engine generation and cache them as results of another generation. Text results are skipped,
+	 * because only the digests of their texts are kept; debugging information is not recomputed.
+	 * 
+	 * @param from
+	 *            Generation of the results to be rescored.
+	 * @param to
+	 *            Generation of the rescored results.
+	 * @param max
+	 *            Maximum number of results to be rescored.
+	 * @param rescorer
+	 * @return Number of rescored results.
+	 * @throws Exception
+	 *             If rescoring fails.
+	 */
+	public int refresh( long from, long to, int max, Rescorer rescorer ) throws Exception {
+		String prefix = from + "\t";
+		List<String> keys = new ArrayList<String>();
+		List<String> webpages = new ArrayList<String>();
+		long now = System.currentTimeMillis();
+		synchronized ( this ) {
+			for ( Map.Entry<String, Result> entry : results.entrySet() ) {
+				Result result = entry.getValue();
+				if ( entry.getKey().startsWith( prefix ) && entry.getKey().split( "\t", 4 )[3].startsWith( "url:" ) && result.webpage != null && result.webpage.length() > 0 && result.expire >= now ) {
+					keys.add( entry.getKey() );
+					webpages.add( result.webpage );
+				}
+			}
+		}
+		// the map is in access order, so the most recently used results are at its end (and are put in the same order)
+		int count = Math.max( 0, Math.min( max, keys.size() ) );
+		for ( int ix = keys.size() - count ; ix < keys.size() ; ix++ ) {
+			String[] parts = keys.get( ix ).split( "\t", 4 );
+			int topwords = Integer.parseInt( parts[1] );
+			int topentries = Integer.parseInt( parts[2] );
+			ObjectInfo<Double> score = rescorer.score( webpages.get( ix ), topwords, topentries );
+			put( getKey( parts[3].substring( 4 ), "", topwords, topentries, to ), score, false, webpages.get( ix ) );
+		}
+		return count;
+	}
+	
+	public synchronized void clear() {
+		results.clear();
+		size = 0;
+	}
+	
+	public synchronized int count() {
+		return results.size();
+	}
+	
+	/**
+	 * @return Approximate size of cached results in bytes.
+	 */
+	public synchronized long size() {
+		return size;
+	}
+	
+	public long getHits() {
+		return hits.get();
+	}
+	
+	public long getMisses() {
+		return misses.get();
+	}
+	
+}
@@ -0,0 +1,371 @@
+package edu.umass.cs.ciir.controversy.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.index.SegmentInfos;
+
+import utils.metrics.Metrics;
+import utils.metrics.LatencyHistogram;
+import edu.umass.cs.ciir.controversy.ControversyScorerSettings;
+import edu.umass.cs.ciir.controversy.LuceneWikiIndexSettings;
+import edu.umass.cs.ciir.controversy.LuceneWikiScoreSettings;
+import edu.umass.cs.ciir.controversy.knn.KNNScorer;
+import edu.umass.cs.ciir.controversy.knn.ObjectInfo;
+import edu.umass.cs.ciir.controversy.knn.FusedKNNScorer;
+import edu.umass.cs.ciir.controversy.knn.aggregation.Generative;
+import edu.umass.cs.ciir.controversy.knn.aggregation.KNNAggregation;
+import edu.umass.cs.ciir.controversy.knn.db.ControversyDatabase;
+import edu.umass.cs.ciir.controversy.knn.db.DocValuesControversyDatabase;
+import edu.umass.cs.ciir.controversy.knn.db.LuceneControversyDatabase;
+import edu.umass.cs.ciir.controversy.knn.db.MappedControversyDatabase;
+import edu.umass.cs.ciir.controversy.knn.db.MemoryControversyDatabase;
+import edu.umass.cs.ciir.controversy.knn.sim.LuceneQLSearcher;
+import edu.umass.cs.ciir.controversy.knn.sim.LuceneQLDocValuesSearcher;
+import edu.umass.cs.ciir.controversy.knn.sim.LuceneTopWordsQuery;
+import edu.umass.cs.ciir.controversy.knn.sim.WikiEntryDictionary;
+
+/**
+ * <p>
+ * ScorerEngine holds a KNNScorer (and the two Lucene indexes behind it) shared by all servlet threads of the web service.
+ * </p>
+ * <p>
+ * Servlets call acquire() in init() and release() in destroy(). The current engine is opened by the first acquire() and closed by the last release().
+ * All components of the scorer only read from the indexes, so the scorer can be used by concurrent requests without further synchronization.
+ * </p>
+ * <p>
+ * The indexes can be replaced without restarting the web service: reload() rereads the index settings, opens a new engine (if an index has a new
+ * commit or a setting changed), warms it up and then makes it the current engine. Engines are reference counted: a request takes the current engine by
+ * current() and returns it by decRef(), so requests in flight finish on the engine they started with, which is closed after the last of them. Reloads
+ * are triggered by IndexWatcher when the index files change, or by the /reload endpoint.
+ * </p>
+ */
+public class ScorerEngine {
+	
+	// number of Wikipedia titles in a warm-up query (see warmUp())
+	private static final int WARMUP_TITLES = 50;
+	
+	private static final AtomicLong reloads = Metrics.counter( "engine_reloads_total" );
+	private static final AtomicLong reload_failures = Metrics.counter( "engine_reload_failures_total" );
+	private static final LatencyHistogram time_reload = Metrics.histogram( "engine_reload_seconds" );
+	
+	// held while opening an engine (before the class lock, if both are needed), so engines are opened one at a time without blocking current()
+	private static final Object open_lock = new Object();
+	
+	// guarded by the class lock
+	private static ScorerEngine engine;
+	private static int users;
+	private static IndexWatcher watcher;
+	private static long generations;
+	
+	protected KNNScorer scorer;
+	protected WikiEntryDictionary dictionary;
+	protected int maxdoc;
+	protected long generation;
+	protected String version;
+	
+	// one reference held for being the current engine, plus one for each request using the engine
+	protected final AtomicInteger refs = new AtomicInteger( 1 );
+	
+	protected ScorerEngine() throws IOException {
+		// read before the indexes are opened, so a commit made meanwhile is found by the next reload
+		this.version = version();
+		LuceneTopWordsQuery qc = new LuceneTopWordsQuery( LuceneWikiIndexSettings.analyzer, LuceneWikiIndexSettings.field_text );
+		LuceneQLSearcher searcher = null;
+		if ( LuceneWikiScoreSettings.storage.equalsIgnoreCase( "docvalues" ) ) {
+			searcher = new LuceneQLDocValuesSearcher( LuceneWikiIndexSettings.path_index, LuceneWikiIndexSettings.smoothing_dir_mu, LuceneWikiIndexSettings.field_key, LuceneWikiIndexSettings.field_title, LuceneWikiIndexSettings.field_text );
+		} else {
+			searcher = new LuceneQLSearcher( LuceneWikiIndexSettings.path_index, LuceneWikiIndexSettings.smoothing_dir_mu, LuceneWikiIndexSettings.field_key, LuceneWikiIndexSettings.field_title, LuceneWikiIndexSettings.field_text );
+		}
+		ControversyDatabase db = null;
+		try {
+			// keys and titles of entries are looked up in the dictionary rather than the stored documents
+			this.dictionary = new WikiEntryDictionary( searcher.getIndexReader(), LuceneWikiIndexSettings.field_key, LuceneWikiIndexSettings.field_title );
+			this.maxdoc = searcher.getIndexReader().maxDoc();
+			searcher.setDictionary( dictionary );
+			db = openDatabase( searcher );
+		} catch ( IOException e ) {
+			searcher.close();
+			throw e;
+		}
+		if ( ControversyScorerSettings.fused ) {
+			try {
+				this.scorer = new FusedKNNScorer( qc, searcher, db );
+			} catch ( IOException e ) {
+				searcher.close();
+				db.close();
+				throw e;
+			}
+		} else {
+			KNNAggregation aggregation = new Generative();
+			this.scorer = new KNNScorer( qc, searcher, db, aggregation );
+		}
+		this.generation = ++generations;
+		System.out.println( " >> controversy scorer engine opened (generation " + generation + ")" );
+	}
+	
+	private static ControversyDatabase openDatabase( LuceneQLSearcher searcher ) throws IOException {
+		if ( LuceneWikiScoreSettings.storage.equalsIgnoreCase( "docvalues" ) ) {
+			return new DocValuesControversyDatabase( searcher.getIndexReader(), LuceneWikiIndexSettings.field_score );
+		}
+		if ( LuceneWikiScoreSettings.storage.equalsIgnoreCase( "lucene" ) ) {
+			return new LuceneControversyDatabase( LuceneWikiScoreSettings.path_index, LuceneWikiScoreSettings.field_key, LuceneWikiScoreSettings.field_score );
+		}
+		if ( LuceneWikiScoreSettings.storage.equalsIgnoreCase( "mapped" ) ) {
+			return new MappedControversyDatabase( LuceneWikiScoreSettings.path_index );
+		}
+		return MemoryControversyDatabase.load( LuceneWikiScoreSettings.path_index, LuceneWikiScoreSettings.field_key, LuceneWikiScoreSettings.field_score );
+	}
+	
+	/**
+	 * @return A string identifying the index settings and the last commits of the indexes; an engine is reloaded only if it changes (unless forced).
+	 * @throws IOException
+	 */
+	protected static String version() throws IOException {
+		StringBuilder version = new StringBuilder();
+		version.append( state( LuceneWikiIndexSettings.path_index ) );
+		version.append( "\t" + LuceneWikiIndexSettings.field_key + "\t" + LuceneWikiIndexSettings.field_title + "\t" + LuceneWikiIndexSettings.field_text + "\t" + LuceneWikiIndexSettings.field_score + "\t" + LuceneWikiIndexSettings.smoothing_dir_mu );
+		version.append( "\t" + LuceneWikiIndexSettings.tokenization + "\t" + LuceneWikiIndexSettings.casing + "\t" + LuceneWikiIndexSettings.stopwords + "\t" + LuceneWikiIndexSettings.stemming );
+		version.append( "\t" + LuceneWikiScoreSettings.storage );
+		if ( !LuceneWikiScoreSettings.storage.equalsIgnoreCase( "docvalues" ) ) {
+			version.append( "\t" + state( LuceneWikiScoreSettings.path_index ) + "\t" + LuceneWikiScoreSettings.field_key + "\t" + LuceneWikiScoreSettings.field_score );
+		}
+		return version.toString();
+	}
+	
+	// the generation of the last commit of an index directory, or the size and modification time of a file
+	private static String state( String path ) throws IOException {
+		File f = new File( path );
+		if ( f.isDirectory() ) {
+			Directory dir = FSDirectory.open( f );
+			try {
+				return f.getCanonicalPath() + ":" + SegmentInfos.getLastCommitGeneration( dir );
+			} finally {
+				dir.close();
+			}
+		}
+		return f.getCanonicalPath() + ":" + f.length() + ":" + f.lastModified();
+	}
+	
+	/**
+	 * Register one more user (a servlet) of the engine. The current engine will be opened if this is the first user.
+	 * 
+	 * @throws IOException
+	 */
+	public static void acquire() throws IOException {
+		synchronized ( open_lock ) {
+			synchronized ( ScorerEngine.class ) {
+				if ( engine == null ) {
+					engine = new ScorerEngine();
+					if ( ControversyScorerSettings.reload_watch ) {
+						try {
+							watcher = new IndexWatcher( ControversyScorerSettings.reload_quiet_seconds * 1000L );
+							watcher.start();
+						} catch ( IOException e ) {
+							System.err.println( " >> cannot watch the indexes; they can still be reloaded by /reload" );
+							e.printStackTrace();
+						}
+					}
+				}
+				users++;
+			}
+		}
+	}
+	
+	/**
+	 * Unregister a user of the engine. The current engine will be closed if there is no more user (after the requests using it finish).
+	 * 
+	 * @throws IOException
+	 */
+	public static void release() throws IOException {
+		ScorerEngine closing = null;
+		IndexWatcher stopping = null;
+		synchronized ( ScorerEngine.class ) {
+			if ( engine != null && --users <= 0 ) {
+				closing = engine;
+				stopping = watcher;
+				engine = null;
+				watcher = null;
+				users = 0;
+			}
+		}
+		if ( closing != null ) {
+			try {
+				if ( stopping != null ) {
+					stopping.shutdown();
+				}
+				closing.decRef();
+			} finally {
+				// results of the closed engine can never be hit again
+				if ( ResultCache.getShared() != null ) {
+					ResultCache.getShared().clear();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Take the current engine for a request. The caller must return it by decRef() (e.g., in a finally block) when it no longer uses the engine; until
+	 * then, the engine stays open even if it has been replaced by a reload.
+	 * 
+	 * @return
+	 * @throws IllegalStateException
+	 *             If the engine has not been opened (or has been closed) by the servlets.
+	 */
+	public static synchronized ScorerEngine current() {
+		if ( engine == null ) {
+			throw new IllegalStateException( "The controversy scorer engine is not open." );
+		}
+		engine.refs.incrementAndGet();
+		return engine;
+	}
+	
+	/**
+	 * @return Generation of the current engine, or 0 if it is not open.
+	 */
+	public static synchronized long getCurrentGeneration() {
+		return engine == null ? 0 : engine.generation;
+	}
+	
+	/**
+	 * Reload the index settings and, if an index has a new commit or a setting has changed, open a new engine, warm it up and make it the current
+	 * engine. Requests keep being served by the current engine while the new one is opened and warmed up, and requests in flight finish on it; it is
+	 * closed after them. If the new engine cannot be opened or warmed up, the current engine is kept.
+	 * 
+	 * @param force
+	 *            Whether to open a new engine even if nothing has changed.
+	 * @return Generation of the current engine after the reload (the same as before if nothing has changed).
+	 * @throws Exception
+	 *             If the settings cannot be loaded or the new engine cannot be opened or warmed up.
+	 */
+	public static long reload( boolean force ) throws Exception {
+		synchronized ( open_lock ) {
+			long timestamp = System.nanoTime();
+			long from = getCurrentGeneration();
+			if ( from == 0 ) {
+				throw new IllegalStateException( "The controversy scorer engine is not open." );
+			}
+			ScorerEngine fresh = null;
+			try {
+				LuceneWikiIndexSettings.load();
+				LuceneWikiScoreSettings.load();
+				String version = version();
+				synchronized ( ScorerEngine.class ) {
+					if ( !force && engine != null && engine.version.equals( version ) ) {
+						return engine.generation;
+					}
+				}
+				fresh = new ScorerEngine();
+				int queries = fresh.warmUp( from, ControversyScorerSettings.reload_warmup_queries );
+				ScorerEngine replaced = null;
+				synchronized ( ScorerEngine.class ) {
+					if ( engine != null ) {
+						replaced = engine;
+						engine = fresh;
+					}
+				}
+				if ( replaced == null ) {
+					throw new IllegalStateException( "The controversy scorer engine has been closed." );
+				}
+				fresh = null;
+				try {
+					replaced.decRef();
+				} catch ( IOException e ) {
+					e.printStackTrace();
+				}
+				reloads.incrementAndGet();
+				time_reload.recordSince( timestamp );
+				System.out.println( " >> controversy scorer engine reloaded (generation " + from + " -> " + getCurrentGeneration() + ", " + queries + " warm-up queries, " + ( System.nanoTime() - timestamp ) / 1e9 + " seconds)" );
+				return getCurrentGeneration();
+			} catch ( Exception e ) {
+				reload_failures.incrementAndGet();
+				if ( fresh != null ) {
+					fresh.decRef();
+				}
+				throw e;
+			}
+		}
+	}
+	
+	/**
+	 * Run warm-up queries on this engine before it serves requests: the pages users recently requested (whose results in the result cache are rescored
+	 * and cached for this engine, see ResultCache.refresh()), and then queries made of Wikipedia titles spread over the index.
+	 * 
+	 * @param from
+	 *            Generation of the engine whose cached results are rescored.
+	 * @param max
+	 *            Maximum number of warm-up queries.
+	 * @return Number of warm-up queries.
+	 * @throws Exception
+	 *             If a query fails.
+	 */
+	protected int warmUp( long from, int max ) throws Exception {
+		int count = 0;
+		ResultCache cache = ResultCache.getShared();
+		if ( cache != null ) {
+			count = cache.refresh( from, generation, max, new ResultCache.Rescorer() {
+				public ObjectInfo<Double> score( String webpage, int topwords, int topentries ) {
+					return scorer.getScore( webpage, topwords, topentries, false );
+				}
+			} );
+		}
+		int queries = max - count;
+		if ( queries > 0 && maxdoc > 0 ) {
+			long step = Math.max( 1, maxdoc / ( (long) queries * WARMUP_TITLES ) );
+			long docid = 0;
+			for ( int ix = 0 ; ix < queries ; ix++ ) {
+				StringBuilder query = new StringBuilder();
+				for ( int jx = 0 ; jx < WARMUP_TITLES ; jx++ ) {
+					String title = dictionary.getTitle( (int) ( docid % maxdoc ) );
+					if ( title != null ) {
+						query.append( title ).append( ' ' );
+					}
+					docid += step;
+				}
+				scorer.getScore( query.toString(), ControversyScorerSettings.default_topwords, ControversyScorerSettings.default_topentries, false );
+				count++;
+			}
+		}
+		return count;
+	}
+	
+	public KNNScorer getScorer() {
+		return scorer;
+	}
+	
+	/**
+	 * @return The key/title dictionary of the wiki index of this engine.
+	 */
+	public WikiEntryDictionary getDictionary() {
+		return dictionary;
+	}
+	
+	/**
+	 * @return A number identifying this engine (and the indexes it opened); a reopened engine has a new generation.
+	 */
+	public long getGeneration() {
+		return generation;
+	}
+	
+	/**
+	 * Return a reference taken by current(). The engine is closed when all references are returned (i.e., it has been replaced or released, and no
+	 * request uses it any more).
+	 * 
+	 * @throws IOException
+	 */
+	public void decRef() throws IOException {
+		if ( refs.decrementAndGet() == 0 ) {
+			close();
+		}
+	}
+	
+	protected void close() throws IOException {
+		scorer.close();
+		System.out.println( " >> controversy scorer engine closed (generation " + generation + ")" );
+	}
+	
+}
@@ -0,0 +1,378 @@
+package edu.umass.cs.ciir.controversy.service;
+
+import java.util.Map;
+import java.util.List;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.io.IOException;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncListener;
+import javax.servlet.WriteListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import org.apache.commons.lang3.StringEscapeUtils;
+
+import utils.metrics.Metrics;
+import utils.metrics.LatencyHistogram;
+import edu.umass.cs.ciir.controversy.ControversyScorerSettings;
+import edu.umass.cs.ciir.controversy.database.entity.Request;
+
+/**
+ * <p>
+ * The /detect_batch servlet scores many urls or texts in one call. The request body is a JSON array of items <code>{"url": ..., "text": ...}</code>
+ * (either may be omitted, but not both); topwords, topentries, debug and userid are request parameters as for /detect and apply to all items.
+ * </p>
+ * <p>
+ * Identical items are scored once. Items are scored in parallel (at most batch_parallelism at a time, so one batch cannot take over the shared
+ * detection pools) by the same ScorerEngine, result cache and request logger as /detect; previous ratings are not looked up. The response is
+ * newline-delimited JSON, one line <code>{"index": i, "result": {...}}</code> per item (result as returned by /detect), written as soon as the item
+ * finishes, so the lines are not in the order of the items. Items not finished within batch_timeout_ms get a result with the error message "Server timed
+ * out. ".
+ * </p>
+ * <p>
+ * The response is written with non-blocking I/O (see ServletOutputStream.setWriteListener()): a finished item only queues its line, which is written
+ * whenever the client can take it, so a slow client never holds a thread of the shared detection pools.
+ * </p>
+ */
+public class ServletBatchControversyDetection extends HttpServlet {
+	
+	private static final long serialVersionUID = 1L;
+	
+	// time from receiving a batch request to completing its response
+	private static final LatencyHistogram time_request = Metrics.histogram( "detect_batch_request_seconds" );
+	
+	/**
+	 * An item of the request body.
+	 */
+	protected static class Item {
+		
+		protected String url;
+		protected String text;
+		
+	}
+	
+	/**
+	 * The detections of one batch request and the response they are streamed to. Each detection starts the next one when it completes.
+	 */
+	protected static class Batch {
+		
+		protected final AsyncContext context;
+		protected final ServletOutputStream out;
+		protected final long start = System.nanoTime();
+		protected final List<Detection> detections = new ArrayList<Detection>();
+		protected final List<List<Integer>> indices = new ArrayList<List<Integer>>();
+		protected final AtomicInteger next = new AtomicInteger();
+		protected final AtomicInteger remaining = new AtomicInteger();
+		
+		// guarded by this: lines not written yet; items whose lines have been queued; closed when no more lines are accepted, completed when the
+		// response is completed
+		protected final ArrayDeque<byte[]> lines = new ArrayDeque<byte[]>();
+		protected final boolean[] queued;
+		protected boolean closed;
+		protected boolean completed;
+		
+		/**
+		 * @param context
+		 * @param items
+		 *            Number of items of the request.
+		 */
+		protected Batch( AsyncContext context, int items ) throws IOException {
+			this.context = context;
+			this.queued = new boolean[items];
+			this.out = context.getResponse().getOutputStream();
+			out.setWriteListener( new WriteListener() {
+				public void onWritePossible() throws IOException {
+					drain();
+				}
+				
+				public void onError( Throwable t ) {
+					abort();
+				}
+			} );
+		}
+		
+		protected void add( Detection detection, List<Integer> index ) {
+			detections.add( detection );
+			indices.add( index );
+		}
+		
+		protected void start( int parallelism ) {
+			remaining.set( detections.size() );
+			if ( detections.isEmpty() ) {
+				close( null );
+				return;
+			}
+			for ( int ix = 0 ; ix < parallelism ; ix++ ) {
+				startNext();
+			}
+		}
+		
+		private void startNext() {
+			while ( true ) {
+				final int ix = next.getAndIncrement();
+				if ( ix >= detections.size() || isClosed() ) {
+					return;
+				}
+				// the next detection is started by whichever comes second: the callback or the return of start(); a detection rejected by start()
+				// calls back before start() returns, so this loop starts the next one instead of a recursion as deep as the batch
+				final AtomicBoolean handover = new AtomicBoolean();
+				detections.get( ix ).start( new Detection.Callback() {
+					public void done( Detection detection ) {
+						String json = detection.toJson();
+						for ( int index : indices.get( ix ) ) {
+							write( index, json );
+						}
+						if ( remaining.decrementAndGet() == 0 ) {
+							close( null );
+						} else if ( !handover.compareAndSet( false, true ) ) {
+							startNext();
+						}
+					}
+				}, ControversyScorerSettings.detect_timeout_ms, ControversyScorerSettings.rating_timeout_ms );
+				if ( handover.compareAndSet( false, true ) ) {
+					return;
+				}
+			}
+		}
+		
+		protected synchronized boolean isClosed() {
+			return closed;
+		}
+		
+		protected synchronized void write( int index, String json ) {
+			if ( closed ) {
+				return;
+			}
+			lines.add( ( "{\"index\": " + index + ", \"result\":" + json + "}\n" ).getBytes( StandardCharsets.UTF_8 ) );
+			queued[index] = true;
+			drain();
+		}
+		
+		/**
+		 * Write the queued lines while the client takes them without blocking (the container calls again when it can take more), and complete the
+		 * response once it is closed and all lines are written.
+		 */
+		protected synchronized void drain() {
+			if ( completed ) {
+				return;
+			}
+			try {
+				while ( !lines.isEmpty() && out.isReady() ) {
+					out.write( lines.poll() );
+				}
+				// flush the lines such that the client gets results as they finish
+				if ( out.isReady() ) {
+					out.flush();
+				}
+				if ( closed && lines.isEmpty() && out.isReady() ) {
+					complete();
+				}
+			} catch ( IOException e ) {
+				// the client is gone
+				abort();
+			}
+		}
+		
+		/**
+		 * Complete the response (once) after the lines already queued; items not written yet are left out.
+		 * 
+		 * @param errmsg
+		 *            An error message written as the last line, or null.
+		 */
+		protected synchronized void close( String errmsg ) {
+			if ( closed ) {
+				return;
+			}
+			if ( errmsg != null ) {
+				lines.add( ( "{\"success\": false, \"errmsg\":\"" + errmsg + "\"}\n" ).getBytes( StandardCharsets.UTF_8 ) );
+			}
+			closed = true;
+			drain();
+		}
+		
+		/**
+		 * Complete the response now because the request timed out: each item not finished yet gets a line with the error message, and the queued lines
+		 * are written in one go if the client can take a write (the container buffers it until the response is completed).
+		 * 
+		 * @param errmsg
+		 */
+		protected synchronized void timeout( String errmsg ) {
+			if ( completed ) {
+				return;
+			}
+			for ( int index = 0 ; index < queued.length && !closed ; index++ ) {
+				if ( !queued[index] ) {
+					write( index, "{\"success\": false, \"controversy\":null, \"errmsg\":\"" + errmsg + "\"}" );
+				}
+			}
+			closed = true;
+			try {
+				if ( !lines.isEmpty() && out.isReady() ) {
+					ByteArrayOutputStream rest = new ByteArrayOutputStream();
+					for ( byte[] line : lines ) {
+						rest.write( line );
+					}
+					lines.clear();
+					out.write( rest.toByteArray() );
+				}
+			} catch ( IOException e ) {
+				// the client is gone
+			}
+			abort();
+		}
+		
+		/**
+		 * Complete the response now, dropping the lines not written yet (e.g., the client is gone or does not read).
+		 */
+		protected synchronized void abort() {
+			closed = true;
+			lines.clear();
+			complete();
+		}
+		
+		private void complete() {
+			if ( completed ) {
+				return;
+			}
+			completed = true;
+			time_request.recordSince( start );
+			try {
+				context.complete();
+			} catch ( IllegalStateException e ) {
+				// the request has been completed by the container (e.g., timeout or error)
+			}
+		}
+		
+	}
+	
+	public ServletBatchControversyDetection() {
+		super();
+	}
+	
+	public void init() throws ServletException {
+		super.init();
+		try {
+			ScorerEngine.acquire();
+		} catch ( IOException e ) {
+			throw new ServletException( "Cannot open the controversy scorer engine.", e );
+		}
+	}
+	
+	public void destroy() {
+		try {
+			ScorerEngine.release();
+		} catch ( IOException e ) {
+			e.printStackTrace();
+		}
+		super.destroy();
+	}
+	
+	protected void doPost( HttpServletRequest request, HttpServletResponse response ) throws ServletException, IOException {
+		
+		long user_request_timestamp = System.currentTimeMillis();
+		
+		int topwords = ControversyScorerSettings.default_topwords;
+		int topentries = ControversyScorerSettings.default_topentries;
+		boolean debug = false;
+		
+		if ( request.getParameter( "topwords" ) != null && request.getParameter( "topwords" ).trim().matches( "\\d+" ) ) {
+			topwords = Integer.parseInt( request.getParameter( "topwords" ) );
+		}
+		if ( request.getParameter( "topentries" ) != null && request.getParameter( "topentries" ).trim().matches( "\\d+" ) ) {
+			topentries = Integer.parseInt( request.getParameter( "topentries" ) );
+		}
+		if ( request.getParameter( "debug" ) != null && request.getParameter( "debug" ).trim().matches( "\\d+" ) && Integer.parseInt( request.getParameter( "debug" ).trim() ) > 0 ) {
+			debug = true;
+		}
+		
+		String userid = request.getParameter( "userid" );
+		String query = request.getQueryString() == null ? "" : request.getQueryString();
+		
+		response.setCharacterEncoding( "UTF-8" );
+		
+		Item[] items = null;
+		try {
+			items = new Gson().fromJson( request.getReader(), Item[].class );
+		} catch ( JsonParseException e ) {
+			response.getWriter().write( "{\"success\": false, \"errmsg\":\"Invalid request body: a JSON array of {url, text} items is expected. \"}" );
+			return;
+		}
+		if ( items == null || items.length == 0 ) {
+			response.getWriter().write( "{\"success\": false, \"errmsg\":\"Missing request body: a JSON array of {url, text} items. \"}" );
+			return;
+		}
+		if ( items.length > ControversyScorerSettings.batch_max_items ) {
+			response.getWriter().write( "{\"success\": false, \"errmsg\":\"Too many items: at most " + ControversyScorerSettings.batch_max_items + " items per request. \"}" );
+			return;
+		}
+		
+		response.setContentType( "application/x-ndjson" );
+		final AsyncContext context = request.startAsync();
+		context.setTimeout( ControversyScorerSettings.batch_timeout_ms );
+		final Batch batch = new Batch( context, items.length );
+		context.addListener( new AsyncListener() {
+			public void onTimeout( AsyncEvent event ) throws IOException {
+				// the response must be completed now, even if the client has not taken the last lines
+				batch.timeout( "Server timed out. " );
+			}
+			
+			public void onError( AsyncEvent event ) throws IOException {
+				batch.abort();
+			}
+			
+			public void onComplete( AsyncEvent event ) throws IOException {
+			}
+			
+			public void onStartAsync( AsyncEvent event ) throws IOException {
+			}
+		} );
+		
+		// identical items are scored once; their results are written for each of them
+		Map<String, List<Integer>> groups = new LinkedHashMap<String, List<Integer>>();
+		Map<String, Item> unique = new LinkedHashMap<String, Item>();
+		for ( int ix = 0 ; ix < items.length ; ix++ ) {
+			Item item = items[ix];
+			String url = item == null || item.url == null ? "" : item.url.trim();
+			String text = item == null || item.text == null ? "" : StringEscapeUtils.unescapeXml( item.text ).trim();
+			if ( url.length() == 0 && text.length() == 0 ) {
+				batch.write( ix, "{\"success\": false, \"controversy\":null, \"errmsg\":\"Missing url and text. \"}" );
+				continue;
+			}
+			Item normalized = new Item();
+			normalized.url = url.length() > 0 ? ServletWebpageControversyDetection.normalizeUrl( url ) : "";
+			normalized.text = text;
+			// a text is scored by itself; its url only matters for logging and ratings
+			String key = text.length() > 0 ? "text:" + normalized.url + "\t" + text : "url:" + normalized.url;
+			if ( !groups.containsKey( key ) ) {
+				groups.put( key, new ArrayList<Integer>() );
+				unique.put( key, normalized );
+			}
+			groups.get( key ).add( ix );
+		}
+		
+		for ( String key : groups.keySet() ) {
+			Item item = unique.get( key );
+			List<Integer> index = groups.get( key );
+			String param = query + ( query.length() > 0 ? "&" : "" ) + "batch_item=" + index.get( 0 );
+			Request user_request = new Request( userid, request.getRemoteAddr(), item.url, item.text, "", param, user_request_timestamp );
+			batch.add( new Detection( user_request, topwords, topentries, debug ).skipRatings(), index );
+		}
+		batch.start( Math.max( 1, ControversyScorerSettings.batch_parallelism ) );
+		
+	}
+	
+}
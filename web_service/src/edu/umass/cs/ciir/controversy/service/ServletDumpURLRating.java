@@ -1,7 +1,10 @@
 package edu.umass.cs.ciir.controversy.service;
 
+import java.io.OutputStream;
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.sql.SQLException;
+import java.util.zip.GZIPOutputStream;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -10,6 +13,7 @@ import javax.servlet.http.HttpServletResponse;
 
 import utils.IOUtils;
 import edu.umass.cs.ciir.controversy.data.DumpURLRating;
+import edu.umass.cs.ciir.controversy.database.dao.URLRatingDAO;
 
 public class ServletDumpURLRating extends HttpServlet {
 	
@@ -31,16 +35,47 @@ public class ServletDumpURLRating extends HttpServlet {
 			useDatabase = true;
 		}
 		
-		String data = "";
+		// a page of the database ratings: after a cursor (X-Next-Cursor of the previous page) and at most limit ratings, which is dumped until the cursor
+		// of the next page (ratings upserted into the page after the cursor is sent are dumped as well)
+		String after = request.getParameter( "after" );
+		long limit = 0;
+		boolean gzip = false;
+		if ( request.getParameter( "limit" ) != null && request.getParameter( "limit" ).trim().matches( "\\d+" ) ) {
+			limit = Long.parseLong( request.getParameter( "limit" ).trim() );
+		}
+		if ( request.getParameter( "gzip" ) != null && request.getParameter( "gzip" ).equalsIgnoreCase( "true" ) ) {
+			gzip = true;
+		}
+		
+		String next = null;
+		if ( useDatabase ) {
+			try {
+				next = URLRatingDAO.nextDumpCursor( after, limit );
+				if ( next != null ) {
+					response.setHeader( "X-Next-Cursor", next );
+				}
+			} catch ( SQLException e ) {
+				e.printStackTrace();
+				response.sendError( HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Cannot read the ratings from the database." );
+				return;
+			}
+		}
+		
+		// rows are written to the response as they are read from the database
+		OutputStream out = response.getOutputStream();
+		if ( gzip ) {
+			response.setContentType( "application/gzip" );
+			response.setHeader( "Content-Disposition", "attachment; filename=\"webpage_rating.txt.gz\"" );
+			out = new GZIPOutputStream( out, 1 << 16 );
+		} else {
+			response.setHeader( "Content-Disposition", "attachment; filename=\"webpage_rating.txt\"" );
+		}
+		BufferedWriter writer = IOUtils.getBufferedWriter( out );
 		try {
-			data = DumpURLRating.combineData( useShiri, useMyungha, useDatabase );
+			DumpURLRating.dump( writer, useShiri, useMyungha, useDatabase, after, next );
 		} catch ( Exception e ) {
 			e.printStackTrace();
 		}
-		
-		response.setHeader( "Content-Disposition", "attachment; filename=\"webpage_rating.txt\"" );
-		BufferedWriter writer = IOUtils.getBufferedWriter( response.getOutputStream() );
-		writer.write( data );
 		writer.close();
 		
 	}
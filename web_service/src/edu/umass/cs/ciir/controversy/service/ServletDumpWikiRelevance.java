@@ -1,7 +1,10 @@
 package edu.umass.cs.ciir.controversy.service;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.BufferedWriter;
+import java.sql.SQLException;
+import java.util.zip.GZIPOutputStream;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -10,11 +13,31 @@ import javax.servlet.http.HttpServletResponse;
 
 import utils.IOUtils;
 import edu.umass.cs.ciir.controversy.data.DumpWebpageRelevance;
+import edu.umass.cs.ciir.controversy.database.dao.WikiEntryRatingDAO;
 
 public class ServletDumpWikiRelevance extends HttpServlet {
 	
 	private static final long serialVersionUID = 1L;
 	
+	public void init() throws ServletException {
+		super.init();
+		try {
+			// the engine's dictionary maps entry keys to titles
+			ScorerEngine.acquire();
+		} catch ( IOException e ) {
+			throw new ServletException( "Cannot open the controversy scorer engine.", e );
+		}
+	}
+	
+	public void destroy() {
+		try {
+			ScorerEngine.release();
+		} catch ( IOException e ) {
+			e.printStackTrace();
+		}
+		super.destroy();
+	}
+	
 	protected void doGet( HttpServletRequest request, HttpServletResponse response ) throws ServletException, IOException {
 		
 		boolean useShiri = false;
@@ -31,16 +54,53 @@ public class ServletDumpWikiRelevance extends HttpServlet {
 			useDatabase = true;
 		}
 		
-		String data = "";
+		// a page of the database ratings: after a cursor (X-Next-Cursor of the previous page) and at most limit ratings, which is dumped until the cursor
+		// of the next page (ratings upserted into the page after the cursor is sent are dumped as well)
+		String after = request.getParameter( "after" );
+		long limit = 0;
+		boolean gzip = false;
+		if ( request.getParameter( "limit" ) != null && request.getParameter( "limit" ).trim().matches( "\\d+" ) ) {
+			limit = Long.parseLong( request.getParameter( "limit" ).trim() );
+		}
+		if ( request.getParameter( "gzip" ) != null && request.getParameter( "gzip" ).equalsIgnoreCase( "true" ) ) {
+			gzip = true;
+		}
+		
+		String next = null;
+		if ( useDatabase ) {
+			try {
+				next = WikiEntryRatingDAO.nextDumpCursor( after, limit );
+				if ( next != null ) {
+					response.setHeader( "X-Next-Cursor", next );
+				}
+			} catch ( SQLException e ) {
+				e.printStackTrace();
+				response.sendError( HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "Cannot read the ratings from the database." );
+				return;
+			}
+		}
+		
+		// rows are written to the response as they are read from the database
+		OutputStream out = response.getOutputStream();
+		if ( gzip ) {
+			response.setContentType( "application/gzip" );
+			response.setHeader( "Content-Disposition", "attachment; filename=\"wiki_entry_relevance.txt.gz\"" );
+			out = new GZIPOutputStream( out, 1 << 16 );
+		} else {
+			response.setHeader( "Content-Disposition", "attachment; filename=\"wiki_entry_relevance.txt\"" );
+		}
+		BufferedWriter writer = IOUtils.getBufferedWriter( out );
+		ScorerEngine engine = null;
 		try {
-			data = DumpWebpageRelevance.combineData( useShiri, useMyungha, useDatabase );
+			engine = ScorerEngine.current();
+			DumpWebpageRelevance.dump( writer, useShiri, useMyungha, useDatabase, after, next, engine.getDictionary() );
 		} catch ( Exception e ) {
 			e.printStackTrace();
+		} finally {
+			if ( engine != null ) {
+				engine.decRef();
+			}
 		}
-		
-		response.setHeader( "Content-Disposition", "attachment; filename=\"wiki_entry_relevance.txt\"" );
-		BufferedWriter writer = IOUtils.getBufferedWriter( response.getOutputStream() );
-		writer.write( data );
 		writer.close();
 		
 	}
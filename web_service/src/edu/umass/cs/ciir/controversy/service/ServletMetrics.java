@@ -0,0 +1,55 @@
+package edu.umass.cs.ciir.controversy.service;
+
+import java.io.Writer;
+import java.io.IOException;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import utils.metrics.Metrics;
+import edu.umass.cs.ciir.controversy.database.RequestLogger;
+
+/**
+ * <p>
+ * The /metrics servlet exposes the metrics of the web service in the Prometheus text format: latency summaries (p50, p90, p99 and p99.9 in seconds) of
+ * the scoring stages, crawling, rating lookups and whole requests, failure counters, the generation and reloads of the scorer engine, and the counters
+ * of the result cache and the request logger.
+ * </p>
+ */
+public class ServletMetrics extends HttpServlet {
+	
+	private static final long serialVersionUID = 1L;
+	
+	protected void doGet( HttpServletRequest request, HttpServletResponse response ) throws ServletException, IOException {
+		
+		response.setContentType( "text/plain; version=0.0.4" );
+		response.setCharacterEncoding( "UTF-8" );
+		Writer writer = response.getWriter();
+		
+		Metrics.write( writer );
+		
+		Metrics.write( writer, "engine_generation", "gauge", ScorerEngine.getCurrentGeneration() );
+		
+		ResultCache cache = ResultCache.getShared();
+		if ( cache != null ) {
+			Metrics.write( writer, "result_cache_hits_total", "counter", cache.getHits() );
+			Metrics.write( writer, "result_cache_misses_total", "counter", cache.getMisses() );
+			Metrics.write( writer, "result_cache_entries", "gauge", cache.count() );
+			Metrics.write( writer, "result_cache_bytes", "gauge", cache.size() );
+		}
+		
+		RequestLogger logger = RequestLogger.getExisting();
+		if ( logger != null ) {
+			Metrics.write( writer, "request_log_logged_total", "counter", logger.getLogged() );
+			Metrics.write( writer, "request_log_dropped_total", "counter", logger.getDropped() );
+			Metrics.write( writer, "request_log_failed_total", "counter", logger.getFailed() );
+			Metrics.write( writer, "request_log_pending", "gauge", logger.getPending() );
+		}
+		
+		writer.flush();
+		
+	}
+	
+}
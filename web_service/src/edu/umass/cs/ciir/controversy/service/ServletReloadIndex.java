@@ -0,0 +1,69 @@
+package edu.umass.cs.ciir.controversy.service;
+
+import java.io.IOException;
+import java.net.InetAddress;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import edu.umass.cs.ciir.controversy.ControversyScorerSettings;
+
+/**
+ * <p>
+ * The /reload servlet reloads the scorer engine (see ScorerEngine.reload()) after the indexes have been rebuilt or their config files changed. POST
+ * /reload reloads if an index has a new commit or a setting changed (force=true reloads anyway) and responds when the new engine serves requests; GET
+ * /reload only reports the generation of the current engine.
+ * </p>
+ * <p>
+ * Reloading requires the reload_token of the config (token=...) or, without a token, a request from localhost.
+ * </p>
+ */
+public class ServletReloadIndex extends HttpServlet {
+	
+	private static final long serialVersionUID = 1L;
+	
+	protected void doGet( HttpServletRequest request, HttpServletResponse response ) throws ServletException, IOException {
+		response.setCharacterEncoding( "UTF-8" );
+		response.getWriter().write( "{\"success\": true, \"generation\":" + ScorerEngine.getCurrentGeneration() + "}" );
+	}
+	
+	protected void doPost( HttpServletRequest request, HttpServletResponse response ) throws ServletException, IOException {
+		
+		response.setCharacterEncoding( "UTF-8" );
+		
+		if ( !authorized( request ) ) {
+			response.setStatus( HttpServletResponse.SC_FORBIDDEN );
+			response.getWriter().write( "{\"success\": false, \"errmsg\":\"Not allowed to reload the indexes. \"}" );
+			return;
+		}
+		
+		boolean force = request.getParameter( "force" ) != null && request.getParameter( "force" ).equalsIgnoreCase( "true" );
+		
+		long before = ScorerEngine.getCurrentGeneration();
+		String json = null;
+		try {
+			long after = ScorerEngine.reload( force );
+			json = "{\"success\": true, \"generation\":" + after + ", \"reloaded\":" + ( after != before ) + "}";
+		} catch ( Exception e ) {
+			e.printStackTrace();
+			json = "{\"success\": false, \"generation\":" + ScorerEngine.getCurrentGeneration() + ", \"errmsg\":\"Server error: cannot reload the indexes; the current indexes are kept. \"}";
+		}
+		response.getWriter().write( json );
+		
+	}
+	
+	private static boolean authorized( HttpServletRequest request ) {
+		if ( ControversyScorerSettings.reload_token.length() > 0 ) {
+			return ControversyScorerSettings.reload_token.equals( request.getParameter( "token" ) );
+		}
+		try {
+			// the remote address is a literal ip, so this does not look up names
+			return InetAddress.getByName( request.getRemoteAddr() ).isLoopbackAddress();
+		} catch ( Exception e ) {
+			return false;
+		}
+	}
+	
+}
@@ -8,6 +8,8 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import utils.metrics.Metrics;
+import edu.umass.cs.ciir.controversy.database.RequestLogger;
 import edu.umass.cs.ciir.controversy.database.dao.URLRatingDAO;
 import edu.umass.cs.ciir.controversy.database.entity.URLRating;
 
@@ -36,10 +38,12 @@ public class ServletSubmitURLRating extends HttpServlet {
 		
 		if ( requestid != null && rating != null && requestid.matches( "\\d+" ) && rating.matches( "\\d+" ) && Integer.parseInt( rating ) > 0 ) {
 			try {
-				URLRatingDAO.add( new URLRating( Long.parseLong( requestid ), timestamp, Integer.parseInt( rating ) ) );
+				long id = Long.parseLong( requestid );
+				URLRatingDAO.add( new URLRating( id, timestamp, Integer.parseInt( rating ) ), RequestLogger.searchDigest( id ) );
 				success = true;
 			} catch ( SQLException e ) {
 				e.printStackTrace();
+				Metrics.counter( "db_errors_total" ).incrementAndGet();
 				errmsg.append( "Server error: cannot store ratings into database." );
 			}
 		} else {
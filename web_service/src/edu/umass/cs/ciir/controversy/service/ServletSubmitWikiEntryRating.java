@@ -2,20 +2,25 @@ package edu.umass.cs.ciir.controversy.service;
 
 import java.io.IOException;
 import java.sql.SQLException;
+import java.util.List;
+import java.util.ArrayList;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import utils.metrics.Metrics;
+import edu.umass.cs.ciir.controversy.database.RequestLogger;
 import edu.umass.cs.ciir.controversy.database.dao.WikiEntryRatingDAO;
 import edu.umass.cs.ciir.controversy.database.entity.WikiEntryRating;
 
 /**
- * Servlet that handles users' ratings on URL's controversy.
+ * Servlet that handles users' ratings on Wikipedia entries' relevance. One submission can rate several entries of a request by repeating the entry and
+ * rating parameters (the i-th rating goes to the i-th entry); all ratings are stored in one batch.
  * 
  * @author Jiepu Jiang
- * @version May 30, 2015
+ * @version Jun 11, 2015
  */
 public class ServletSubmitWikiEntryRating extends HttpServlet {
 	
@@ -29,22 +34,38 @@ public class ServletSubmitWikiEntryRating extends HttpServlet {
 		
 		long timestamp = System.currentTimeMillis();
 		String requestid = request.getParameter( "requestid" );
-		String entry = request.getParameter( "entry" );
-		String rating = request.getParameter( "rating" );
+		String[] entries = request.getParameterValues( "entry" );
+		String[] ratings = request.getParameterValues( "rating" );
 		
 		boolean success = false;
 		StringBuilder errmsg = new StringBuilder();
 		
-		if ( requestid != null && entry != null && entry.length() > 0 && rating != null && requestid.matches( "\\d+" ) && rating.matches( "\\d+" ) && Integer.parseInt( rating ) >= 0 ) {
+		List<WikiEntryRating> records = new ArrayList<WikiEntryRating>();
+		if ( requestid != null && requestid.matches( "\\d+" ) && entries != null && ratings != null && entries.length == ratings.length ) {
+			for ( int ix = 0 ; ix < entries.length ; ix++ ) {
+				String entry = entries[ix];
+				String rating = ratings[ix];
+				if ( entry != null && entry.length() > 0 && rating != null && rating.matches( "\\d+" ) && Integer.parseInt( rating ) >= 0 ) {
+					records.add( new WikiEntryRating( Long.parseLong( requestid ), timestamp, entry, Integer.parseInt( rating ) ) );
+				} else {
+					errmsg.append( "Invalid request parameters: requestid = " + requestid + ", entry = '" + entry + "', rating = " + rating + "." );
+					records.clear();
+					break;
+				}
+			}
+		} else {
+			errmsg.append( "Invalid request parameters: requestid = " + requestid + ", entry = '" + request.getParameter( "entry" ) + "', rating = " + request.getParameter( "rating" ) + "." );
+		}
+		
+		if ( !records.isEmpty() ) {
 			try {
-				WikiEntryRatingDAO.add( new WikiEntryRating( Long.parseLong( requestid ), timestamp, entry, Integer.parseInt( rating ) ) );
+				WikiEntryRatingDAO.add( records, RequestLogger.searchDigest( Long.parseLong( requestid ) ) );
 				success = true;
 			} catch ( SQLException e ) {
 				e.printStackTrace();
+				Metrics.counter( "db_errors_total" ).incrementAndGet();
 				errmsg.append( "Server error: cannot store ratings into database." );
 			}
-		} else {
-			errmsg.append( "Invalid request parameters: requestid = " + requestid + ", entry = '" + entry + "', rating = " + rating + "." );
 		}
 		
 		String err = errmsg.toString();
@@ -3,41 +3,43 @@ package edu.umass.cs.ciir.controversy.service;
 import java.util.Map;
 import java.net.URLDecoder;
 import java.io.IOException;
-import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletResponse;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.commons.lang3.StringEscapeUtils;
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.jsoup.examples.HtmlToPlainText;
 
-import com.google.gson.Gson;
-
-import utils.crawl.CrawlerUtils;
-import edu.umass.cs.ciir.controversy.LuceneWikiIndexSettings;
-import edu.umass.cs.ciir.controversy.LuceneWikiScoreSettings;
+import utils.metrics.Metrics;
+import utils.metrics.LatencyHistogram;
 import edu.umass.cs.ciir.controversy.ControversyScorerSettings;
-import edu.umass.cs.ciir.controversy.database.dao.RequestDAO;
-import edu.umass.cs.ciir.controversy.database.dao.URLRatingDAO;
-import edu.umass.cs.ciir.controversy.database.dao.WikiEntryRatingDAO;
 import edu.umass.cs.ciir.controversy.database.entity.Request;
-import edu.umass.cs.ciir.controversy.knn.KNNScorer;
-import edu.umass.cs.ciir.controversy.knn.ObjectInfo;
-import edu.umass.cs.ciir.controversy.knn.aggregation.Generative;
-import edu.umass.cs.ciir.controversy.knn.aggregation.KNNAggregation;
-import edu.umass.cs.ciir.controversy.knn.db.ControversyDatabase;
-import edu.umass.cs.ciir.controversy.knn.db.LuceneControversyDatabase;
-import edu.umass.cs.ciir.controversy.knn.sim.LuceneQLSearcher;
-import edu.umass.cs.ciir.controversy.knn.sim.LuceneTopWordsQuery;
 
+/**
+ * <p>
+ * The /detect servlet runs asynchronously (Servlet 3.1): it parses the request, starts a Detection and returns its container thread at once; the
+ * response is written by whichever thread completes the detection. A slow crawl thus holds no Tomcat thread. The AsyncContext times out a little
+ * after the detection's own timeouts as a safety net; the response is written exactly once, by the detection or by the timeout.
+ * </p>
+ * 
+ * @author Jiepu Jiang
+ * @version Jun 12, 2015
+ */
 public class ServletWebpageControversyDetection extends HttpServlet {
 	
 	private static final long serialVersionUID = 1L;
 	
+	private static final long ASYNC_TIMEOUT_MARGIN_MS = 5000;
+	
+	// time from receiving a request to writing its response
+	private static final LatencyHistogram time_request = Metrics.histogram( "detect_request_seconds" );
+	
 	public ServletWebpageControversyDetection() {
 		super();
 	}
@@ -46,16 +48,27 @@ public class ServletWebpageControversyDetection extends HttpServlet {
 		doPost( request, response );
 	}
 	
-	private static HtmlToPlainText formatter = new HtmlToPlainText();
+	public void init() throws ServletException {
+		super.init();
+		try {
+			ScorerEngine.acquire();
+		} catch ( IOException e ) {
+			throw new ServletException( "Cannot open the controversy scorer engine.", e );
+		}
+	}
+	
+	public void destroy() {
+		try {
+			ScorerEngine.release();
+		} catch ( IOException e ) {
+			e.printStackTrace();
+		}
+		super.destroy();
+	}
 	
 	protected void doPost( HttpServletRequest request, HttpServletResponse response ) throws ServletException, IOException {
 		
-		LuceneTopWordsQuery qc = new LuceneTopWordsQuery( LuceneWikiIndexSettings.analyzer, LuceneWikiIndexSettings.field_text );
-		LuceneQLSearcher searcher = new LuceneQLSearcher( LuceneWikiIndexSettings.path_index, LuceneWikiIndexSettings.smoothing_dir_mu, LuceneWikiIndexSettings.field_key, LuceneWikiIndexSettings.field_title, LuceneWikiIndexSettings.field_text );
-		ControversyDatabase db = new LuceneControversyDatabase( LuceneWikiScoreSettings.path_index, LuceneWikiScoreSettings.field_key, LuceneWikiScoreSettings.field_score );
-		KNNAggregation aggregation = new Generative();
-		KNNScorer scorer = new KNNScorer( qc, searcher, db, aggregation );
-		
+		final long start = System.nanoTime();
 		long user_request_timestamp = System.currentTimeMillis();
 		
 		int topwords = ControversyScorerSettings.default_topwords;
@@ -72,22 +85,18 @@ public class ServletWebpageControversyDetection extends HttpServlet {
 			debug = true;
 		}
 		
-		boolean success = false;
 		StringBuilder errmsg = new StringBuilder();
 		
 		String url = request.getParameter( "url" );
 		String userid = request.getParameter( "userid" );
 		String text = request.getParameter( "text" );
 		
-		ObjectInfo<Double> score = null;
+		String json = null;
 		
 		if ( url != null ) {
 			
 			try {
-				url = URLDecoder.decode( url, "UTF-8" ).trim().toLowerCase();
-				if ( !url.startsWith( "http://" ) && !url.startsWith( "https://" ) && !url.startsWith( "ftp://" ) ) {
-					url = "http://" + url;
-				}
+				url = normalizeUrl( URLDecoder.decode( url, "UTF-8" ) );
 			} catch ( Exception e ) {
 				errmsg.append( "Invalid url: " + url + ". " );
 				e.printStackTrace();
@@ -99,94 +108,92 @@ public class ServletWebpageControversyDetection extends HttpServlet {
 			text = StringEscapeUtils.unescapeXml( text );
 			text = text.trim();
 			
-			double fetchtime = 0;
-			String webpage = "";
-			if ( text.length() == 0 ) {
-				try {
-					long timestamp = System.currentTimeMillis();
-					webpage = CrawlerUtils.getContentString( url, "UTF-8" );
-					Document htmldoc = Jsoup.parse( webpage );
-					webpage = formatter.getPlainText( htmldoc );
-					fetchtime = ( System.currentTimeMillis() - timestamp ) / 1000.0;
-				} catch ( Exception e ) {
-					e.printStackTrace();
-					errmsg.append( "Server cannot get access to the requested url: " + url + ". " );
+			StringBuilder param = new StringBuilder();
+			boolean first = true;
+			Map<String, String[]> keyvalues = request.getParameterMap();
+			for ( String key : keyvalues.keySet() ) {
+				for ( String value : keyvalues.get( key ) ) {
+					if ( !first ) {
+						param.append( "&" );
+					} else {
+						first = false;
+					}
+					param.append( key + "=" + value );
 				}
 			}
 			
-			Request user_request = null;
-			Integer prev_rating = null;
-			Map<String, Integer> prev_rating_entries = null;
-			try {
-				StringBuilder param = new StringBuilder();
-				boolean first = true;
-				Map<String, String[]> keyvalues = request.getParameterMap();
-				for ( String key : keyvalues.keySet() ) {
-					for ( String value : keyvalues.get( key ) ) {
-						if ( !first ) {
-							param.append( "&" );
-						} else {
-							first = false;
-						}
-						param.append( key + "=" + value );
-					}
+			// crawling + scoring and the two rating lookups run in parallel; the response is written when they complete
+			Request user_request = new Request( userid, request.getRemoteAddr(), url, text, "", param.toString(), user_request_timestamp );
+			final AsyncContext context = request.startAsync();
+			final AtomicBoolean responded = new AtomicBoolean( false );
+			context.setTimeout( Math.max( ControversyScorerSettings.detect_timeout_ms, ControversyScorerSettings.rating_timeout_ms ) + ASYNC_TIMEOUT_MARGIN_MS );
+			context.addListener( new AsyncListener() {
+				public void onTimeout( AsyncEvent event ) throws IOException {
+					respond( context, responded, "{\"success\": false, \"controversy\":null, \"errmsg\":\"Server timed out. \"}" );
 				}
-				user_request = RequestDAO.add( new Request( userid, request.getRemoteAddr(), url, text, webpage, param.toString(), user_request_timestamp ) );
-				if ( text.length() == 0 ) {
-					// if requesting a trunk of text, ignore previous rating
-					prev_rating = URLRatingDAO.searchLastRating( user_request.getUserid(), user_request.getUrl() );
-					prev_rating_entries = WikiEntryRatingDAO.searchLastRating( user_request.getUserid(), user_request.getUrl() );
-				} else {
-					prev_rating = URLRatingDAO.searchLastRating( user_request.getUserid(), user_request.getUrl(), text );
-					prev_rating_entries = WikiEntryRatingDAO.searchLastRating( user_request.getUserid(), user_request.getUrl(), text );
+				
+				public void onError( AsyncEvent event ) throws IOException {
+					// the client is gone; nothing can be written any more
+					responded.set( true );
 				}
-			} catch ( SQLException e ) {
-				e.printStackTrace();
-				errmsg.append( "Server error: cannot log requests into database." );
-			}
-			
-			if ( webpage.length() > 0 || text.length() > 0 ) {
-				try {
-					score = text.length() > 0 ? scorer.getScore( text, topwords, topentries ) : scorer.getScore( webpage, topwords, topentries );
-					if ( text.length() > 0 ) {
-						score.setInfo( "request_type", "text" );
-					} else {
-						score.setInfo( "request_type", "url" );
-					}
-					score.setInfo( "time_fetch_webpage", fetchtime );
-					if ( user_request != null ) {
-						user_request.setWebpage( "" ); // do not send crawled webpage information back to the client
-						score.setInfo( "user_request", user_request );
-					}
-					if ( prev_rating != null ) {
-						score.setInfo( "prev_rating", prev_rating );
-					}
-					if ( prev_rating_entries != null ) {
-						score.setInfo( "prev_rating_entries", prev_rating_entries );
-					}
-					success = true;
-				} catch ( Exception e ) {
-					e.printStackTrace();
-					errmsg.append( "Server error: cannot compute controversy score for this webpage." );
+				
+				public void onComplete( AsyncEvent event ) throws IOException {
 				}
-			}
+				
+				public void onStartAsync( AsyncEvent event ) throws IOException {
+				}
+			} );
+			new Detection( user_request, topwords, topentries, debug ).addErrmsg( errmsg.toString() ).start( new Detection.Callback() {
+				public void done( Detection detection ) {
+					respond( context, responded, detection.toJson() );
+					time_request.recordSince( start );
+				}
+			}, ControversyScorerSettings.detect_timeout_ms, ControversyScorerSettings.rating_timeout_ms );
+			return;
 			
 		} else {
 			// generate some error message
 			errmsg.append( "Missing request parameter: url. " );
+			json = "{\"success\": false, \"controversy\":null, \"errmsg\":\"" + errmsg.toString() + "\"}";
 		}
 		
-		scorer.close();
-		
-		String json = null;
-		if ( !debug ) {
-			json = "{\"success\": " + success + ", \"controversy\":" + score.getObject() + ", \"errmsg\":\"" + errmsg.toString() + "\"}";
-		} else {
-			json = "{\"success\": " + success + ", \"controversy\":" + score.getObject() + ", \"errmsg\":\"" + errmsg.toString() + "\"" + ", \"info\":" + new Gson().toJson( score.getInfo() ) + "}";
-		}
 		response.setCharacterEncoding( "UTF-8" );
 		response.getWriter().write( json );
 		
 	}
 	
+	/**
+	 * Normalize a requested url: lowercased, with http:// added if it has no scheme.
+	 */
+	static String normalizeUrl( String url ) {
+		url = url.trim().toLowerCase();
+		if ( !url.startsWith( "http://" ) && !url.startsWith( "https://" ) && !url.startsWith( "ftp://" ) ) {
+			url = "http://" + url;
+		}
+		return url;
+	}
+	
+	/**
+	 * Write the response of an asynchronous request and complete it, unless it has been responded to (the detection and the container's timeout may
+	 * race to respond).
+	 */
+	private static void respond( AsyncContext context, AtomicBoolean responded, String json ) {
+		if ( !responded.compareAndSet( false, true ) ) {
+			return;
+		}
+		try {
+			ServletResponse response = context.getResponse();
+			response.setCharacterEncoding( "UTF-8" );
+			response.getWriter().write( json );
+		} catch ( Exception e ) {
+			e.printStackTrace();
+		} finally {
+			try {
+				context.complete();
+			} catch ( IllegalStateException e ) {
+				// the request has been completed by the container (e.g., timeout or error)
+			}
+		}
+	}
+	
 }
@@ -0,0 +1,26 @@
+package edu.umass.cs.ciir.controversy.service;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+import edu.umass.cs.ciir.controversy.database.RequestLogger;
+
+/**
+ * <p>
+ * Owns the objects shared by all servlets of the web service: the detection executors, the page cache (and its fetcher) and the request logger. They
+ * are created on first use and closed here once, when the web application stops, after all servlets have been destroyed; once closed they are not
+ * created again.
+ * </p>
+ */
+public class WebServiceListener implements ServletContextListener {
+	
+	public void contextInitialized( ServletContextEvent event ) {
+	}
+	
+	public void contextDestroyed( ServletContextEvent event ) {
+		Detection.shutdownExecutors();
+		PageCache.closeShared();
+		RequestLogger.closeShared();
+	}
+	
+}